@@ -0,0 +1,94 @@
+package com.parentoop.core.utils.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Words per second turned into keys by the word count mapper: split on spaces, stripped with a regex and lower-cased,
+ * as it used to, against the {@link Tokenizer}, a reused {@link TextBuffer} and a {@link KeyInterner}, as it does now.
+ * The input is lines of twelve words with mixed case and punctuation, drawn from a vocabulary of a few thousand. Each
+ * path is run a few times, the best run is reported.
+ * <p>
+ * Arguments: the number of lines, 200000 by default.
+ */
+public class TokenizerBenchmark {
+
+    private static final int WORDS_PER_LINE = 12;
+    private static final int VOCABULARY = 5000;
+    // As many as the map workers intern
+    private static final int INTERNED_KEYS = 64 * 1024;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) {
+        int lineCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        List<String> lines = lines(lineCount);
+        long words = (long) lineCount * WORDS_PER_LINE;
+
+        long split = Long.MAX_VALUE;
+        long tokenizer = Long.MAX_VALUE;
+        int checksum = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            checksum += split(lines);
+            split = Math.min(split, System.nanoTime() - start);
+            start = System.nanoTime();
+            checksum -= tokenize(lines);
+            tokenizer = Math.min(tokenizer, System.nanoTime() - start);
+        }
+        if (checksum != 0) throw new AssertionError("The two paths found different keys");
+        System.out.printf("split/regex/lower-case: %6.1f M words/s (%d ms)%n", words / (split / 1e3), split / 1000000);
+        System.out.printf("tokenizer/interner:     %6.1f M words/s (%d ms)%n", words / (tokenizer / 1e3),
+                tokenizer / 1000000);
+    }
+
+    private static int split(List<String> lines) {
+        int hash = 0;
+        for (String line : lines) {
+            for (String word : line.split(" ")) {
+                word = word.replaceAll("[^A-Za-z0-9]", "").toLowerCase();
+                if (!word.isEmpty()) hash += word.hashCode();
+            }
+        }
+        return hash;
+    }
+
+    private static int tokenize(List<String> lines) {
+        Tokenizer tokenizer = new Tokenizer();
+        TextBuffer word = new TextBuffer();
+        KeyInterner keys = new KeyInterner(INTERNED_KEYS);
+        int hash = 0;
+        for (String line : lines) {
+            tokenizer.reset(line);
+            while (tokenizer.next()) {
+                word.clear().appendNormalized(line, tokenizer.start(), tokenizer.end());
+                if (!word.isEmpty()) hash += keys.intern(word).hashCode();
+            }
+        }
+        return hash;
+    }
+
+    private static List<String> lines(int count) {
+        Random random = new Random(42);
+        String[] vocabulary = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int length = 2 + random.nextInt(8); length > 0; length--) {
+                word.append((char) ((random.nextInt(4) == 0 ? 'A' : 'a') + random.nextInt(26)));
+            }
+            if (random.nextInt(5) == 0) word.append(random.nextBoolean() ? ',' : '.');
+            vocabulary[i] = word.toString();
+        }
+        List<String> lines = new ArrayList<>(count);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            line.setLength(0);
+            for (int w = 0; w < WORDS_PER_LINE; w++) {
+                if (w > 0) line.append(' ');
+                line.append(vocabulary[random.nextInt(VOCABULARY)]);
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,17 @@
+package com.parentoop.core.api;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A mapper that may be handed all chunks a slave received from the master at once, instead of one call per chunk.
+ * {@link #map(Serializable, MapYielder)} is still used when chunks arrive one by one.
+ */
+public interface BatchMapper<T extends Serializable> extends Mapper<T> {
+
+    /**
+     * @param chunks the list is only valid during the call.
+     */
+    public void mapBatch(List<T> chunks, MapYielder yielder);
+
+}
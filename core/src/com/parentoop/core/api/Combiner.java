@@ -0,0 +1,14 @@
+package com.parentoop.core.api;
+
+import java.io.Serializable;
+
+/**
+ * Merges values of a key on the slave that mapped them, before they are stored and shuffled, see
+ * {@link com.parentoop.core.loader.TaskDescriptor#setCombinerClass}. It must be associative and commutative, and the
+ * reducer gets combined values along with uncombined ones, so it must accept its output as input.
+ */
+public interface Combiner<V extends Serializable> {
+
+    public V combine(String key, V accumulated, V value);
+
+}
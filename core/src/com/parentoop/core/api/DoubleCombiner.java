@@ -0,0 +1,11 @@
+package com.parentoop.core.api;
+
+/**
+ * Combiner of values yielded through {@link MapYielder#yield(String, double)}, they are accumulated raw. The boxed
+ * combine is used for values yielded as objects.
+ */
+public interface DoubleCombiner extends Combiner<Double> {
+
+    public double combine(String key, double accumulated, double value);
+
+}
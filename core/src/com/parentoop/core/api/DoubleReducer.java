@@ -0,0 +1,13 @@
+package com.parentoop.core.api;
+
+import com.parentoop.core.utils.iterating.DoubleIterator;
+
+/**
+ * Reducer of values yielded through {@link MapYielder#yield(String, double)}, slaves read and send them raw and call
+ * {@link #reduce(String, DoubleIterator)}. The boxed reduce is there for code that handles any {@link Reducer}.
+ */
+public interface DoubleReducer extends Reducer<Double, Double> {
+
+    public double reduce(String key, DoubleIterator values);
+
+}
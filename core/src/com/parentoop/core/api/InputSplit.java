@@ -0,0 +1,82 @@
+package com.parentoop.core.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of bytes of an input file, from start inclusive to end exclusive, see {@link SplittableInputReader}.
+ */
+public class InputSplit {
+
+    // So that a split can always be memory-mapped whole
+    public static final long MAX_LENGTH = 1024 * 1024 * 1024;
+
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+    private final long mStart;
+    private final long mEnd;
+
+    public InputSplit(long start, long end) {
+        if (start < 0 || end < start) throw new IllegalArgumentException("Invalid split [" + start + ", " + end + ")");
+        mStart = start;
+        mEnd = end;
+    }
+
+    public long getStart() {
+        return mStart;
+    }
+
+    public long getEnd() {
+        return mEnd;
+    }
+
+    public long getLength() {
+        return mEnd - mStart;
+    }
+
+    /**
+     * Cuts the file into about count splits of similar length, each one ending right after a delimiter, or at the end
+     * of the file, so that records ending with the delimiter are never cut in two. Splits are kept under
+     * {@link #MAX_LENGTH}, there are more of them than asked for large files.
+     */
+    public static List<InputSplit> split(Path file, int count, byte delimiter) throws IOException {
+        List<InputSplit> splits = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long length = Math.max(1, Math.min(MAX_LENGTH / 2, (size + count - 1) / Math.max(1, count)));
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            long start = 0;
+            while (start < size) {
+                long end = (start + length >= size) ? size : next(channel, start + length, delimiter, buffer);
+                splits.add(new InputSplit(start, end));
+                start = end;
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * Position right after the first delimiter at or after the given one, or the size of the file if there is none.
+     */
+    private static long next(FileChannel channel, long position, byte delimiter, ByteBuffer buffer) throws IOException {
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) return channel.size();
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == delimiter) return position + i + 1;
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[" + mStart + ", " + mEnd + ")";
+    }
+}
@@ -0,0 +1,11 @@
+package com.parentoop.core.api;
+
+/**
+ * Combiner of values yielded through {@link MapYielder#yield(String, long)}, they are accumulated raw. The boxed
+ * combine is used for values yielded as objects.
+ */
+public interface LongCombiner extends Combiner<Long> {
+
+    public long combine(String key, long accumulated, long value);
+
+}
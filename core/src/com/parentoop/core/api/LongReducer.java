@@ -0,0 +1,13 @@
+package com.parentoop.core.api;
+
+import com.parentoop.core.utils.iterating.LongIterator;
+
+/**
+ * Reducer of values yielded through {@link MapYielder#yield(String, long)}, slaves read and send them raw and call
+ * {@link #reduce(String, LongIterator)}. The boxed reduce is there for code that handles any {@link Reducer}.
+ */
+public interface LongReducer extends Reducer<Long, Long> {
+
+    public long reduce(String key, LongIterator values);
+
+}
@@ -6,4 +6,44 @@ public interface MapYielder {
 
     public void yield(String key, Serializable value);
 
+    /**
+     * Yields the value as an {@link Integer}, like {@link #yield(String, Serializable)}. An int would widen into
+     * {@link #yield(String, long)} otherwise, and reach reducers as a {@link Long}.
+     */
+    public void yield(String key, int value);
+
+    /**
+     * Yields the value raw, it's stored and sent without boxing nor serialization. It reaches a {@link LongReducer}
+     * as is, or any other reducer as a {@link Long}.
+     */
+    public void yield(String key, long value);
+
+    /**
+     * Yields the value raw, it's stored and sent without boxing nor serialization. It reaches a {@link DoubleReducer}
+     * as is, or any other reducer as a {@link Double}.
+     */
+    public void yield(String key, double value);
+
+    /**
+     * Like {@link #yield(String, Serializable)}, for keys built in a reused buffer such as a
+     * {@link com.parentoop.core.utils.text.TextBuffer}. The key is only copied when it wasn't seen recently, so it may
+     * be changed once this returns.
+     */
+    public void yield(CharSequence key, Serializable value);
+
+    /**
+     * Like {@link #yield(String, int)}, see {@link #yield(CharSequence, Serializable)}.
+     */
+    public void yield(CharSequence key, int value);
+
+    /**
+     * Like {@link #yield(String, long)}, see {@link #yield(CharSequence, Serializable)}.
+     */
+    public void yield(CharSequence key, long value);
+
+    /**
+     * Like {@link #yield(String, double)}, see {@link #yield(CharSequence, Serializable)}.
+     */
+    public void yield(CharSequence key, double value);
+
 }
@@ -0,0 +1,26 @@
+package com.parentoop.core.api;
+
+import com.parentoop.core.data.Yielder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * An input reader whose input can be cut into byte ranges read independently, so that the master reads them in
+ * parallel instead of going through {@link #read(Path, Yielder)} alone. The same instance reads several splits at
+ * once, from different threads.
+ */
+public interface SplittableInputReader extends InputReader {
+
+    /**
+     * @param count how many splits the master would read in parallel, a hint.
+     * @return ranges covering the whole file, each one starting and ending on a record boundary, see
+     * {@link InputSplit#split(Path, int, byte)}.
+     */
+    public List<InputSplit> split(Path file, int count) throws IOException;
+
+    public void read(Path file, InputSplit split, Yielder<Serializable> chunkYielder);
+
+}
@@ -0,0 +1,35 @@
+package com.parentoop.core.api;
+
+/**
+ * What a {@link TaskLifecycle} mapper or reducer learns about where it runs when it's set up.
+ */
+public class TaskContext {
+
+    private final String mTaskName;
+    private final int mWorkerIndex;
+    private final int mWorkerCount;
+
+    public TaskContext(String taskName, int workerIndex, int workerCount) {
+        mTaskName = taskName;
+        mWorkerIndex = workerIndex;
+        mWorkerCount = workerCount;
+    }
+
+    public String getTaskName() {
+        return mTaskName;
+    }
+
+    /**
+     * Index of the worker thread on the slave, from zero to {@link #getWorkerCount()} exclusive.
+     */
+    public int getWorkerIndex() {
+        return mWorkerIndex;
+    }
+
+    /**
+     * Number of worker threads running instances of the same class on the slave.
+     */
+    public int getWorkerCount() {
+        return mWorkerCount;
+    }
+}
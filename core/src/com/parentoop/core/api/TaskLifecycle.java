@@ -0,0 +1,20 @@
+package com.parentoop.core.api;
+
+/**
+ * Optional hooks for a {@link Mapper} or {@link Reducer}. Slaves create an instance per worker thread, which is only
+ * ever used by that thread, so it may keep state such as buffers or partial aggregates without synchronizing.
+ */
+public interface TaskLifecycle {
+
+    /**
+     * Called on the worker thread before the instance maps or reduces anything.
+     */
+    public void setup(TaskContext context);
+
+    /**
+     * Called once the phase is over, the instance won't be used anymore. Mappers may yield pairs they held back, as
+     * they'd do while mapping. Reducers may yield extra result pairs, which are output along with the reduced ones.
+     */
+    public void cleanup(MapYielder yielder);
+
+}
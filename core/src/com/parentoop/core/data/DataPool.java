@@ -1,39 +1,70 @@
 package com.parentoop.core.data;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Queue;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class DataPool<V> implements Iterable<V>, Yielder<V> {
-    
-    private Lock mLock = new ReentrantLock();
-    private Condition mStreamUpdate = mLock.newCondition();
 
-    private Queue<V> mBuffer = new LinkedList<>();
-    private volatile boolean mOpened = true;
+    private final PoolBuffer<V> mBuffer;
+
+    /**
+     * Unbounded pool, producers never block.
+     */
+    public DataPool() {
+        mBuffer = new QueueBuffer<>();
+    }
+
+    /**
+     * Bounded pool, producers block while it holds capacity items, so that they can't get arbitrarily ahead of the
+     * consumers.
+     */
+    public DataPool(int capacity) {
+        mBuffer = new QueueBuffer<>(capacity);
+    }
+
+    private DataPool(PoolBuffer<V> buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Bounded pool backed by a preallocated lock-free ring buffer, rounded up to a power of two. It only pays off with
+     * several cores to run producers and consumers side by side, see DataPoolBenchmark before picking it over
+     * {@link #DataPool(int)}.
+     */
+    public static <V> DataPool<V> ringBuffered(int capacity) {
+        return new DataPool<>(new RingBuffer<V>(capacity));
+    }
 
     public void yield(V item) {
-        if (!mOpened) throw new IllegalStateException("Cannot yield data after closed.");
-        mLock.lock();
-        try {
-            mBuffer.add(item);
-            mStreamUpdate.signalAll();
-        } finally {
-            mLock.unlock();
+        mBuffer.put(item);
+    }
+
+    /**
+     * Yields every item, paying for the synchronization with the consumers once instead of once per item.
+     */
+    public void yieldAll(Collection<? extends V> items) {
+        mBuffer.putAll(items);
+    }
+
+    /**
+     * Blocks until there is at least one item or the pool is closed, then moves up to max items to the destination.
+     * Not to be mixed with the iterator, which is the one consuming the pool otherwise.
+     *
+     * @return the number of items moved, zero only when the pool is closed and has no items left.
+     */
+    public int drainTo(Collection<? super V> destination, int max) {
+        while (mBuffer.await()) {
+            int count = mBuffer.drainTo(destination, max);
+            // Another consumer may have taken them in between
+            if (count > 0) return count;
         }
+        return 0;
     }
 
     public void close() {
-        mLock.lock();
-        try {
-            mOpened = false;
-            mStreamUpdate.signalAll();
-        } finally {
-            mLock.unlock();
-        }
+        mBuffer.close();
     }
 
     private boolean mIteratorReturned = false;
@@ -47,31 +78,59 @@ public class DataPool<V> implements Iterable<V>, Yielder<V> {
         return new DataPoolIterator();
     }
 
+    /**
+     * Like {@link #iterator()}, but takes items from the pool up to batchSize at a time into a local buffer, so it must
+     * not be shared between threads.
+     */
+    public Iterator<V> batchedIterator(int batchSize) {
+        if (mIteratorReturned) {
+            throw new IllegalStateException("Only one iterator is allowed since it consumes the list while iterating");
+        }
+        mIteratorReturned = true;
+        return new BatchedIterator(batchSize);
+    }
+
+    private class BatchedIterator implements Iterator<V> {
+
+        private final int mBatchSize;
+        private final Queue<V> mBatch;
+
+        private BatchedIterator(int batchSize) {
+            mBatchSize = batchSize;
+            mBatch = new ArrayDeque<>(batchSize);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !mBatch.isEmpty() || drainTo(mBatch, mBatchSize) > 0;
+        }
+
+        @Override
+        public V next() {
+            if (!hasNext()) throw new IllegalStateException();
+            return mBatch.remove();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     private class DataPoolIterator implements Iterator<V> {
 
         @Override
         public boolean hasNext() {
-            mLock.lock();
-            try {
-                while (mOpened && mBuffer.isEmpty()) mStreamUpdate.await();
-                return !mBuffer.isEmpty();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                return false;
-            } finally {
-                mLock.unlock();
-            }
+            return mBuffer.await();
         }
 
         @Override
         public V next() {
             if (!hasNext()) throw new IllegalStateException();
-            mLock.lock();
-            try {
-                return mBuffer.remove();
-            } finally {
-                mLock.unlock();
-            }
+            V item = mBuffer.poll();
+            // Another thread sharing the iterator may have taken it in between
+            if (item == null) throw new IllegalStateException();
+            return item;
         }
 
         @Override
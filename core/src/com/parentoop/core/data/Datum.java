@@ -2,22 +2,127 @@ package com.parentoop.core.data;
 
 import java.io.Serializable;
 
+/**
+ * A key and its value, which may be held as a raw long or double instead of an object, see
+ * {@link com.parentoop.core.api.MapYielder#yield(String, long)}. Between nodes that agreed on a dictionary of keys,
+ * the key may be replaced by its id.
+ */
 public final class Datum implements Serializable {
 
+    private static final byte OBJECT = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+
+    private static final int NO_KEY_ID = -1;
+
     private final String key;
+    private final int keyId;
     private final Serializable value;
+    private final byte type;
+    // The long or the bits of the double
+    private final long raw;
 
-    public Datum(String key, Serializable value) {
+    private Datum(String key, int keyId, Serializable value, byte type, long raw) {
         this.key = key;
+        this.keyId = keyId;
         this.value = value;
+        this.type = type;
+        this.raw = raw;
+    }
+
+    public Datum(String key, Serializable value) {
+        this(key, NO_KEY_ID, value, OBJECT, 0);
+    }
+
+    /**
+     * Holds the value as an {@link Integer}, so that ints don't widen into raw longs.
+     */
+    public Datum(String key, int value) {
+        this(key, NO_KEY_ID, value, OBJECT, 0);
+    }
+
+    public Datum(String key, long value) {
+        this(key, NO_KEY_ID, null, LONG, value);
+    }
+
+    public Datum(String key, double value) {
+        this(key, NO_KEY_ID, null, DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * @param keyId non-negative.
+     */
+    public Datum(int keyId, Serializable value) {
+        this(null, checkKeyId(keyId), value, OBJECT, 0);
+    }
+
+    public Datum(int keyId, int value) {
+        this(null, checkKeyId(keyId), value, OBJECT, 0);
+    }
+
+    public Datum(int keyId, long value) {
+        this(null, checkKeyId(keyId), null, LONG, value);
     }
 
+    public Datum(int keyId, double value) {
+        this(null, checkKeyId(keyId), null, DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    private static int checkKeyId(int keyId) {
+        if (keyId < 0) throw new IllegalArgumentException("Key id must be non-negative, got " + keyId);
+        return keyId;
+    }
+
+    /**
+     * Null if the key is identified by its id.
+     */
     public String getKey() {
         return key;
     }
 
+    public boolean hasKeyId() {
+        return keyId != NO_KEY_ID;
+    }
+
+    public int getKeyId() {
+        if (keyId == NO_KEY_ID) throw new IllegalStateException("Key " + key + " has no id");
+        return keyId;
+    }
+
+    /**
+     * The value, boxed if it's raw.
+     */
     public Serializable getValue() {
-        return value;
+        switch (type) {
+            case LONG:
+                return raw;
+            case DOUBLE:
+                return Double.longBitsToDouble(raw);
+            default:
+                return value;
+        }
+    }
+
+    public boolean isLong() {
+        return type == LONG;
+    }
+
+    public boolean isDouble() {
+        return type == DOUBLE;
+    }
+
+    public long getLong() {
+        if (type != LONG) throw new IllegalStateException("Value of " + describeKey() + " is not a raw long");
+        return raw;
+    }
+
+    public double getDouble() {
+        if (type != DOUBLE) throw new IllegalStateException("Value of " + describeKey() + " is not a raw double");
+        return Double.longBitsToDouble(raw);
+    }
+
+    private String describeKey() {
+        return (key != null) ? key : "key #" + keyId;
     }
 
     @Override
@@ -25,15 +130,18 @@ public final class Datum implements Serializable {
         if (this == object) return true;
         if (!(object instanceof Datum)) return false;
         Datum datum = (Datum) object;
-        if (!key.equals(datum.key)) return false;
+        if (keyId != datum.keyId) return false;
+        if (key != null ? !key.equals(datum.key) : datum.key != null) return false;
+        if (type != datum.type) return false;
+        if (type != OBJECT) return raw == datum.raw;
         if (!value.equals(datum.value)) return false;
         return true;
     }
 
     @Override
     public int hashCode() {
-        int result = key.hashCode();
-        result = 31 * result + value.hashCode();
+        int result = (key != null) ? key.hashCode() : keyId;
+        result = 31 * result + ((type != OBJECT) ? (int) (raw ^ (raw >>> 32)) : value.hashCode());
         return result;
     }
 
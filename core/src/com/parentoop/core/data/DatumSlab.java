@@ -0,0 +1,238 @@
+package com.parentoop.core.data;
+
+import com.parentoop.core.utils.text.TextBuffer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Key/value records appended into a byte array, so that buffered map output costs about its encoded size instead of a
+ * {@link Datum} per record. Each record is a header byte, the key and the value, encoded like
+ * {@link com.parentoop.core.networking.DatumCodec} does. Object values are only referenced, by their index in a list,
+ * they'd have to be serialized and then read back by the task's class loader otherwise. Records can also be read in
+ * place from their offsets, see {@link Reader#seek}.
+ * <p>
+ * Filled by one thread, then handed over to the one reading it through a {@link Reader}, and cleared to be reused.
+ */
+public class DatumSlab {
+
+    private static final int OBJECT = 0;
+    private static final int RAW_LONG = 1;
+    private static final int RAW_DOUBLE = 2;
+
+    // Header, key length and value, besides the key chars
+    private static final int MAX_RECORD_OVERHEAD = 1 + 5 + 10;
+
+    private byte[] mBytes;
+    private int mSize = 0;
+    private int mCount = 0;
+    private final List<Serializable> mObjects = new ArrayList<>();
+
+    public DatumSlab(int initialCapacity) {
+        mBytes = new byte[initialCapacity];
+    }
+
+    public void append(CharSequence key, Serializable value) {
+        appendKey(OBJECT, key);
+        int index = mObjects.size();
+        while ((index & ~0x7F) != 0) {
+            mBytes[mSize++] = (byte) ((index & 0x7F) | 0x80);
+            index >>>= 7;
+        }
+        mBytes[mSize++] = (byte) index;
+        mObjects.add(value);
+    }
+
+    public void append(CharSequence key, long value) {
+        appendKey(RAW_LONG, key);
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            mBytes[mSize++] = (byte) ((zigZag & 0x7F) | 0x80);
+            zigZag >>>= 7;
+        }
+        mBytes[mSize++] = (byte) zigZag;
+    }
+
+    public void append(CharSequence key, double value) {
+        appendKey(RAW_DOUBLE, key);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) mBytes[mSize++] = (byte) (bits >>> shift);
+    }
+
+    /**
+     * Writes the header and the key, making room for the value too.
+     */
+    private void appendKey(int type, CharSequence key) {
+        int length = key.length();
+        ensureCapacity(MAX_RECORD_OVERHEAD + 3 * length);
+        mBytes[mSize++] = (byte) type;
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            mBytes[mSize++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBytes[mSize++] = (byte) value;
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                mBytes[mSize++] = (byte) c;
+            } else if (c < 0x800) {
+                mBytes[mSize++] = (byte) (0xC0 | (c >> 6));
+                mBytes[mSize++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                mBytes[mSize++] = (byte) (0xE0 | (c >> 12));
+                mBytes[mSize++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                mBytes[mSize++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        mCount++;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mSize + extra > mBytes.length) mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mSize + extra));
+    }
+
+    /**
+     * Bytes taken by the records.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int count() {
+        return mCount;
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    public void clear() {
+        mSize = 0;
+        mCount = 0;
+        mObjects.clear();
+    }
+
+    /**
+     * Reads the records of slabs in the order they were appended. The key and value are only valid until the next
+     * call to {@link #next()}. Meant to be reused, see {@link #reset(DatumSlab)}.
+     */
+    public static class Reader {
+
+        private final TextBuffer mKey = new TextBuffer();
+        private DatumSlab mSlab;
+        private int mOffset;
+        private int mPosition;
+        private int mType;
+        private long mRaw;
+        private Serializable mValue;
+
+        public Reader reset(DatumSlab slab) {
+            mSlab = slab;
+            mPosition = 0;
+            mValue = null;
+            return this;
+        }
+
+        /**
+         * Reads the record at the offset, reading goes on from the one after it.
+         */
+        public Reader seek(DatumSlab slab, int offset) {
+            reset(slab);
+            mPosition = offset;
+            next();
+            return this;
+        }
+
+        /**
+         * Moves to the next record.
+         *
+         * @return false if there are no records left.
+         */
+        public boolean next() {
+            if (mPosition == mSlab.mSize) return false;
+            byte[] bytes = mSlab.mBytes;
+            mOffset = mPosition;
+            mType = bytes[mPosition++];
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[mPosition++];
+                length |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            mKey.clear();
+            for (int i = 0; i < length; i++) {
+                int b = bytes[mPosition++] & 0xFF;
+                if (b < 0x80) {
+                    mKey.append((char) b);
+                } else if (b < 0xE0) {
+                    mKey.append((char) (((b & 0x1F) << 6) | (bytes[mPosition++] & 0x3F)));
+                } else {
+                    int second = bytes[mPosition++] & 0x3F;
+                    mKey.append((char) (((b & 0x0F) << 12) | (second << 6) | (bytes[mPosition++] & 0x3F)));
+                }
+            }
+            switch (mType) {
+                case RAW_LONG:
+                    long zigZag = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = bytes[mPosition++];
+                        zigZag |= (long) (b & 0x7F) << shift;
+                        if (b >= 0) break;
+                    }
+                    mRaw = (zigZag >>> 1) ^ -(zigZag & 1);
+                    break;
+                case RAW_DOUBLE:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) bits = (bits << 8) | (bytes[mPosition++] & 0xFF);
+                    mRaw = bits;
+                    break;
+                default:
+                    int index = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = bytes[mPosition++];
+                        index |= (b & 0x7F) << shift;
+                        if (b >= 0) break;
+                    }
+                    mValue = mSlab.mObjects.get(index);
+            }
+            return true;
+        }
+
+        /**
+         * Offset of the record in its slab.
+         */
+        public int getOffset() {
+            return mOffset;
+        }
+
+        public CharSequence getKey() {
+            return mKey;
+        }
+
+        public boolean isLong() {
+            return mType == RAW_LONG;
+        }
+
+        public boolean isDouble() {
+            return mType == RAW_DOUBLE;
+        }
+
+        public long getLong() {
+            return mRaw;
+        }
+
+        public double getDouble() {
+            return Double.longBitsToDouble(mRaw);
+        }
+
+        /**
+         * The value of a record that isn't raw.
+         */
+        public Serializable getValue() {
+            return mValue;
+        }
+    }
+}
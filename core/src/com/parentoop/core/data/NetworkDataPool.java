@@ -9,9 +9,52 @@ import java.util.Iterator;
 
 public class NetworkDataPool extends DataPool<Datum> implements MapYielder, Iterable<Datum> {
 
+    public NetworkDataPool() {
+        super();
+    }
+
+    public NetworkDataPool(int capacity) {
+        super(capacity);
+    }
+
     @Override
     public void yield(String key, Serializable value) {
-        yield(new Datum(key, value));
+        this.yield(new Datum(key, value));
+    }
+
+    @Override
+    public void yield(String key, int value) {
+        this.yield(new Datum(key, value));
+    }
+
+    @Override
+    public void yield(String key, long value) {
+        this.yield(new Datum(key, value));
+    }
+
+    @Override
+    public void yield(String key, double value) {
+        this.yield(new Datum(key, value));
+    }
+
+    @Override
+    public void yield(CharSequence key, Serializable value) {
+        this.yield(new Datum(key.toString(), value));
+    }
+
+    @Override
+    public void yield(CharSequence key, int value) {
+        this.yield(new Datum(key.toString(), value));
+    }
+
+    @Override
+    public void yield(CharSequence key, long value) {
+        this.yield(new Datum(key.toString(), value));
+    }
+
+    @Override
+    public void yield(CharSequence key, double value) {
+        this.yield(new Datum(key.toString(), value));
     }
 
     private final Converter<Datum, Serializable> mConverter = new Converter<Datum, Serializable>() {
@@ -0,0 +1,44 @@
+package com.parentoop.core.data;
+
+import java.util.Collection;
+
+/**
+ * Storage behind a {@link DataPool}, it does the blocking on behalf of the pool.
+ */
+/* package private */ interface PoolBuffer<V> {
+
+    /**
+     * Blocks while there is no room for the item, if the buffer is bounded.
+     *
+     * @throws IllegalStateException if the buffer was closed.
+     */
+    public void put(V item);
+
+    /**
+     * Like {@link #put(Object)} for each item, waking consumers once instead of once per item.
+     */
+    public void putAll(Collection<? extends V> items);
+
+    /**
+     * Blocks until there is an item to poll or the buffer is closed.
+     *
+     * @return whether there is an item to poll.
+     */
+    public boolean await();
+
+    /**
+     * @return the next item or null if there is none right now.
+     */
+    public V poll();
+
+    /**
+     * Moves up to max items that are there right now, without blocking.
+     *
+     * @return the number of items moved.
+     */
+    public int drainTo(Collection<? super V> destination, int max);
+
+    public void close();
+
+    public int size();
+}
@@ -0,0 +1,139 @@
+package com.parentoop.core.data;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Linked queue guarded by a lock, unbounded unless given a capacity, in which case producers wait while it's full.
+ */
+/* package private */ class QueueBuffer<V> implements PoolBuffer<V> {
+
+    private Lock mLock = new ReentrantLock();
+    private Condition mStreamUpdate = mLock.newCondition();
+    private Condition mRoomUpdate = mLock.newCondition();
+
+    private Queue<V> mBuffer = new LinkedList<>();
+    private final int mCapacity;
+    private volatile boolean mOpened = true;
+
+    public QueueBuffer() {
+        mCapacity = Integer.MAX_VALUE;
+    }
+
+    public QueueBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        mCapacity = capacity;
+    }
+
+    @Override
+    public void put(V item) {
+        if (!mOpened) throw new IllegalStateException("Cannot yield data after closed.");
+        mLock.lock();
+        try {
+            awaitRoom();
+            mBuffer.add(item);
+            mStreamUpdate.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Collection<? extends V> items) {
+        if (!mOpened) throw new IllegalStateException("Cannot yield data after closed.");
+        mLock.lock();
+        try {
+            if (mBuffer.size() + items.size() <= mCapacity) {
+                mBuffer.addAll(items);
+            } else {
+                for (V item : items) {
+                    // Consumers must see what was added so far, they have to drain it for this one to fit
+                    if (mBuffer.size() >= mCapacity) mStreamUpdate.signalAll();
+                    awaitRoom();
+                    mBuffer.add(item);
+                }
+            }
+            mStreamUpdate.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * To be called holding the lock.
+     */
+    private void awaitRoom() {
+        while (mBuffer.size() >= mCapacity) {
+            if (!mOpened) throw new IllegalStateException("Cannot yield data after closed.");
+            try {
+                mRoomUpdate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for room to yield data.");
+            }
+        }
+    }
+
+    @Override
+    public boolean await() {
+        mLock.lock();
+        try {
+            while (mOpened && mBuffer.isEmpty()) mStreamUpdate.await();
+            return !mBuffer.isEmpty();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public V poll() {
+        mLock.lock();
+        try {
+            V item = mBuffer.poll();
+            if (item != null) mRoomUpdate.signalAll();
+            return item;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super V> destination, int max) {
+        mLock.lock();
+        try {
+            int count = 0;
+            while (count < max && !mBuffer.isEmpty()) {
+                destination.add(mBuffer.remove());
+                count++;
+            }
+            if (count > 0) mRoomUpdate.signalAll();
+            return count;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        mLock.lock();
+        try {
+            mOpened = false;
+            mStreamUpdate.signalAll();
+            mRoomUpdate.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return mBuffer.size();
+    }
+}
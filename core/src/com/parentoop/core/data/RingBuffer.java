@@ -0,0 +1,199 @@
+package com.parentoop.core.data;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded buffer over a preallocated array, safe for any number of producers and consumers without locks. Each slot has
+ * a sequence number telling whether it's free for the producer claiming that position or filled for the consumer
+ * claiming it. A full buffer makes producers spin for a while and then park, an empty one does the same to consumers.
+ * Threads are only unparked when somebody is parked, so a yield to a pool whose consumer keeps up costs two atomic
+ * operations.
+ */
+/* package private */ class RingBuffer<V> implements PoolBuffer<V> {
+
+    private static final int SPIN_TRIES = 128;
+
+    private final Object[] mItems;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong(0);
+    private final AtomicLong mTail = new AtomicLong(0);
+    private volatile boolean mOpened = true;
+
+    private final Queue<Thread> mParkedProducers = new ConcurrentLinkedQueue<>();
+    private final Queue<Thread> mParkedConsumers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param capacity rounded up to a power of two.
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        mItems = new Object[size];
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) mSequences.set(i, i);
+        mMask = size - 1;
+    }
+
+    @Override
+    public void put(V item) {
+        if (!mOpened) throw new IllegalStateException("Cannot yield data after closed.");
+        offerOrWait(item);
+        unparkAll(mParkedConsumers);
+    }
+
+    @Override
+    public void putAll(Collection<? extends V> items) {
+        if (!mOpened) throw new IllegalStateException("Cannot yield data after closed.");
+        for (V item : items) {
+            if (!offer(item)) {
+                // Consumers may be parked on what was offered so far, they must drain it for this one to fit
+                unparkAll(mParkedConsumers);
+                offerOrWait(item);
+            }
+        }
+        unparkAll(mParkedConsumers);
+    }
+
+    private void offerOrWait(V item) {
+        for (int i = 0; !offer(item); i++) {
+            if (i >= SPIN_TRIES) {
+                parkUntilOffered(item);
+                return;
+            }
+        }
+    }
+
+    private void parkUntilOffered(V item) {
+        Thread current = Thread.currentThread();
+        // Registered before trying again, so that a consumer freeing a slot afterwards sees it
+        mParkedProducers.add(current);
+        try {
+            while (!offer(item)) {
+                if (!mOpened) throw new IllegalStateException("Cannot yield data after closed.");
+                LockSupport.park(this);
+                if (current.isInterrupted()) {
+                    throw new IllegalStateException("Interrupted while waiting for room to yield data.");
+                }
+            }
+        } finally {
+            mParkedProducers.remove(current);
+        }
+    }
+
+    @Override
+    public boolean await() {
+        for (int i = 0; i < SPIN_TRIES; i++) {
+            if (hasItem()) return true;
+            if (!mOpened) return hasItem();
+        }
+        Thread current = Thread.currentThread();
+        mParkedConsumers.add(current);
+        try {
+            while (mOpened && !hasItem()) {
+                LockSupport.park(this);
+                if (current.isInterrupted()) {
+                    new InterruptedException().printStackTrace();
+                    return false;
+                }
+            }
+            return hasItem();
+        } finally {
+            mParkedConsumers.remove(current);
+        }
+    }
+
+    @Override
+    public V poll() {
+        V item = dequeue();
+        if (item != null) unparkAll(mParkedProducers);
+        return item;
+    }
+
+    @Override
+    public int drainTo(Collection<? super V> destination, int max) {
+        int count = 0;
+        V item;
+        while (count < max && (item = dequeue()) != null) {
+            destination.add(item);
+            count++;
+        }
+        if (count > 0) unparkAll(mParkedProducers);
+        return count;
+    }
+
+    private V dequeue() {
+        long position = mHead.get();
+        while (true) {
+            int index = (int) (position & mMask);
+            long difference = mSequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (mHead.compareAndSet(position, position + 1)) {
+                    //noinspection unchecked
+                    V item = (V) mItems[index];
+                    mItems[index] = null;
+                    mSequences.set(index, position + mItems.length);
+                    return item;
+                }
+                position = mHead.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = mHead.get();
+            }
+        }
+    }
+
+    private boolean offer(V item) {
+        long position = mTail.get();
+        while (true) {
+            int index = (int) (position & mMask);
+            long difference = mSequences.get(index) - position;
+            if (difference == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    mItems[index] = item;
+                    mSequences.set(index, position + 1);
+                    return true;
+                }
+                position = mTail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = mTail.get();
+            }
+        }
+    }
+
+    /**
+     * Whether the slot at the head was filled. A producer that claimed it but didn't fill it yet unparks consumers
+     * once it does.
+     */
+    private boolean hasItem() {
+        long position = mHead.get();
+        return mSequences.get((int) (position & mMask)) == position + 1;
+    }
+
+    private static void unparkAll(Queue<Thread> parked) {
+        if (parked.isEmpty()) return;
+        for (Thread thread : parked) LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void close() {
+        mOpened = false;
+        unparkAll(mParkedConsumers);
+        unparkAll(mParkedProducers);
+    }
+
+    @Override
+    public int size() {
+        long size = mTail.get() - mHead.get();
+        return (int) Math.max(0, Math.min(size, mItems.length));
+    }
+}
@@ -1,5 +1,6 @@
 package com.parentoop.core.loader;
 
+import com.parentoop.core.api.Combiner;
 import com.parentoop.core.api.InputReader;
 import com.parentoop.core.api.Mapper;
 import com.parentoop.core.api.Reducer;
@@ -14,6 +15,7 @@ public class Task {
 
     private Mapper mMapper;
     private Reducer mReducer;
+    private Combiner mCombiner;
     private InputReader mInputReader;
 
     public static Task load(Path jarFile, String taskConfiguratorClassName) {
@@ -62,25 +64,51 @@ public class Task {
     }
 
     public Mapper getMapper() {
-        if (mMapper == null) {
-            try {
-                mMapper = (Mapper) mJarLoader.loadClass(mDescriptor.getMapperClass()).newInstance();
-            } catch (InstantiationException | IllegalAccessException e) {
-                e.printStackTrace();
-            }
-        }
+        if (mMapper == null) mMapper = newMapper();
         return mMapper;
     }
 
+    /**
+     * A new instance, unlike {@link #getMapper()}.
+     */
+    public Mapper newMapper() {
+        try {
+            return (Mapper) mJarLoader.loadClass(mDescriptor.getMapperClass()).newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     public Reducer getReducer() {
-        if (mReducer == null) {
+        if (mReducer == null) mReducer = newReducer();
+        return mReducer;
+    }
+
+    /**
+     * A new instance, unlike {@link #getReducer()}.
+     */
+    public Reducer newReducer() {
+        try {
+            return (Reducer) mJarLoader.loadClass(mDescriptor.getReducerClass()).newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Null if the task has no combiner.
+     */
+    public Combiner getCombiner() {
+        if (mCombiner == null && mDescriptor.getCombinerClass() != null) {
             try {
-                mReducer = (Reducer) mJarLoader.loadClass(mDescriptor.getReducerClass()).newInstance();
+                mCombiner = (Combiner) mJarLoader.loadClass(mDescriptor.getCombinerClass()).newInstance();
             } catch (InstantiationException | IllegalAccessException e) {
                 e.printStackTrace();
             }
         }
-        return mReducer;
+        return mCombiner;
     }
 
     public InputReader getInputReader() {
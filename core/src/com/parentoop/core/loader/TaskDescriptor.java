@@ -1,5 +1,6 @@
 package com.parentoop.core.loader;
 
+import com.parentoop.core.api.Combiner;
 import com.parentoop.core.api.InputReader;
 import com.parentoop.core.api.Mapper;
 import com.parentoop.core.api.Reducer;
@@ -11,6 +12,7 @@ public class TaskDescriptor implements Serializable{
     private String mTaskName;
     private String mMapperClass;
     private String mReducerClass;
+    private String mCombinerClass;
     private String mInputReaderClass;
 
     public String getTaskName() {
@@ -37,6 +39,20 @@ public class TaskDescriptor implements Serializable{
         mReducerClass = reducerClass.getName();
     }
 
+    /**
+     * Null if the task has no combiner.
+     */
+    public String getCombinerClass() {
+        return mCombinerClass;
+    }
+
+    /**
+     * Optional, values are stored and shuffled as they are yielded if there's none.
+     */
+    public void setCombinerClass(Class<? extends Combiner> combinerClass) {
+        mCombinerClass = combinerClass.getName();
+    }
+
     public String getInputReaderClass() {
         return mInputReaderClass;
     }
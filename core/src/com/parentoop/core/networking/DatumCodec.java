@@ -0,0 +1,72 @@
+package com.parentoop.core.networking;
+
+import com.parentoop.core.data.Datum;
+import com.parentoop.network.api.codec.MessageCodec;
+import com.parentoop.network.api.codec.ObjectCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Writes a header telling how the key and value are encoded, then the key as a plain string or its id, then the
+ * value. Raw longs and doubles are written as is and decoded into raw datums again, other values go through
+ * {@link ObjectCodec}, so common values such as integers cost a handful of bytes.
+ */
+public class DatumCodec implements MessageCodec<Datum> {
+
+    public static final DatumCodec INSTANCE = new DatumCodec();
+
+    private static final int OBJECT = 0;
+    private static final int RAW_LONG = 1;
+    private static final int RAW_DOUBLE = 2;
+    private static final int VALUE_MASK = 0x0F;
+    private static final int KEY_ID = 0x10;
+
+    @Override
+    public void encode(Datum datum, DataOutput out) throws IOException {
+        int value = datum.isLong() ? RAW_LONG : datum.isDouble() ? RAW_DOUBLE : OBJECT;
+        out.writeByte(datum.hasKeyId() ? (KEY_ID | value) : value);
+        if (datum.hasKeyId()) {
+            ObjectCodec.writeVarInt(out, datum.getKeyId());
+        } else {
+            ObjectCodec.writeString(out, datum.getKey());
+        }
+        switch (value) {
+            case RAW_LONG:
+                ObjectCodec.writeVarLong(out, datum.getLong());
+                break;
+            case RAW_DOUBLE:
+                out.writeDouble(datum.getDouble());
+                break;
+            default:
+                ObjectCodec.INSTANCE.encode(datum.getValue(), out);
+        }
+    }
+
+    @Override
+    public Datum decode(DataInput in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        int header = in.readByte();
+        if ((header & KEY_ID) != 0) {
+            int keyId = ObjectCodec.readVarInt(in);
+            switch (header & VALUE_MASK) {
+                case RAW_LONG:
+                    return new Datum(keyId, ObjectCodec.readVarLong(in));
+                case RAW_DOUBLE:
+                    return new Datum(keyId, in.readDouble());
+                default:
+                    return new Datum(keyId, (Serializable) ObjectCodec.INSTANCE.decode(in, classLoader));
+            }
+        }
+        String key = ObjectCodec.readString(in);
+        switch (header & VALUE_MASK) {
+            case RAW_LONG:
+                return new Datum(key, ObjectCodec.readVarLong(in));
+            case RAW_DOUBLE:
+                return new Datum(key, in.readDouble());
+            default:
+                return new Datum(key, (Serializable) ObjectCodec.INSTANCE.decode(in, classLoader));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.parentoop.core.networking;
 
+import com.parentoop.network.api.codec.MessageCodecs;
+
 // Maybe use enum and retrieve ordinal() for sending through the network
 public class Messages {
 
@@ -15,6 +17,7 @@ public class Messages {
     public static final int MAP_CHUNK = 101;                // Master-slave
     public static final int KEY_FOUND = 102;
     public static final int END_MAP = 103;
+    public static final int MAP_CHUNKS = 104;               // Master-slave
 
     // Reducing phase
     public static final int LOAD_SLAVE_ADDRESSES = 201;     // Master-slave
@@ -22,6 +25,7 @@ public class Messages {
     public static final int REQUEST_VALUES = 203;           // slave-Slave
     public static final int KEY_VALUE = 204;                // Slave-slave
     public static final int END_OF_DATA_STREAM = 205;       // Slave-slave
+    public static final int GRANT_CREDITS = 206;            // slave-Slave
 
     // Finalization
     public static final int RESULT_PAIR = 301;              // slave-Master
@@ -38,6 +42,15 @@ public class Messages {
     public static final int SLAVE_CONNECTED = 1006;         // Master-client
     public static final int SLAVE_DISCONNECTED = 1007;      // Master-client
 
+    /**
+     * Registers the binary codecs for messages carrying core types. Every node calls it before connecting.
+     */
+    public static void registerCodecs() {
+        MessageCodecs.register(REQUEST_VALUES, DatumCodec.INSTANCE);
+        MessageCodecs.register(KEY_VALUE, DatumCodec.INSTANCE);
+        MessageCodecs.register(GRANT_CREDITS, DatumCodec.INSTANCE);
+        MessageCodecs.register(RESULT_PAIR, DatumCodec.INSTANCE);
+    }
 
     // Prevents instantiation
     private Messages() {
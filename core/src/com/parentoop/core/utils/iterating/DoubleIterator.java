@@ -0,0 +1,12 @@
+package com.parentoop.core.utils.iterating;
+
+/**
+ * Iterator over primitive doubles, so that values are never boxed.
+ */
+public interface DoubleIterator {
+
+    public boolean hasNext();
+
+    public double nextDouble();
+
+}
@@ -0,0 +1,12 @@
+package com.parentoop.core.utils.iterating;
+
+/**
+ * Iterator over primitive longs, so that values are never boxed.
+ */
+public interface LongIterator {
+
+    public boolean hasNext();
+
+    public long nextLong();
+
+}
@@ -0,0 +1,78 @@
+package com.parentoop.core.utils.text;
+
+import java.util.Arrays;
+
+/**
+ * Maps char sequences to a string with the same content, which is only created the first time the content is seen. A
+ * mapper thread can then yield keys built in a reused {@link TextBuffer} and only pay for a copy of the new ones. It's
+ * a cache: once it holds maxKeys strings it starts over. Not thread-safe.
+ */
+public class KeyInterner {
+
+    private final int mMaxKeys;
+    private final String[] mKeys;
+    private final int[] mHashes;
+    private final int mMask;
+    private int mSize = 0;
+
+    public KeyInterner(int maxKeys) {
+        if (maxKeys <= 0) throw new IllegalArgumentException("Max keys must be positive, got " + maxKeys);
+        mMaxKeys = maxKeys;
+        // Kept at most half full, so that probe sequences stay short
+        int capacity = Integer.highestOneBit(maxKeys) << 2;
+        mKeys = new String[capacity];
+        mHashes = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    public String intern(CharSequence key) {
+        if (key instanceof String) return (String) key;
+        int hash = hash(key);
+        int index = mix(hash) & mMask;
+        while (mKeys[index] != null) {
+            if (mHashes[index] == hash && contentEquals(mKeys[index], key)) return mKeys[index];
+            index = (index + 1) & mMask;
+        }
+        if (mSize == mMaxKeys) {
+            clear();
+            index = mix(hash) & mMask;
+        }
+        String string = key.toString();
+        mKeys[index] = string;
+        mHashes[index] = hash;
+        mSize++;
+        return string;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, null);
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Same as {@link String#hashCode()} for the same content.
+     */
+    public static int hash(CharSequence text) {
+        int hash = 0;
+        for (int i = 0, length = text.length(); i < length; i++) hash = 31 * hash + text.charAt(i);
+        return hash;
+    }
+
+    public static boolean contentEquals(CharSequence first, CharSequence second) {
+        int length = first.length();
+        if (length != second.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (first.charAt(i) != second.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // String hashes of short keys differ mostly in their low bits, spreads the high ones over them
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
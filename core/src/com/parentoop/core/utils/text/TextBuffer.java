@@ -0,0 +1,91 @@
+package com.parentoop.core.utils.text;
+
+import java.util.Arrays;
+
+/**
+ * Growable char sequence meant to be cleared and reused, its hash code is the one of the {@link String} with the same
+ * content, so it can be looked up in a {@link KeyInterner} without being copied.
+ */
+public class TextBuffer implements CharSequence {
+
+    private char[] mChars;
+    private int mLength = 0;
+
+    public TextBuffer() {
+        this(16);
+    }
+
+    public TextBuffer(int initialCapacity) {
+        mChars = new char[initialCapacity];
+    }
+
+    public TextBuffer clear() {
+        mLength = 0;
+        return this;
+    }
+
+    public TextBuffer append(char c) {
+        if (mLength == mChars.length) mChars = Arrays.copyOf(mChars, Math.max(16, mChars.length * 2));
+        mChars[mLength++] = c;
+        return this;
+    }
+
+    public TextBuffer append(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) append(text.charAt(i));
+        return this;
+    }
+
+    /**
+     * Appends the ASCII letters and digits of the slice, lower cased, dropping anything else. That's how words are
+     * normalized for counting, "Don't" becomes "dont".
+     */
+    public TextBuffer appendNormalized(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                append(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                append((char) (c + ('a' - 'A')));
+            }
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return mLength == 0;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= mLength) throw new IndexOutOfBoundsException("Index " + index + ", length " + mLength);
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public int hashCode() {
+        return KeyInterner.hash(this);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof TextBuffer)) return false;
+        TextBuffer buffer = (TextBuffer) object;
+        return KeyInterner.contentEquals(this, buffer);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
@@ -0,0 +1,54 @@
+package com.parentoop.core.utils.text;
+
+/**
+ * Splits text into whitespace separated tokens without allocating, each token is given by its bounds in the text.
+ * Meant to be reused, see {@link #reset(CharSequence)}.
+ */
+public class Tokenizer {
+
+    private CharSequence mText = "";
+    private int mPosition = 0;
+    private int mStart = 0;
+    private int mEnd = 0;
+
+    public Tokenizer reset(CharSequence text) {
+        mText = text;
+        mPosition = 0;
+        mStart = 0;
+        mEnd = 0;
+        return this;
+    }
+
+    /**
+     * Moves to the next token.
+     *
+     * @return false if there are no tokens left.
+     */
+    public boolean next() {
+        int length = mText.length();
+        while (mPosition < length && Character.isWhitespace(mText.charAt(mPosition))) mPosition++;
+        if (mPosition == length) return false;
+        mStart = mPosition;
+        while (mPosition < length && !Character.isWhitespace(mText.charAt(mPosition))) mPosition++;
+        mEnd = mPosition;
+        return true;
+    }
+
+    /**
+     * Index of the first char of the current token.
+     */
+    public int start() {
+        return mStart;
+    }
+
+    /**
+     * Index after the last char of the current token.
+     */
+    public int end() {
+        return mEnd;
+    }
+
+    public CharSequence text() {
+        return mText;
+    }
+}
@@ -0,0 +1,59 @@
+package com.parentoop.core.api;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InputSplitTest {
+
+    private static Path newFile(String content) throws Exception {
+        Path file = Files.createTempFile("input", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testSplitsCoverFileOnRecordBoundaries() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) content.append("line ").append(i).append('\n');
+        content.append("last line without delimiter");
+        Path file = newFile(content.toString());
+        byte[] bytes = Files.readAllBytes(file);
+
+        for (int count : new int[] {1, 3, 4, 7, 10000}) {
+            List<InputSplit> splits = InputSplit.split(file, count, (byte) '\n');
+            assertTrue(splits.size() <= Math.min(count, 1001));
+            long position = 0;
+            for (InputSplit split : splits) {
+                assertEquals(position, split.getStart());
+                assertTrue(split.getLength() > 0);
+                if (split.getEnd() < bytes.length) assertEquals('\n', bytes[(int) split.getEnd() - 1]);
+                position = split.getEnd();
+            }
+            assertEquals(bytes.length, position);
+        }
+    }
+
+    @Test
+    public void testRecordLongerThanSplit() throws Exception {
+        StringBuilder content = new StringBuilder("a\n");
+        for (int i = 0; i < 50; i++) content.append('b');
+        content.append("\nc\n");
+        // 55 bytes, splits of 7 bytes
+        List<InputSplit> splits = InputSplit.split(newFile(content.toString()), 8, (byte) '\n');
+        assertEquals(2, splits.size());
+        assertEquals("[0, 53)", splits.get(0).toString());
+        assertEquals("[53, 55)", splits.get(1).toString());
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        assertTrue(InputSplit.split(newFile(""), 4, (byte) '\n').isEmpty());
+    }
+}
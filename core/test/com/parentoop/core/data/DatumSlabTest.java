@@ -0,0 +1,86 @@
+package com.parentoop.core.data;
+
+import com.parentoop.core.utils.text.TextBuffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DatumSlabTest {
+
+    @Test
+    public void testRecordsReadInOrder() {
+        DatumSlab slab = new DatumSlab(1);
+        slab.append("long", -7L);
+        slab.append(new TextBuffer().append("ação", 0, 4), 0.25);
+        slab.append("object", "value");
+        slab.append("", Long.MIN_VALUE);
+        assertEquals(4, slab.count());
+
+        DatumSlab.Reader reader = new DatumSlab.Reader().reset(slab);
+        assertTrue(reader.next());
+        assertEquals("long", reader.getKey().toString());
+        assertTrue(reader.isLong());
+        assertEquals(-7L, reader.getLong());
+        assertTrue(reader.next());
+        assertEquals("ação", reader.getKey().toString());
+        assertTrue(reader.isDouble());
+        assertEquals(0.25, reader.getDouble(), 0);
+        assertTrue(reader.next());
+        assertEquals("object", reader.getKey().toString());
+        assertFalse(reader.isLong() || reader.isDouble());
+        assertEquals("value", reader.getValue());
+        assertTrue(reader.next());
+        assertEquals("", reader.getKey().toString());
+        assertEquals(Long.MIN_VALUE, reader.getLong());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void testClearAndReuse() {
+        DatumSlab slab = new DatumSlab(16);
+        for (int i = 0; i < 1000; i++) slab.append("key" + i, (long) i);
+        assertEquals(1000, slab.count());
+        slab.clear();
+        assertTrue(slab.isEmpty());
+        assertEquals(0, slab.size());
+        assertFalse(new DatumSlab.Reader().reset(slab).next());
+
+        slab.append("key", "value");
+        DatumSlab.Reader reader = new DatumSlab.Reader().reset(slab);
+        assertTrue(reader.next());
+        assertEquals("value", reader.getValue());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void testSeekToRecord() {
+        DatumSlab slab = new DatumSlab(16);
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            offsets.add(slab.size());
+            if (i % 2 == 0) {
+                slab.append("key" + i, (long) i);
+            } else {
+                slab.append("key" + i, "value" + i);
+            }
+        }
+        DatumSlab.Reader reader = new DatumSlab.Reader();
+        for (int i = 99; i >= 0; i--) {
+            reader.seek(slab, offsets.get(i));
+            assertEquals((int) offsets.get(i), reader.getOffset());
+            assertEquals("key" + i, reader.getKey().toString());
+            if (i % 2 == 0) {
+                assertEquals(i, reader.getLong());
+            } else {
+                assertEquals("value" + i, reader.getValue());
+            }
+        }
+        reader.seek(slab, offsets.get(98));
+        assertTrue(reader.next());
+        assertEquals("key99", reader.getKey().toString());
+        assertFalse(reader.next());
+    }
+}
@@ -0,0 +1,66 @@
+package com.parentoop.core.networking;
+
+import com.parentoop.core.data.Datum;
+import com.parentoop.network.api.codec.FrameInput;
+import com.parentoop.network.api.codec.FrameOutput;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class DatumCodecTest {
+
+    private static Datum roundTrip(Datum datum) throws IOException, ClassNotFoundException {
+        FrameOutput out = new FrameOutput(4);
+        DatumCodec.INSTANCE.encode(datum, out);
+        ByteBuffer buffer = out.toByteBuffer();
+        FrameInput in = new FrameInput().reset(buffer, buffer.limit());
+        Datum decoded = DatumCodec.INSTANCE.decode(in, ClassLoader.getSystemClassLoader());
+        assertEquals(0, in.available());
+        return decoded;
+    }
+
+    @Test
+    public void testObjectValues() throws Exception {
+        Datum datum = roundTrip(new Datum("key", (Integer) 10));
+        assertFalse(datum.isLong());
+        assertEquals(10, datum.getValue());
+        assertEquals(new Datum("ação", "value"), roundTrip(new Datum("ação", "value")));
+    }
+
+    @Test
+    public void testIntsStayIntegers() throws Exception {
+        Datum datum = roundTrip(new Datum("key", 10));
+        assertFalse(datum.isLong());
+        assertEquals(Integer.valueOf(10), datum.getValue());
+        assertEquals(Integer.valueOf(3), roundTrip(new Datum(4, 3)).getValue());
+    }
+
+    @Test
+    public void testRawValues() throws Exception {
+        for (long value : new long[] {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            Datum datum = roundTrip(new Datum("key", value));
+            assertTrue(datum.isLong());
+            assertEquals(value, datum.getLong());
+            assertEquals(value, datum.getValue());
+        }
+        Datum datum = roundTrip(new Datum("key", 0.25));
+        assertTrue(datum.isDouble());
+        assertEquals(0.25, datum.getDouble(), 0);
+        assertEquals(new Datum("key", 0.25), datum);
+    }
+
+    @Test
+    public void testKeyIds() throws Exception {
+        Datum datum = roundTrip(new Datum(300, 7L));
+        assertTrue(datum.hasKeyId());
+        assertNull(datum.getKey());
+        assertEquals(300, datum.getKeyId());
+        assertEquals(7, datum.getLong());
+        assertEquals(new Datum(0, "value"), roundTrip(new Datum(0, "value")));
+        assertEquals(new Datum(5, 0.5), roundTrip(new Datum(5, 0.5)));
+        assertFalse(roundTrip(new Datum("key", 1L)).hasKeyId());
+    }
+}
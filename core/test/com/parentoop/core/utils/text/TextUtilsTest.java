@@ -0,0 +1,69 @@
+package com.parentoop.core.utils.text;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TextUtilsTest {
+
+    private static List<String> tokens(String text) {
+        Tokenizer tokenizer = new Tokenizer().reset(text);
+        List<String> tokens = new ArrayList<>();
+        while (tokenizer.next()) tokens.add(text.substring(tokenizer.start(), tokenizer.end()));
+        return tokens;
+    }
+
+    @Test
+    public void testTokenizer() {
+        assertEquals(Arrays.asList("a", "bc", "d"), tokens("a bc d"));
+        assertEquals(Arrays.asList("a", "bc"), tokens("  a\t\tbc \n"));
+        assertEquals(Arrays.<String>asList(), tokens(""));
+        assertEquals(Arrays.<String>asList(), tokens(" \t "));
+    }
+
+    @Test
+    public void testNormalize() {
+        TextBuffer buffer = new TextBuffer(1);
+        assertEquals("dont", buffer.clear().appendNormalized("Don't", 0, 5).toString());
+        assertEquals("r2d2", buffer.clear().appendNormalized("(R2-D2)", 0, 7).toString());
+        assertTrue(buffer.clear().appendNormalized("--", 0, 2).isEmpty());
+        assertEquals("bc", buffer.clear().appendNormalized("abcd", 1, 3).toString());
+    }
+
+    @Test
+    public void testBufferHashesLikeString() {
+        TextBuffer buffer = new TextBuffer().append("hello world", 0, 11);
+        assertEquals("hello world".hashCode(), buffer.hashCode());
+        assertEquals(new TextBuffer().append("hello world", 0, 11), buffer);
+        assertEquals("".hashCode(), new TextBuffer().hashCode());
+    }
+
+    @Test
+    public void testInternerCopiesOnlyNewKeys() {
+        KeyInterner interner = new KeyInterner(16);
+        TextBuffer buffer = new TextBuffer();
+        String first = interner.intern(buffer.clear().append("word", 0, 4));
+        String second = interner.intern(buffer.clear().append("word", 0, 4));
+        assertEquals("word", first);
+        assertSame(first, second);
+        assertEquals("other", interner.intern(buffer.clear().append("other", 0, 5)));
+        assertEquals(2, interner.size());
+        String string = "string";
+        assertSame(string, interner.intern(string));
+    }
+
+    @Test
+    public void testInternerStartsOverWhenFull() {
+        KeyInterner interner = new KeyInterner(4);
+        TextBuffer buffer = new TextBuffer();
+        for (int i = 0; i < 10; i++) {
+            String key = "key" + i;
+            assertEquals(key, interner.intern(buffer.clear().append(key, 0, key.length())));
+            assertTrue(interner.size() <= 4);
+        }
+    }
+}
@@ -1,17 +1,21 @@
 package data;
 
+import com.parentoop.core.data.DataPool;
 import com.parentoop.core.data.Datum;
 import com.parentoop.core.data.NetworkDataPool;
 import org.junit.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class DataPoolTest {
 
@@ -53,6 +57,19 @@ public class DataPoolTest {
         assertEquals(mProducerTasks.get(0).getDatum(), mConsumerTasks.get(0).getDatum());
     }
 
+    @Test
+    public void testYieldedIntsStayIntegers() {
+        NetworkDataPool pool = new NetworkDataPool();
+        pool.yield("int", 1);
+        pool.yield((CharSequence) "int", 2);
+        pool.yield("long", 3L);
+        pool.close();
+        Iterator<Datum> data = pool.iterator();
+        assertEquals(Integer.valueOf(1), data.next().getValue());
+        assertEquals(Integer.valueOf(2), data.next().getValue());
+        assertTrue(data.next().isLong());
+    }
+
     @Test
     public void testMultipleThreadsCanWrite() throws InterruptedException {
         mExecutorService.scheduleAtFixedRate(mProducerTasks.get(0), 0, 100, TimeUnit.MILLISECONDS);
@@ -80,7 +97,152 @@ public class DataPoolTest {
     }
 
 
+    @Test(timeout = 5*IO_TIMOUT)
+    public void testBoundedPoolBlocksProducer() throws Exception {
+        for (final DataPool<Integer> pool : boundedPools(4)) {
+            for (int i = 0; i < 4; i++) pool.yield(i);
+            Future<?> producer = mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    pool.yield(4);
+                }
+            });
+            Thread.sleep(IO_TIMOUT / 10);
+            assertFalse(producer.isDone());
+            assertEquals(4, pool.getBufferSize());
+
+            Iterator<Integer> it = pool.iterator();
+            assertEquals(0, (int) it.next());
+            producer.get();
+            pool.close();
+            for (int i = 1; i <= 4; i++) assertEquals(i, (int) it.next());
+            assertFalse(it.hasNext());
+        }
+    }
+
+    @Test(timeout = 5*IO_TIMOUT)
+    public void testBoundedPoolCloseFailsWaitingProducer() throws Exception {
+        for (final DataPool<Integer> pool : boundedPools(4)) {
+            for (int i = 0; i < 4; i++) pool.yield(i);
+            Future<?> producer = mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    pool.yield(4);
+                }
+            });
+            Thread.sleep(IO_TIMOUT / 10);
+            pool.close();
+            try {
+                producer.get();
+                fail("The producer yielded to a closed pool");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    @Test(timeout = 5*IO_TIMOUT)
+    public void testBoundedPoolManyProducers() throws Exception {
+        for (DataPool<Integer> pool : boundedPools(16)) {
+            assertManyProducers(pool);
+        }
+    }
+
+    private void assertManyProducers(final DataPool<Integer> pool) {
+        final int producers = 5;
+        final int itemsPerProducer = 20000;
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int offset = p * itemsPerProducer;
+            futures.add(mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < itemsPerProducer; i++) pool.yield(offset + i);
+                }
+            }));
+        }
+        mExecutorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                pool.close();
+            }
+        });
+
+        boolean[] seen = new boolean[producers * itemsPerProducer];
+        int count = 0;
+        for (int item : pool) {
+            assertFalse(seen[item]);
+            seen[item] = true;
+            count++;
+        }
+        assertEquals(producers * itemsPerProducer, count);
+    }
+
+    @Test(timeout = 5*IO_TIMOUT)
+    public void testBoundedPoolCloseWakesConsumer() throws Exception {
+        for (final DataPool<Integer> pool : boundedPools(4)) {
+            mExecutorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    pool.close();
+                }
+            }, IO_TIMOUT / 10, TimeUnit.MILLISECONDS);
+            assertFalse(pool.iterator().hasNext());
+        }
+    }
+
+    @Test(timeout = 5*IO_TIMOUT)
+    public void testYieldAllAndDrainTo() throws Exception {
+        for (DataPool<Integer> pool : Arrays.asList(new DataPool<Integer>(), new DataPool<Integer>(4),
+                DataPool.<Integer>ringBuffered(4))) {
+            final List<Integer> items = new ArrayList<>();
+            for (int i = 0; i < 10; i++) items.add(i);
+            final DataPool<Integer> producerPool = pool;
+            mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    producerPool.yieldAll(items);
+                    producerPool.close();
+                }
+            });
+
+            List<Integer> drained = new ArrayList<>();
+            int count;
+            while ((count = pool.drainTo(drained, 3)) > 0) assertTrue(count <= 3);
+            assertEquals(items, drained);
+        }
+    }
+
+    @Test(timeout = 5*IO_TIMOUT)
+    public void testBatchedIterator() throws Exception {
+        for (DataPool<Integer> pool : Arrays.asList(new DataPool<Integer>(), new DataPool<Integer>(8),
+                DataPool.<Integer>ringBuffered(8))) {
+            final DataPool<Integer> producerPool = pool;
+            mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) producerPool.yield(i);
+                    producerPool.close();
+                }
+            });
+
+            Iterator<Integer> it = pool.batchedIterator(16);
+            for (int i = 0; i < 1000; i++) assertEquals(i, (int) it.next());
+            assertFalse(it.hasNext());
+        }
+    }
+
 
+    private static List<DataPool<Integer>> boundedPools(int capacity) {
+        return Arrays.asList(new DataPool<Integer>(capacity), DataPool.<Integer>ringBuffered(capacity));
+    }
 
     private class TaskRunnable implements Runnable {
         protected String mName;
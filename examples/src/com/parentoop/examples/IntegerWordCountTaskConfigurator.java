@@ -0,0 +1,18 @@
+package com.parentoop.examples;
+
+import com.parentoop.core.loader.TaskConfigurator;
+import com.parentoop.core.loader.TaskDescriptor;
+
+/**
+ * Word count yielding ints to a reducer of {@link Integer}s, the way jobs were written before raw values.
+ */
+public class IntegerWordCountTaskConfigurator implements TaskConfigurator {
+
+    @Override
+    public void configure(TaskDescriptor taskDescriptor) {
+        taskDescriptor.setTaskName("Integer Word Count");
+        taskDescriptor.setInputReaderClass(LineChunksInputReader.class);
+        taskDescriptor.setMapperClass(IntegerWordCounterMapper.class);
+        taskDescriptor.setReducerClass(IntegerWordCountReducer.class);
+    }
+}
@@ -1,15 +1,22 @@
 package com.parentoop.examples;
 
-import com.parentoop.core.api.InputReader;
+import com.parentoop.core.api.InputSplit;
+import com.parentoop.core.api.SplittableInputReader;
 import com.parentoop.core.data.Yielder;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
-public class LineChunksInputReader implements InputReader {
+public class LineChunksInputReader implements SplittableInputReader {
 
     @Override
     public void read(Path file, Yielder<Serializable> chunkYielder) {
@@ -25,4 +32,33 @@ public class LineChunksInputReader implements InputReader {
             e.printStackTrace();
         }
     }
+
+    @Override
+    public List<InputSplit> split(Path file, int count) throws IOException {
+        return InputSplit.split(file, count, (byte) '\n');
+    }
+
+    @Override
+    public void read(Path file, InputSplit split, Yielder<Serializable> chunkYielder) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, split.getStart(), split.getLength());
+            byte[] line = new byte[256];
+            while (region.hasRemaining()) {
+                int length = 0;
+                while (region.hasRemaining()) {
+                    byte b = region.get();
+                    if (b == '\n') break;
+                    if (length == line.length) line = Arrays.copyOf(line, length * 2);
+                    line[length++] = b;
+                }
+                if (length > 0 && line[length - 1] == '\r') length--;
+                String text = new String(line, 0, length, StandardCharsets.UTF_8);
+                // Prevent useless network consumption
+                if (text.trim().isEmpty()) continue;
+                chunkYielder.yield(text);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package com.parentoop.examples;
+
+import com.parentoop.core.api.LongCombiner;
+
+public class WordCountCombiner implements LongCombiner {
+
+    @Override
+    public long combine(String key, long accumulated, long value) {
+        return accumulated + value;
+    }
+
+    @Override
+    public Long combine(String key, Long accumulated, Long value) {
+        return accumulated + value;
+    }
+}
@@ -1,13 +1,21 @@
 package com.parentoop.examples;
 
-import com.parentoop.core.api.Reducer;
+import com.parentoop.core.api.LongReducer;
+import com.parentoop.core.utils.iterating.LongIterator;
 
-public class WordCountReducer implements Reducer<Integer, Integer> {
+public class WordCountReducer implements LongReducer {
 
     @Override
-    public Integer reduce(String key, Iterable<? extends Integer> values) {
-        int count = 0;
-        for (Integer value : values) count += value;
+    public long reduce(String key, LongIterator values) {
+        long count = 0;
+        while (values.hasNext()) count += values.nextLong();
+        return count;
+    }
+
+    @Override
+    public Long reduce(String key, Iterable<? extends Long> values) {
+        long count = 0;
+        for (Long value : values) count += value;
         return count;
     }
 }
@@ -14,5 +14,6 @@ public class WordCountTaskConfigurator implements TaskConfigurator {
         taskDescriptor.setInputReaderClass(LineChunksInputReader.class);
         taskDescriptor.setMapperClass(WordCounterMapper.class);
         taskDescriptor.setReducerClass(WordCountReducer.class);
+        taskDescriptor.setCombinerClass(WordCountCombiner.class);
     }
 }
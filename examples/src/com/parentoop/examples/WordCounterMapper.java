@@ -1,16 +1,44 @@
 package com.parentoop.examples;
 
+import com.parentoop.core.api.BatchMapper;
 import com.parentoop.core.api.MapYielder;
-import com.parentoop.core.api.Mapper;
+import com.parentoop.core.api.TaskContext;
+import com.parentoop.core.api.TaskLifecycle;
+import com.parentoop.core.utils.text.TextBuffer;
+import com.parentoop.core.utils.text.Tokenizer;
+
+import java.util.List;
+
+public class WordCounterMapper implements BatchMapper<String>, TaskLifecycle {
+
+    // Each mapper thread has its own instance, so these are reused without synchronizing
+    private Tokenizer mTokenizer;
+    private TextBuffer mWord;
+
+    @Override
+    public void setup(TaskContext context) {
+        mTokenizer = new Tokenizer();
+        mWord = new TextBuffer();
+    }
 
-public class WordCounterMapper implements Mapper<String> {
     @Override
     public void map(String chunk, MapYielder yielder) {
-        for (String word : chunk.split(" ")) {
-            word = word.replaceAll("[^A-Za-z0-9]", "").toLowerCase();
-            if (!word.isEmpty()) {
-                yielder.yield(word, 1);
+        mTokenizer.reset(chunk);
+        while (mTokenizer.next()) {
+            mWord.clear().appendNormalized(chunk, mTokenizer.start(), mTokenizer.end());
+            if (!mWord.isEmpty()) {
+                yielder.yield(mWord, 1L);
             }
         }
     }
+
+    @Override
+    public void mapBatch(List<String> chunks, MapYielder yielder) {
+        for (int i = 0, size = chunks.size(); i < size; i++) map(chunks.get(i), yielder);
+    }
+
+    @Override
+    public void cleanup(MapYielder yielder) {
+        /* No-op */
+    }
 }
@@ -0,0 +1,258 @@
+package com.parentoop.storage.log;
+
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.LongIterator;
+import com.parentoop.core.utils.iterating.SimpleIterable;
+import com.parentoop.slave.api.SlaveStorage;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Appends values to a log of segment files, see {@link SegmentLog}, and keeps in memory the last record of each key,
+ * each record pointing to the previous one of its key. A read walks the chain of the key back over the mapped segments,
+ * then yields the values in insertion order. There are no transactions and nothing is synced, it's shuffle data
+ * written and read once by a single slave.
+ * <p>
+ * Slaves use it when their parentoop.slave.storage system property names this class.
+ */
+public class LogStorage<T extends Serializable> implements SlaveStorage<T> {
+
+    private static final long SEGMENT_SIZE = 256 * 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private SegmentLog mLog;
+    private final Map<String, Chain> mChains = new HashMap<>();
+
+    @Override
+    public synchronized void initialize() throws Exception {
+        if (mLog != null) return;
+        mLog = new SegmentLog(Files.createTempDirectory("slave"), SEGMENT_SIZE, WRITE_BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized void terminate() {
+        try {
+            if (mLog == null) return;
+            mLog.delete();
+            mLog = null;
+            mChains.clear();
+        } catch (IOException e) {
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    @Override
+    public void beginBulkLoad() {
+        /* No-op, appends are always buffered */
+    }
+
+    @Override
+    public synchronized void endBulkLoad() {
+        try {
+            mLog.flush();
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public synchronized void insert(String key, T value) {
+        try {
+            Chain chain = chainOf(key);
+            chain.mLast = mLog.appendObject(chain.mLast, ObjectBytes.toByteArray(value));
+            chain.mCount++;
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public synchronized void insertLong(String key, long value) {
+        try {
+            Chain chain = chainOf(key);
+            chain.mLast = mLog.appendLong(chain.mLast, value);
+            chain.mCount++;
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public synchronized void insertDouble(String key, double value) {
+        try {
+            Chain chain = chainOf(key);
+            chain.mLast = mLog.appendDouble(chain.mLast, value);
+            chain.mCount++;
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    private Chain chainOf(String key) {
+        Chain chain = mChains.get(key);
+        if (chain == null) {
+            chain = new Chain();
+            mChains.put(key, chain);
+        }
+        return chain;
+    }
+
+    @Override
+    public synchronized Iterable<T> read(String key) {
+        return new SimpleIterable<>(new ValueIterator(positionsOf(key)));
+    }
+
+    @Override
+    public synchronized LongIterator readLongs(String key) {
+        return new LongValueIterator(positionsOf(key));
+    }
+
+    @Override
+    public synchronized DoubleIterator readDoubles(String key) {
+        return new DoubleValueIterator(positionsOf(key));
+    }
+
+    /**
+     * Positions of the records of the key in insertion order, the chain goes from the last one to the first one.
+     */
+    private long[] positionsOf(String key) {
+        try {
+            Chain chain = mChains.get(key);
+            if (chain == null) return new long[0];
+            long[] positions = new long[chain.mCount];
+            long position = chain.mLast;
+            for (int i = positions.length - 1; i >= 0; i--) {
+                positions[i] = position;
+                position = mLog.getPrevious(position);
+            }
+            return positions;
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    private AssertionError fail(Exception e) {
+        try { terminate(); } catch (Exception exc) { /* No-op */ }
+        AssertionError error = new AssertionError();
+        error.initCause(e);
+        return error;
+    }
+
+    /**
+     * The value of a record as an object, raw values are boxed.
+     */
+    private Object readValue(long position) throws IOException, ClassNotFoundException {
+        switch (mLog.getType(position)) {
+            case SegmentLog.LONG:
+                return mLog.getLong(position);
+            case SegmentLog.DOUBLE:
+                return mLog.getDouble(position);
+            default:
+                return ObjectBytes.toObject(mLog.getBytes(position));
+        }
+    }
+
+    private static class Chain {
+        private long mLast = SegmentLog.NO_RECORD;
+        private int mCount = 0;
+    }
+
+    private class ValueIterator implements Iterator<T> {
+
+        private final long[] mPositions;
+        private int mIndex = 0;
+
+        private ValueIterator(long[] positions) {
+            mPositions = positions;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mIndex < mPositions.length;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new IllegalAccessError();
+            try {
+                //noinspection unchecked
+                return (T) readValue(mPositions[mIndex++]);
+            } catch (IOException | ClassNotFoundException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Values inserted as objects must be numbers, see {@link SlaveStorage#readLongs(String)}.
+     */
+    private class LongValueIterator implements LongIterator {
+
+        private final long[] mPositions;
+        private int mIndex = 0;
+
+        private LongValueIterator(long[] positions) {
+            mPositions = positions;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mIndex < mPositions.length;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) throw new IllegalAccessError();
+            long position = mPositions[mIndex++];
+            try {
+                byte type = mLog.getType(position);
+                if (type == SegmentLog.LONG) return mLog.getLong(position);
+                if (type == SegmentLog.DOUBLE) return (long) mLog.getDouble(position);
+                return ((Number) ObjectBytes.toObject(mLog.getBytes(position))).longValue();
+            } catch (IOException | ClassNotFoundException e) {
+                throw fail(e);
+            }
+        }
+    }
+
+    private class DoubleValueIterator implements DoubleIterator {
+
+        private final long[] mPositions;
+        private int mIndex = 0;
+
+        private DoubleValueIterator(long[] positions) {
+            mPositions = positions;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mIndex < mPositions.length;
+        }
+
+        @Override
+        public double nextDouble() {
+            if (!hasNext()) throw new IllegalAccessError();
+            long position = mPositions[mIndex++];
+            try {
+                byte type = mLog.getType(position);
+                if (type == SegmentLog.DOUBLE) return mLog.getDouble(position);
+                if (type == SegmentLog.LONG) return mLog.getLong(position);
+                return ((Number) ObjectBytes.toObject(mLog.getBytes(position))).doubleValue();
+            } catch (IOException | ClassNotFoundException e) {
+                throw fail(e);
+            }
+        }
+    }
+}
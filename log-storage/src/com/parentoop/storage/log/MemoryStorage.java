@@ -0,0 +1,412 @@
+package com.parentoop.storage.log;
+
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.LongIterator;
+import com.parentoop.core.utils.iterating.SimpleIterable;
+import com.parentoop.slave.api.SlaveStorage;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the values of each key encoded in a byte array of its own. Once the arrays take more than the memory budget,
+ * the largest ones are spilled to a {@link SegmentLog}, chained per key like {@link LogStorage} does, until they take
+ * less than three quarters of it. Values of a key inserted after it was spilled are kept in memory again, so a read
+ * yields its spilled values first and then the ones in memory. Jobs whose values fit in the budget never touch disk.
+ * Keys themselves are never dropped, so when their overhead alone takes three quarters of the budget the buffers are
+ * all spilled whenever they grow by a quarter of it, instead of on every insert.
+ * <p>
+ * The budget is a quarter of the max heap, unless the {@value #BUDGET_PROPERTY} system property gives it in bytes.
+ * Slaves use it when their parentoop.slave.storage system property names this class.
+ */
+public class MemoryStorage<T extends Serializable> implements SlaveStorage<T> {
+
+    public static final String BUDGET_PROPERTY = "parentoop.storage.memoryBudget";
+
+    private static final long SEGMENT_SIZE = 256 * 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 16;
+    // Rough footprint of a key besides its values: the map entry, the key string and the buffer object
+    private static final int KEY_OVERHEAD = 128;
+
+    private final long mBudget;
+    private final Map<String, KeyBuffer> mBuffers = new HashMap<>();
+    private long mSize = 0;
+    // The part of mSize that spilling can release, what the buffers hold beyond their initial arrays
+    private long mSpillable = 0;
+    // Created on the first spill
+    private SegmentLog mLog;
+
+    public MemoryStorage() {
+        this(Long.getLong(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 4));
+    }
+
+    public MemoryStorage(long budget) {
+        mBudget = budget;
+    }
+
+    @Override
+    public void initialize() throws Exception {
+        /* No-op, nothing is allocated until values are inserted */
+    }
+
+    @Override
+    public synchronized void terminate() {
+        try {
+            mBuffers.clear();
+            mSize = 0;
+            mSpillable = 0;
+            if (mLog == null) return;
+            mLog.delete();
+            mLog = null;
+        } catch (IOException e) {
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    @Override
+    public void beginBulkLoad() {
+        /* No-op */
+    }
+
+    @Override
+    public void endBulkLoad() {
+        /* No-op */
+    }
+
+    @Override
+    public synchronized void insert(String key, T value) {
+        try {
+            byte[] bytes = ObjectBytes.toByteArray(value);
+            KeyBuffer buffer = bufferOf(key);
+            buffer.ensureCapacity(1 + 5 + bytes.length);
+            buffer.put(SegmentLog.OBJECT);
+            buffer.putVarInt(bytes.length);
+            buffer.put(bytes);
+            inserted(buffer);
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public synchronized void insertLong(String key, long value) {
+        KeyBuffer buffer = bufferOf(key);
+        buffer.ensureCapacity(1 + 10);
+        buffer.put(SegmentLog.LONG);
+        buffer.putVarLong(value);
+        inserted(buffer);
+    }
+
+    @Override
+    public synchronized void insertDouble(String key, double value) {
+        KeyBuffer buffer = bufferOf(key);
+        buffer.ensureCapacity(1 + 8);
+        buffer.put(SegmentLog.DOUBLE);
+        buffer.putLong(Double.doubleToRawLongBits(value));
+        inserted(buffer);
+    }
+
+    private KeyBuffer bufferOf(String key) {
+        KeyBuffer buffer = mBuffers.get(key);
+        if (buffer == null) {
+            buffer = new KeyBuffer();
+            mBuffers.put(key, buffer);
+            mSize += KEY_OVERHEAD + 2 * key.length();
+        }
+        return buffer;
+    }
+
+    private void inserted(KeyBuffer buffer) {
+        buffer.mCount++;
+        if (mSize > mBudget && mSpillable >= mBudget / 4) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw fail(e);
+            }
+        }
+    }
+
+    /**
+     * Spills the largest buffers until the buffers take less than three quarters of the budget, or all of them if the
+     * overhead of the keys doesn't leave that much.
+     */
+    private void spill() throws IOException {
+        if (mLog == null) mLog = new SegmentLog(Files.createTempDirectory("slave"), SEGMENT_SIZE, WRITE_BUFFER_SIZE);
+        long target = mBudget / 4 * 3;
+        Collection<KeyBuffer> buffers = mBuffers.values();
+        if (mSize - mSpillable <= target) {
+            List<KeyBuffer> largestFirst = new ArrayList<>(buffers);
+            Collections.sort(largestFirst, mLargestFirst);
+            buffers = largestFirst;
+        }
+        for (KeyBuffer buffer : buffers) {
+            if (mSize <= target || mSpillable == 0) break;
+            if (buffer.mSize > 0) buffer.spill(mLog);
+        }
+        mLog.flush();
+    }
+
+    private final Comparator<KeyBuffer> mLargestFirst = new Comparator<KeyBuffer>() {
+        @Override
+        public int compare(KeyBuffer first, KeyBuffer second) {
+            return Integer.compare(second.mBytes.length, first.mBytes.length);
+        }
+    };
+
+    @Override
+    public synchronized Iterable<T> read(String key) {
+        final Cursor cursor = cursorOf(key);
+        return new SimpleIterable<>(new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public T next() {
+                cursor.next();
+                //noinspection unchecked
+                return (T) cursor.getValue();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    public synchronized LongIterator readLongs(String key) {
+        final Cursor cursor = cursorOf(key);
+        return new LongIterator() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public long nextLong() {
+                cursor.next();
+                if (cursor.mType == SegmentLog.LONG) return cursor.mRaw;
+                if (cursor.mType == SegmentLog.DOUBLE) return (long) Double.longBitsToDouble(cursor.mRaw);
+                return ((Number) cursor.getValue()).longValue();
+            }
+        };
+    }
+
+    @Override
+    public synchronized DoubleIterator readDoubles(String key) {
+        final Cursor cursor = cursorOf(key);
+        return new DoubleIterator() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public double nextDouble() {
+                cursor.next();
+                if (cursor.mType == SegmentLog.DOUBLE) return Double.longBitsToDouble(cursor.mRaw);
+                if (cursor.mType == SegmentLog.LONG) return cursor.mRaw;
+                return ((Number) cursor.getValue()).doubleValue();
+            }
+        };
+    }
+
+    private Cursor cursorOf(String key) {
+        KeyBuffer buffer = mBuffers.get(key);
+        if (buffer == null) return new Cursor(new long[0], new byte[0], 0);
+        try {
+            long[] spilled = new long[buffer.mSpilledCount];
+            long position = buffer.mSpilledLast;
+            for (int i = spilled.length - 1; i >= 0; i--) {
+                spilled[i] = position;
+                position = mLog.getPrevious(position);
+            }
+            // The buffer is only appended to or replaced, what's there now stays valid
+            return new Cursor(spilled, buffer.mBytes, buffer.mSize);
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    private AssertionError fail(Exception e) {
+        try { terminate(); } catch (Exception exc) { /* No-op */ }
+        AssertionError error = new AssertionError();
+        error.initCause(e);
+        return error;
+    }
+
+    /**
+     * The values of a key still in memory, each one a type and the value: a zig-zag varint for longs, the 8 bytes of
+     * doubles, the length and the serialized bytes for objects. Plus the chain of the values spilled before them.
+     */
+    private class KeyBuffer {
+
+        private byte[] mBytes = new byte[INITIAL_BUFFER_SIZE];
+        private int mSize = 0;
+        private int mCount = 0;
+        private long mSpilledLast = SegmentLog.NO_RECORD;
+        private int mSpilledCount = 0;
+
+        private void ensureCapacity(int extra) {
+            if (mSize + extra <= mBytes.length) return;
+            int capacity = Math.max(mBytes.length * 2, mSize + extra);
+            MemoryStorage.this.mSize += capacity - mBytes.length;
+            mSpillable += capacity - mBytes.length;
+            mBytes = Arrays.copyOf(mBytes, capacity);
+        }
+
+        private void put(byte b) {
+            mBytes[mSize++] = b;
+        }
+
+        private void put(byte[] bytes) {
+            System.arraycopy(bytes, 0, mBytes, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        private void putLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) mBytes[mSize++] = (byte) (value >>> shift);
+        }
+
+        private void putVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                mBytes[mSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBytes[mSize++] = (byte) value;
+        }
+
+        private void putVarLong(long value) {
+            long zigZag = (value << 1) ^ (value >> 63);
+            while ((zigZag & ~0x7FL) != 0) {
+                mBytes[mSize++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            mBytes[mSize++] = (byte) zigZag;
+        }
+
+        /**
+         * Appends the values in memory to the chain in the log and lets their array go.
+         */
+        private void spill(SegmentLog log) throws IOException {
+            Cursor cursor = new Cursor(new long[0], mBytes, mSize);
+            while (cursor.hasNext()) {
+                cursor.next();
+                if (cursor.mType == SegmentLog.LONG) {
+                    mSpilledLast = log.appendLong(mSpilledLast, cursor.mRaw);
+                } else if (cursor.mType == SegmentLog.DOUBLE) {
+                    mSpilledLast = log.appendDouble(mSpilledLast, Double.longBitsToDouble(cursor.mRaw));
+                } else {
+                    mSpilledLast = log.appendObject(mSpilledLast, cursor.mBytes);
+                }
+            }
+            mSpilledCount += mCount;
+            mCount = 0;
+            MemoryStorage.this.mSize -= mBytes.length - INITIAL_BUFFER_SIZE;
+            mSpillable -= mBytes.length - INITIAL_BUFFER_SIZE;
+            mBytes = new byte[INITIAL_BUFFER_SIZE];
+            mSize = 0;
+        }
+    }
+
+    /**
+     * Reads the spilled values of a key, then the ones in memory.
+     */
+    private class Cursor {
+
+        private final long[] mSpilled;
+        private int mSpilledIndex = 0;
+        private final byte[] mBuffer;
+        private final int mEnd;
+        private int mPosition = 0;
+
+        private byte mType;
+        // The long or the bits of the double
+        private long mRaw;
+        private byte[] mBytes;
+
+        private Cursor(long[] spilled, byte[] buffer, int end) {
+            mSpilled = spilled;
+            mBuffer = buffer;
+            mEnd = end;
+        }
+
+        private boolean hasNext() {
+            return mSpilledIndex < mSpilled.length || mPosition < mEnd;
+        }
+
+        private void next() {
+            if (!hasNext()) throw new IllegalAccessError();
+            if (mSpilledIndex < mSpilled.length) {
+                nextSpilled(mSpilled[mSpilledIndex++]);
+                return;
+            }
+            mType = mBuffer[mPosition++];
+            if (mType == SegmentLog.OBJECT) {
+                int length = (int) readVarLong(false);
+                mBytes = Arrays.copyOfRange(mBuffer, mPosition, mPosition + length);
+                mPosition += length;
+            } else if (mType == SegmentLog.LONG) {
+                mRaw = readVarLong(true);
+            } else {
+                long bits = 0;
+                for (int i = 0; i < 8; i++) bits = (bits << 8) | (mBuffer[mPosition++] & 0xFF);
+                mRaw = bits;
+            }
+        }
+
+        private void nextSpilled(long position) {
+            try {
+                synchronized (MemoryStorage.this) {
+                    mType = mLog.getType(position);
+                    if (mType == SegmentLog.LONG) {
+                        mRaw = mLog.getLong(position);
+                    } else if (mType == SegmentLog.DOUBLE) {
+                        mRaw = Double.doubleToRawLongBits(mLog.getDouble(position));
+                    } else {
+                        mBytes = mLog.getBytes(position);
+                    }
+                }
+            } catch (IOException e) {
+                throw fail(e);
+            }
+        }
+
+        private long readVarLong(boolean zigZagged) {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = mBuffer[mPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            return zigZagged ? (value >>> 1) ^ -(value & 1) : value;
+        }
+
+        private Object getValue() {
+            if (mType == SegmentLog.LONG) return mRaw;
+            if (mType == SegmentLog.DOUBLE) return Double.longBitsToDouble(mRaw);
+            try {
+                return ObjectBytes.toObject(mBytes);
+            } catch (IOException | ClassNotFoundException e) {
+                throw fail(e);
+            }
+        }
+    }
+}
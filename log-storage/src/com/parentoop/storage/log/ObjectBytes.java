@@ -0,0 +1,23 @@
+package com.parentoop.storage.log;
+
+import java.io.*;
+
+/* package private */ class ObjectBytes {
+
+    // Prevents instantiation
+    private ObjectBytes() {
+        throw new AssertionError("Cannot instantiate object from " + this.getClass());
+    }
+
+    public static byte[] toByteArray(Serializable serializable) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectStream = new ObjectOutputStream(byteStream);
+        objectStream.writeObject(serializable);
+        objectStream.close();
+        return byteStream.toByteArray();
+    }
+
+    public static Object toObject(byte[] bytes) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+}
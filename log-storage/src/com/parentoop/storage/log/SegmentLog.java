@@ -0,0 +1,184 @@
+package com.parentoop.storage.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records appended to segment files of a directory, addressed by their position across the whole log. Each record
+ * holds the position of a previous record, which is how {@link LogStorage} chains the values of a key, then a type and
+ * a value. Appends go through a write buffer, reads through read-only mappings of the segments.
+ * <p>
+ * Nothing is ever synced, the log is scratch data deleted with the storage.
+ */
+/* package private */ class SegmentLog {
+
+    public static final long NO_RECORD = -1;
+
+    public static final byte LONG = 0;
+    public static final byte DOUBLE = 1;
+    public static final byte OBJECT = 2;
+
+    // Previous record and type
+    private static final int HEADER_SIZE = 8 + 1;
+
+    private final Path mDirectory;
+    private final long mSegmentSize;
+    private final ByteBuffer mWriteBuffer;
+    private final List<FileChannel> mSegments = new ArrayList<>();
+    private final List<MappedByteBuffer> mMappings = new ArrayList<>();
+    // Position of the next record, and up to where records were written to the segment files
+    private long mPosition = 0;
+    private long mWrittenPosition = 0;
+
+    /**
+     * @param segmentSize must be under 2GB, segments are mapped whole.
+     */
+    public SegmentLog(Path directory, long segmentSize, int writeBufferSize) throws IOException {
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mWriteBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+        openSegment();
+    }
+
+    public synchronized long appendLong(long previous, long value) throws IOException {
+        long position = begin(previous, LONG, 8);
+        mWriteBuffer.putLong(value);
+        return position;
+    }
+
+    public synchronized long appendDouble(long previous, double value) throws IOException {
+        long position = begin(previous, DOUBLE, 8);
+        mWriteBuffer.putDouble(value);
+        return position;
+    }
+
+    public synchronized long appendObject(long previous, byte[] bytes) throws IOException {
+        int size = 4 + bytes.length;
+        if (HEADER_SIZE + size <= mWriteBuffer.capacity()) {
+            long position = begin(previous, OBJECT, size);
+            mWriteBuffer.putInt(bytes.length);
+            mWriteBuffer.put(bytes);
+            return position;
+        }
+        // Larger than the write buffer, written directly
+        long position = reserve(HEADER_SIZE + size);
+        flush();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + size);
+        record.putLong(previous).put(OBJECT).putInt(bytes.length).put(bytes).flip();
+        write(record);
+        mPosition += record.limit();
+        mWrittenPosition = mPosition;
+        return position;
+    }
+
+    /**
+     * Writes the header of a record and makes room for its value in the write buffer.
+     */
+    private long begin(long previous, byte type, int valueSize) throws IOException {
+        int size = HEADER_SIZE + valueSize;
+        long position = reserve(size);
+        if (mWriteBuffer.remaining() < size) flush();
+        mWriteBuffer.putLong(previous).put(type);
+        mPosition += size;
+        return position;
+    }
+
+    /**
+     * Moves to the next segment if the record doesn't fit in the current one.
+     *
+     * @return the position of the record.
+     */
+    private long reserve(int size) throws IOException {
+        if (size > mSegmentSize) throw new IOException("Record of " + size + " bytes larger than a segment");
+        long offset = mPosition % mSegmentSize;
+        if (offset + size > mSegmentSize) {
+            flush();
+            mPosition = mWrittenPosition = (mPosition / mSegmentSize + 1) * mSegmentSize;
+            openSegment();
+        }
+        return mPosition;
+    }
+
+    public synchronized void flush() throws IOException {
+        mWriteBuffer.flip();
+        write(mWriteBuffer);
+        mWriteBuffer.clear();
+        mWrittenPosition = mPosition;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        FileChannel segment = mSegments.get(mSegments.size() - 1);
+        while (buffer.hasRemaining()) segment.write(buffer);
+    }
+
+    private void openSegment() throws IOException {
+        Path file = mDirectory.resolve("segment-" + mSegments.size() + ".log");
+        mSegments.add(FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE));
+        mMappings.add(null);
+    }
+
+    public synchronized long getPrevious(long position) throws IOException {
+        return segmentAt(position).getLong(offset(position));
+    }
+
+    public synchronized byte getType(long position) throws IOException {
+        return segmentAt(position).get(offset(position) + 8);
+    }
+
+    public synchronized long getLong(long position) throws IOException {
+        return segmentAt(position).getLong(offset(position) + HEADER_SIZE);
+    }
+
+    public synchronized double getDouble(long position) throws IOException {
+        return segmentAt(position).getDouble(offset(position) + HEADER_SIZE);
+    }
+
+    public synchronized byte[] getBytes(long position) throws IOException {
+        ByteBuffer segment = segmentAt(position).duplicate();
+        int offset = offset(position) + HEADER_SIZE;
+        byte[] bytes = new byte[segment.getInt(offset)];
+        segment.position(offset + 4);
+        segment.get(bytes);
+        return bytes;
+    }
+
+    private int offset(long position) {
+        return (int) (position % mSegmentSize);
+    }
+
+    /**
+     * The mapping of the segment of the record, mapped again if the record was written after it was mapped.
+     */
+    private MappedByteBuffer segmentAt(long position) throws IOException {
+        if (position >= mWrittenPosition) flush();
+        int index = (int) (position / mSegmentSize);
+        MappedByteBuffer mapping = mMappings.get(index);
+        if (mapping == null || offset(position) >= mapping.limit()) {
+            FileChannel segment = mSegments.get(index);
+            mapping = segment.map(FileChannel.MapMode.READ_ONLY, 0, segment.size());
+            mMappings.set(index, mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Closes and deletes the segments and their directory.
+     */
+    public synchronized void delete() throws IOException {
+        for (int i = 0; i < mSegments.size(); i++) {
+            mSegments.get(i).close();
+            Files.deleteIfExists(mDirectory.resolve("segment-" + i + ".log"));
+        }
+        mSegments.clear();
+        mMappings.clear();
+        Files.deleteIfExists(mDirectory);
+    }
+}
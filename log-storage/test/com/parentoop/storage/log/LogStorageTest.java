@@ -0,0 +1,93 @@
+package com.parentoop.storage.log;
+
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.LongIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class LogStorageTest {
+
+    private static final String KEY = "key";
+
+    private LogStorage<Serializable> mStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        mStorage = new LogStorage<>();
+        mStorage.initialize();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mStorage.terminate();
+    }
+
+    @Test
+    public void testInsertAndRetrieveObjects() throws Exception {
+        mStorage.insert("a", "String");
+        mStorage.insert("b", new ArrayList<>(Arrays.asList(1, 2, 3)));
+        mStorage.insert("a", 10);
+        Iterator<Serializable> a = mStorage.read("a").iterator();
+        assertEquals("String", a.next());
+        assertEquals(10, a.next());
+        assertFalse(a.hasNext());
+        assertEquals(new ArrayList<>(Arrays.asList(1, 2, 3)), mStorage.read("b").iterator().next());
+        assertFalse(mStorage.read("missing").iterator().hasNext());
+    }
+
+    @Test
+    public void testInsertAndReadRawValues() throws Exception {
+        mStorage.insertLong("a", 1);
+        mStorage.insertLong("a", Long.MAX_VALUE);
+        mStorage.insert("a", 3);
+        LongIterator longs = mStorage.readLongs("a");
+        assertEquals(1, longs.nextLong());
+        assertEquals(Long.MAX_VALUE, longs.nextLong());
+        assertEquals(3, longs.nextLong());
+        assertFalse(longs.hasNext());
+
+        mStorage.insertDouble("b", 0.5);
+        mStorage.insert("b", 1.5);
+        DoubleIterator doubles = mStorage.readDoubles("b");
+        assertEquals(0.5, doubles.nextDouble(), 0);
+        assertEquals(1.5, doubles.nextDouble(), 0);
+        assertFalse(doubles.hasNext());
+
+        Iterator<Serializable> boxed = mStorage.read("a").iterator();
+        assertEquals(1L, boxed.next());
+    }
+
+    @Test
+    public void testInterleavedKeysAndReads() throws Exception {
+        mStorage.beginBulkLoad();
+        for (int i = 0; i < 100000; i++) mStorage.insertLong("key" + (i % 7), i);
+        mStorage.endBulkLoad();
+        for (int k = 0; k < 7; k++) {
+            LongIterator values = mStorage.readLongs("key" + k);
+            for (int i = k; i < 100000; i += 7) assertEquals(i, values.nextLong());
+            assertFalse(values.hasNext());
+        }
+        mStorage.insertLong(KEY, 1);
+        assertEquals(1, mStorage.readLongs(KEY).nextLong());
+        mStorage.insertLong(KEY, 2);
+        LongIterator values = mStorage.readLongs(KEY);
+        assertEquals(1, values.nextLong());
+        assertEquals(2, values.nextLong());
+    }
+
+    @Test
+    public void testWipeDataAfterTerminating() throws Exception {
+        mStorage.insertLong(KEY, 10);
+        mStorage.terminate();
+        mStorage.initialize();
+        assertFalse(mStorage.readLongs(KEY).hasNext());
+    }
+}
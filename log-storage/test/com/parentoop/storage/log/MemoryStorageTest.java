@@ -0,0 +1,117 @@
+package com.parentoop.storage.log;
+
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.LongIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class MemoryStorageTest {
+
+    private static final String KEY = "key";
+    // Small enough for the tests to spill many times
+    private static final long SMALL_BUDGET = 4 * 1024;
+
+    private MemoryStorage<Serializable> mStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        mStorage = new MemoryStorage<>();
+        mStorage.initialize();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mStorage.terminate();
+    }
+
+    @Test
+    public void testInsertAndRetrieveObjects() throws Exception {
+        mStorage.insert("a", "String");
+        mStorage.insert("b", new ArrayList<>(Arrays.asList(1, 2, 3)));
+        mStorage.insert("a", 10);
+        Iterator<Serializable> a = mStorage.read("a").iterator();
+        assertEquals("String", a.next());
+        assertEquals(10, a.next());
+        assertFalse(a.hasNext());
+        assertEquals(new ArrayList<>(Arrays.asList(1, 2, 3)), mStorage.read("b").iterator().next());
+        assertFalse(mStorage.read("missing").iterator().hasNext());
+    }
+
+    @Test
+    public void testInsertAndReadRawValues() throws Exception {
+        mStorage.insertLong("a", -1);
+        mStorage.insertLong("a", Long.MAX_VALUE);
+        mStorage.insert("a", 3);
+        LongIterator longs = mStorage.readLongs("a");
+        assertEquals(-1, longs.nextLong());
+        assertEquals(Long.MAX_VALUE, longs.nextLong());
+        assertEquals(3, longs.nextLong());
+        assertFalse(longs.hasNext());
+
+        mStorage.insertDouble("b", 0.5);
+        mStorage.insert("b", 1.5);
+        DoubleIterator doubles = mStorage.readDoubles("b");
+        assertEquals(0.5, doubles.nextDouble(), 0);
+        assertEquals(1.5, doubles.nextDouble(), 0);
+        assertFalse(doubles.hasNext());
+
+        Iterator<Serializable> boxed = mStorage.read("a").iterator();
+        assertEquals(-1L, boxed.next());
+    }
+
+    @Test
+    public void testSpillKeepsInsertionOrder() throws Exception {
+        mStorage.terminate();
+        mStorage = new MemoryStorage<>(SMALL_BUDGET);
+        mStorage.initialize();
+        for (int i = 0; i < 100000; i++) {
+            mStorage.insertLong("key" + (i % 7), i);
+            mStorage.insertDouble("double", i);
+            if (i % 1000 == 0) mStorage.insert("object", "value" + i);
+        }
+        for (int k = 0; k < 7; k++) {
+            LongIterator values = mStorage.readLongs("key" + k);
+            for (int i = k; i < 100000; i += 7) assertEquals(i, values.nextLong());
+            assertFalse(values.hasNext());
+        }
+        DoubleIterator doubles = mStorage.readDoubles("double");
+        for (int i = 0; i < 100000; i++) assertEquals(i, doubles.nextDouble(), 0);
+        assertFalse(doubles.hasNext());
+        Iterator<Serializable> objects = mStorage.read("object").iterator();
+        for (int i = 0; i < 100000; i += 1000) assertEquals("value" + i, objects.next());
+        assertFalse(objects.hasNext());
+    }
+
+    @Test(timeout = 10000)
+    public void testSpillWhenKeysTakeTheBudget() throws Exception {
+        mStorage.terminate();
+        mStorage = new MemoryStorage<>(SMALL_BUDGET);
+        mStorage.initialize();
+        // The overhead of the keys alone is way past the budget, inserts must not keep spilling every buffer
+        int keys = 50000;
+        for (int round = 0; round < 3; round++) {
+            for (int k = 0; k < keys; k++) mStorage.insert("key" + k, "value" + round);
+        }
+        for (int k = 0; k < keys; k += 97) {
+            Iterator<Serializable> values = mStorage.read("key" + k).iterator();
+            for (int round = 0; round < 3; round++) assertEquals("value" + round, values.next());
+            assertFalse(values.hasNext());
+        }
+    }
+
+    @Test
+    public void testWipeDataAfterTerminating() throws Exception {
+        mStorage.insertLong(KEY, 10);
+        mStorage.terminate();
+        mStorage.initialize();
+        assertFalse(mStorage.readLongs(KEY).hasNext());
+    }
+}
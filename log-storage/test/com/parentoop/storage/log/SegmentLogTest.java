@@ -0,0 +1,68 @@
+package com.parentoop.storage.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class SegmentLogTest {
+
+    private static final long SEGMENT_SIZE = 64;
+    private static final int WRITE_BUFFER_SIZE = 32;
+
+    private Path mDirectory;
+    private SegmentLog mLog;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = Files.createTempDirectory("log");
+        mLog = new SegmentLog(mDirectory, SEGMENT_SIZE, WRITE_BUFFER_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mLog.delete();
+        assertFalse(Files.exists(mDirectory));
+    }
+
+    @Test
+    public void testRecordsAcrossSegments() throws Exception {
+        long previous = SegmentLog.NO_RECORD;
+        long[] positions = new long[20];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = previous = mLog.appendLong(previous, i);
+        }
+        // 17 bytes a record, 3 per segment
+        assertEquals(6 * SEGMENT_SIZE + 17, positions[19]);
+        long position = previous;
+        for (int i = positions.length - 1; i >= 0; i--) {
+            assertEquals(positions[i], position);
+            assertEquals(SegmentLog.LONG, mLog.getType(position));
+            assertEquals(i, mLog.getLong(position));
+            position = mLog.getPrevious(position);
+        }
+        assertEquals(SegmentLog.NO_RECORD, position);
+    }
+
+    @Test
+    public void testObjectsLargerThanWriteBuffer() throws Exception {
+        long first = mLog.appendDouble(SegmentLog.NO_RECORD, 0.5);
+        byte[] bytes = new byte[40];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+        long second = mLog.appendObject(first, bytes);
+        long third = mLog.appendObject(second, new byte[] {7});
+        assertEquals(SEGMENT_SIZE, second);
+        assertArrayEquals(bytes, mLog.getBytes(second));
+        assertArrayEquals(new byte[] {7}, mLog.getBytes(third));
+        assertEquals(0.5, mLog.getDouble(mLog.getPrevious(second)), 0);
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testRecordLargerThanSegment() throws Exception {
+        mLog.appendObject(SegmentLog.NO_RECORD, new byte[(int) SEGMENT_SIZE]);
+    }
+}
@@ -30,6 +30,7 @@ public class MasterApplication implements TaskExecution.TaskExecutionListener<Pa
 
     public MasterApplication(boolean verboseMode) {
         mVerboseMode = verboseMode;
+        Messages.registerCodecs();
 
         mMasterClientServer = new NodeServer(Ports.MASTER_CLIENT_PORT, mClientMessageRouter, 1);
         mMasterClientServer.setPeerConnetionListener(new ClientConnectionListener());
@@ -144,7 +145,7 @@ public class MasterApplication implements TaskExecution.TaskExecutionListener<Pa
         public void handle(Message message, PeerCommunicator sender) {
             if (mVerboseMode) {
                 System.out.println("Unhandled message with code " + message.getCode() +
-                        " received from slave with IP address " + sender.getAddress().getHostAddress());
+                        " received from slave " + sender.getNodeId());
             }
         }
     }
@@ -154,8 +155,8 @@ public class MasterApplication implements TaskExecution.TaskExecutionListener<Pa
         @Override
         public void onPeerConnected(PeerCommunicator peer) {
             try {
-                System.out.println("[S] Slave with IP " + peer.getAddress().getHostAddress() + " has just connected.");
-                mMasterClientServer.broadcastMessage(new Message(Messages.SLAVE_CONNECTED, peer.getAddress().getHostAddress()));
+                System.out.println("[S] Slave " + peer.getNodeId() + " has just connected.");
+                mMasterClientServer.broadcastMessage(new Message(Messages.SLAVE_CONNECTED, peer.getNodeId().toString()));
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -164,8 +165,8 @@ public class MasterApplication implements TaskExecution.TaskExecutionListener<Pa
         @Override
         public void onPeerDisconnected(PeerCommunicator peer) {
             try {
-                System.out.println("[S] Slave with IP " + peer.getAddress().getHostAddress() + " has disconnected.");
-                mMasterClientServer.broadcastMessage(new Message(Messages.SLAVE_DISCONNECTED, peer.getAddress().getHostAddress()));
+                System.out.println("[S] Slave " + peer.getNodeId() + " has disconnected.");
+                mMasterClientServer.broadcastMessage(new Message(Messages.SLAVE_DISCONNECTED, peer.getNodeId().toString()));
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -178,7 +179,7 @@ public class MasterApplication implements TaskExecution.TaskExecutionListener<Pa
         public void onPeerConnected(PeerCommunicator peer) {
             for (PeerCommunicator slave : mMasterSlaveServer.getConnectedPeers()) {
                 try {
-                    mMasterClientServer.broadcastMessage(new Message(Messages.SLAVE_CONNECTED, slave.getAddress().getHostAddress()));
+                    mMasterClientServer.broadcastMessage(new Message(Messages.SLAVE_CONNECTED, slave.getNodeId().toString()));
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
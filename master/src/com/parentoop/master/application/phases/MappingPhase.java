@@ -3,31 +3,47 @@ package com.parentoop.master.application.phases;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.parentoop.core.api.InputReader;
+import com.parentoop.core.api.InputSplit;
+import com.parentoop.core.api.SplittableInputReader;
 import com.parentoop.core.data.DataPool;
 import com.parentoop.core.networking.Messages;
 import com.parentoop.master.execution.ExecutionPhase;
+import com.parentoop.network.api.DispatchFuture;
 import com.parentoop.network.api.Message;
+import com.parentoop.network.api.OutboundQueueFullException;
 import com.parentoop.network.api.PeerCommunicator;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class MappingPhase extends ExecutionPhase<Path> {
 
     private static final int MAX_POOL_SIZE = 15;
+    // Chunks the input reader may get ahead of the chunk senders, instead of loading the whole input when slaves are slow
+    private static final int INPUT_POOL_CAPACITY = 1024;
+    // Chunks sent to a slave in a single MAP_CHUNKS message, and so mapped before it reports IDLE again
+    private static final int CHUNKS_PER_MESSAGE = 128;
+    // Splits read in parallel when the input reader is a SplittableInputReader
+    private static final int INPUT_READER_THREADS = 4;
 
     private ExecutorService mExecutorService;
+    private ExecutorService mInputReadersService;
 
     private Path mInputPath;
-    private Iterator<Serializable> mInputIterator;
+    private DataPool<Serializable> mInputDataPool;
 
     private BlockingQueue<PeerCommunicator> mIdlePeers;
     private AtomicInteger mActiveChunkSendingThreads;
+    private AtomicBoolean mMapEnded;
+    private AtomicBoolean mFailed;
     private Set<String> mFoundKeys;
 
     public MappingPhase(Path inputPath) {
@@ -47,23 +63,19 @@ public class MappingPhase extends ExecutionPhase<Path> {
     @Override
     public void onEnterPhase(ExecutionPhase previousPhase) {
         int chunkSenderThreads = Math.min(MAX_POOL_SIZE, Math.max(getParticipatingPeers().size() / 2, 1));
-        mExecutorService = Executors.newFixedThreadPool(chunkSenderThreads + 1); // +1 for the input reader one
+        mExecutorService = Executors.newFixedThreadPool(chunkSenderThreads);
+        // Apart, so that splits queued behind the ones being read don't hold the chunk senders up
+        mInputReadersService = Executors.newFixedThreadPool(INPUT_READER_THREADS);
 
         mIdlePeers = new LinkedBlockingQueue<>(getParticipatingPeers());
         mFoundKeys = Sets.newConcurrentHashSet();
 
-        final DataPool<Serializable> inputDataPool = new DataPool<>();
-        mInputIterator = inputDataPool.iterator();
-        mExecutorService.submit(new Runnable() {
-            @Override
-            public void run() {
-                InputReader inputReader = getTask().getInputReader();
-                inputReader.read(mInputPath, inputDataPool);
-                inputDataPool.close();
-            }
-        });
+        mInputDataPool = new DataPool<>(INPUT_POOL_CAPACITY);
+        startInputReaders(getTask().getInputReader());
 
         mActiveChunkSendingThreads = new AtomicInteger(0);
+        mMapEnded = new AtomicBoolean(false);
+        mFailed = new AtomicBoolean(false);
         while (chunkSenderThreads --> 0) {
             mExecutorService.submit(new ChunkSendingRunnable());
         }
@@ -89,50 +101,123 @@ public class MappingPhase extends ExecutionPhase<Path> {
             ((ReducingPhase) nextPhase).setKeysToReduce(mFoundKeys);
         }
         mExecutorService.shutdownNow();
+        mInputReadersService.shutdownNow();
         mIdlePeers.clear();
         if (nextPhase instanceof ReducingPhase) {
             ((ReducingPhase) nextPhase).setKeysToReduce(mFoundKeys);
         }
     }
 
+    private void startInputReaders(final InputReader inputReader) {
+        List<InputSplit> splits = null;
+        if (inputReader instanceof SplittableInputReader) {
+            try {
+                splits = ((SplittableInputReader) inputReader).split(mInputPath, INPUT_READER_THREADS);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (splits == null) {
+            mInputReadersService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    inputReader.read(mInputPath, mInputDataPool);
+                    mInputDataPool.close();
+                }
+            });
+            return;
+        }
+        if (splits.isEmpty()) mInputDataPool.close();
+        // The input is complete once the last split was read, whichever it is
+        final AtomicInteger pendingSplits = new AtomicInteger(splits.size());
+        for (final InputSplit split : splits) {
+            mInputReadersService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ((SplittableInputReader) inputReader).read(mInputPath, split, mInputDataPool);
+                    } finally {
+                        if (pendingSplits.decrementAndGet() == 0) mInputDataPool.close();
+                    }
+                }
+            });
+        }
+    }
+
     private class ChunkSendingRunnable implements Callable<Void> {
 
         @Override
         public Void call() throws Exception {
-            if (!mInputIterator.hasNext()) return null;
+            // Counted before taking chunks, so that no other thread ends the phase while this one holds some
             mActiveChunkSendingThreads.incrementAndGet();
             try {
-                while (true) {
-                    Serializable chunk;
-                    try {
-                        chunk = mInputIterator.next();
-                    } catch (RuntimeException ex) {
-                        if (!mInputIterator.hasNext()) break;
-                        continue;
-                    }
+                ArrayList<Serializable> chunks = new ArrayList<>(CHUNKS_PER_MESSAGE);
+                while (mInputDataPool.drainTo(chunks, CHUNKS_PER_MESSAGE) > 0) {
                     PeerCommunicator peer = mIdlePeers.take();
-                    peer.dispatchMessage(new Message(Messages.MAP_CHUNK, chunk));
+                    dispatchChunk(peer, new Message(Messages.MAP_CHUNKS, chunks));
+                    // Already encoded by the dispatch
+                    chunks.clear();
                 }
                 return null;
+            } catch (IOException e) {
+                fail(e);
+                return null;
             } finally {
                 int active = mActiveChunkSendingThreads.decrementAndGet();
-                if (active == 0) {
-                    waitAllPeers();
-                    while (!mIdlePeers.isEmpty()) {
-                        PeerCommunicator peer = mIdlePeers.take();
-                        // Can send right after MAP_CHUNK, because slave await map task
-                        peer.dispatchMessage(new Message(Messages.END_MAP));
-                    }
-                    waitAllPeers();
-                    goToNextPhase();
-                }
+                // A thread may only start once the others are done, it then finds the pool empty too
+                if (active == 0 && mMapEnded.compareAndSet(false, true)) endMap();
             }
         }
     }
 
-    private void waitAllPeers() {
+    private void endMap() throws IOException, InterruptedException {
+        if (!waitAllPeers()) return;
+        while (!mIdlePeers.isEmpty()) {
+            PeerCommunicator peer = mIdlePeers.take();
+            // Can send right after MAP_CHUNKS, because slave await map task
+            peer.dispatchMessage(new Message(Messages.END_MAP));
+        }
+        if (!waitAllPeers()) return;
+        goToNextPhase();
+    }
+
+    /**
+     * Doesn't wait for the chunk to be written, the peer is busy until it reports IDLE anyway, so a slow slave does
+     * not hold this thread while others are idle.
+     */
+    private void dispatchChunk(final PeerCommunicator peer, Message message) throws IOException {
+        DispatchFuture future;
+        while ((future = peer.dispatchAsync(message)).getFailure() instanceof OutboundQueueFullException) {
+            peer.whenWritable().await();
+        }
+        final DispatchFuture dispatch = future;
+        dispatch.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (dispatch.getFailure() != null) {
+                    fail(new IOException("Couldn't send chunks to slave " + peer.getNodeId() + ".",
+                            dispatch.getFailure()));
+                }
+            }
+        }, getTaskExecutor());
+    }
+
+    /**
+     * Chunks that couldn't be sent are lost, and their peer won't report IDLE again, so the phase can't complete.
+     */
+    private void fail(IOException e) {
+        if (mFailed.compareAndSet(false, true)) failExecution(e);
+    }
+
+    /**
+     * @return false if the phase was left meanwhile, as it is when it fails.
+     */
+    private boolean waitAllPeers() {
         // TODO: Put timeout if someone does not answer in time
-        while (mIdlePeers.size() < getParticipatingPeers().size());
+        while (mIdlePeers.size() < getParticipatingPeers().size()) {
+            if (mExecutorService.isShutdown()) return false;
+        }
+        return true;
     }
 
 }
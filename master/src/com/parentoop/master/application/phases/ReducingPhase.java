@@ -5,13 +5,15 @@ import com.parentoop.core.data.Datum;
 import com.parentoop.core.networking.Messages;
 import com.parentoop.core.utils.MoreSets;
 import com.parentoop.master.execution.ExecutionPhase;
+import com.parentoop.network.api.DispatchFuture;
+import com.parentoop.network.api.EncodedMessage;
 import com.parentoop.network.api.Message;
+import com.parentoop.network.api.NodeId;
 import com.parentoop.network.api.PeerCommunicator;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -27,7 +29,7 @@ public class ReducingPhase extends ExecutionPhase<Path> {
     private Set<String> mKeysToReduce;
     private ExecutorService mExecutorService;
 
-    private InetAddress[] mPeersAddresses;
+    private NodeId[] mPeerIds;
     private Set<PeerCommunicator> mFinishedPeers;
 
     private Path mOutputFile;
@@ -59,11 +61,11 @@ public class ReducingPhase extends ExecutionPhase<Path> {
         mOutputFile = Files.createTempFile("parentoot", ".txt");
         mOutputStream = new PrintStream(new BufferedOutputStream(Files.newOutputStream(mOutputFile)));
 
-        List<InetAddress> peerAddresses = new ArrayList<>(peers.size());
+        List<NodeId> peerIds = new ArrayList<>(peers.size());
         for (PeerCommunicator peer : peers) {
-            peerAddresses.add(peer.getAddress());
+            peerIds.add(peer.getNodeId());
         }
-        mPeersAddresses = peerAddresses.toArray(new InetAddress[peerAddresses.size()]);
+        mPeerIds = peerIds.toArray(new NodeId[peerIds.size()]);
 
         List<Set<String>> disjointKeys = MoreSets.disjointSubsets(mKeysToReduce, peers.size());
         Iterator<Set<String>> keysIterator = disjointKeys.iterator();
@@ -98,9 +100,20 @@ public class ReducingPhase extends ExecutionPhase<Path> {
     }
 
     private void sendRestartMessageToSlaves() {
+        EncodedMessage restartMessage;
+        try {
+            restartMessage = EncodedMessage.encode(new Message(Messages.RESTART_SLAVE));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        List<DispatchFuture> futures = new ArrayList<>();
         for (PeerCommunicator slave : getParticipatingPeers()) {
+            futures.add(slave.dispatchEncoded(restartMessage));
+        }
+        for (DispatchFuture future : futures) {
             try {
-                slave.dispatchMessage(new Message(Messages.RESTART_SLAVE));
+                future.await();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -131,7 +144,7 @@ public class ReducingPhase extends ExecutionPhase<Path> {
             boolean successful = false, addressesSent = false;
             while (retriesLeft --> 0 && !successful) {
                 try {
-                    if (!addressesSent) mPeer.dispatchMessage(new Message(Messages.LOAD_SLAVE_ADDRESSES, mPeersAddresses));
+                    if (!addressesSent) mPeer.dispatchMessage(new Message(Messages.LOAD_SLAVE_ADDRESSES, mPeerIds));
                     addressesSent = true;
                     mPeer.dispatchMessage(new Message(Messages.REDUCE_KEYS, mKeys));
                     successful = true;
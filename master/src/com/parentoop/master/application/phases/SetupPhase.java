@@ -3,9 +3,9 @@ package com.parentoop.master.application.phases;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.*;
-import com.parentoop.core.loader.TaskDescriptor;
 import com.parentoop.core.networking.Messages;
 import com.parentoop.master.execution.ExecutionPhase;
+import com.parentoop.network.api.EncodedMessage;
 import com.parentoop.network.api.Message;
 import com.parentoop.network.api.PeerCommunicator;
 
@@ -28,6 +28,8 @@ public class SetupPhase extends ExecutionPhase<Path> {
     private ListeningScheduledExecutorService mExecutor;
     private Future<?> mNextPhaseFuture;
     private Set<PeerCommunicator> mIdlePeers;
+    private EncodedMessage mJarMessage;
+    private EncodedMessage mDescriptorMessage;
 
     @Override
     public int getPhaseCode() {
@@ -40,7 +42,10 @@ public class SetupPhase extends ExecutionPhase<Path> {
     }
 
     @Override
-    public void onEnterPhase(ExecutionPhase previousPhase) {
+    public void onEnterPhase(ExecutionPhase previousPhase) throws IOException {
+        // same jar and descriptor for every slave, encoded (and the jar mapped) only once
+        mJarMessage = EncodedMessage.encode(new Message(Messages.LOAD_JAR, getTask().getJarFile()));
+        mDescriptorMessage = EncodedMessage.encode(new Message(Messages.LOAD_DESCRIPTOR, getTask().getDescriptor()));
         int poolSize = Math.min(MAX_POOL_SIZE, getParticipatingPeers().size());
         mExecutor = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(poolSize));
         mIdlePeers = Sets.newHashSet();
@@ -116,17 +121,14 @@ public class SetupPhase extends ExecutionPhase<Path> {
 
         @Override
         public PeerCommunicator call() throws Exception {
-            Path jarFile = getTask().getJarFile();
-            TaskDescriptor taskDescriptor = getTask().getDescriptor();
-
             IOException lastException = null;
             int retriesLeft = SETUP_RETRY_COUNT;
             boolean successful = false, jarSent = false;
             while (retriesLeft --> 0 && !successful) {
                 try {
-                    if (!jarSent) mPeer.dispatchMessage(new Message(Messages.LOAD_JAR, jarFile));
+                    if (!jarSent) mPeer.dispatchEncoded(mJarMessage).await();
                     jarSent = true;
-                    mPeer.dispatchMessage(new Message(Messages.LOAD_DESCRIPTOR, taskDescriptor));
+                    mPeer.dispatchEncoded(mDescriptorMessage).await();
                     successful = true;
                 } catch (IOException ex) {
                     lastException = ex;
@@ -166,7 +166,7 @@ public class TaskExecution<R> {
             final ExecutionPhase currentPhase = mCurrentPhase;
 
             // debug
-            System.out.println("MASTER: " + message.getCode() + " <- " + sender.getAddress());
+            System.out.println("MASTER: " + message.getCode() + " <- " + sender.getNodeId());
 
             if (currentPhase != null) {
                 mTaskExecutor.execute(new Runnable() {
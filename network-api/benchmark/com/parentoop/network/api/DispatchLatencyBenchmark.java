@@ -0,0 +1,96 @@
+package com.parentoop.network.api;
+
+import com.parentoop.network.api.messaging.MessageHandler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Round-trip latency of a message between a client and a server on the loopback, which echoes it back from its
+ * handler, and the CPU the connected pair burns while idle. Each round trip is a dispatch and a delivery each way, so
+ * half of it bounds the dispatch latency.
+ * <p>
+ * Arguments: the number of round trips measured, 100000 by default, and the seconds spent idle, 5 by default.
+ */
+public class DispatchLatencyBenchmark {
+
+    private static final int PORT = 13381;
+    private static final int WARM_UP_ROUND_TRIPS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int roundTrips = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int idleSeconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        NodeServer server = new NodeServer(PORT, new MessageHandler() {
+            @Override
+            public void handle(Message message, PeerCommunicator sender) {
+                try {
+                    sender.dispatchMessage(message);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        server.startServer();
+        final BlockingQueue<Message> replies = new LinkedBlockingQueue<>();
+        NodeClient client = new NodeClient(InetAddress.getLoopbackAddress(), PORT, new MessageHandler() {
+            @Override
+            public void handle(Message message, PeerCommunicator sender) {
+                replies.add(message);
+            }
+        });
+
+        try {
+            measure(client, replies, WARM_UP_ROUND_TRIPS);
+            long[] latencies = measure(client, replies, roundTrips);
+            Arrays.sort(latencies);
+            System.out.printf("round trips: %d%n", roundTrips);
+            System.out.printf("p50:  %8.1f us%n", percentile(latencies, 0.50) / 1e3);
+            System.out.printf("p99:  %8.1f us%n", percentile(latencies, 0.99) / 1e3);
+            System.out.printf("p999: %8.1f us%n", percentile(latencies, 0.999) / 1e3);
+            System.out.printf("max:  %8.1f us%n", latencies[latencies.length - 1] / 1e3);
+
+            long cpuBefore = cpuTime();
+            long start = System.nanoTime();
+            Thread.sleep(idleSeconds * 1000L);
+            double idleCpu = (double) (cpuTime() - cpuBefore) / (System.nanoTime() - start);
+            System.out.printf("idle CPU: %.2f%% of a core%n", 100 * idleCpu);
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    private static long[] measure(NodeClient client, BlockingQueue<Message> replies, int roundTrips)
+            throws Exception {
+        long[] latencies = new long[roundTrips];
+        for (int i = 0; i < roundTrips; i++) {
+            long start = System.nanoTime();
+            client.dispatchMessage(new Message(1, i));
+            replies.take();
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * CPU time of all the live threads of the process, in nanoseconds.
+     */
+    private static long cpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long id : threads.getAllThreadIds()) {
+            long time = threads.getThreadCpuTime(id);
+            if (time > 0) total += time;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,133 @@
+package com.parentoop.network.api;
+
+import com.parentoop.network.api.messaging.MessageHandler;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Throughput of sending a file between two nodes on the loopback, with the file frames of {@link PeerCommunicator},
+ * against the stream copy they replaced: the file piped through an 8 KB buffer into an {@link ObjectOutputStream} and
+ * out of an {@link ObjectInputStream} into the temp file.
+ * <p>
+ * Arguments: the size of the file in MB, 256 by default, and the number of transfers of each kind, 5 by default.
+ */
+public class FileTransferBenchmark {
+
+    private static final int PORT = 13382;
+    private static final int STREAM_PORT = 13383;
+    private static final int BUFFER_SIZE = 8192;
+
+    public static void main(String[] args) throws Exception {
+        int sizeInMb = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+        int transfers = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        Path file = Files.createTempFile("benchmark", ".bin");
+        file.toFile().deleteOnExit();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            byte[] chunk = new byte[1024 * 1024];
+            Random random = new Random(42);
+            for (int i = 0; i < sizeInMb; i++) {
+                random.nextBytes(chunk);
+                out.write(chunk);
+            }
+        }
+
+        try {
+            // The first transfer of each kind warms up
+            for (int i = 0; i <= transfers; i++) {
+                double stream = sizeInMb / (sendStream(file) / 1e9);
+                double frames = sizeInMb / (sendFrames(file) / 1e9);
+                if (i > 0) System.out.printf("stream copy: %7.1f MB/s, file frames: %7.1f MB/s%n", stream, frames);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * @return the nanoseconds from the dispatch until the receiver got the whole file.
+     */
+    private static long sendFrames(Path file) throws Exception {
+        final BlockingQueue<Path> received = new LinkedBlockingQueue<>();
+        NodeServer server = new NodeServer(PORT, new MessageHandler() {
+            @Override
+            public void handle(Message message, PeerCommunicator sender) {
+                received.add(message.<Path>getData());
+            }
+        });
+        server.startServer();
+        NodeClient client = new NodeClient(InetAddress.getLoopbackAddress(), PORT, new MessageHandler() {
+            @Override
+            public void handle(Message message, PeerCommunicator sender) {
+            }
+        });
+        try {
+            long start = System.nanoTime();
+            client.dispatchMessage(new Message(1, file));
+            Path copy = received.take();
+            long time = System.nanoTime() - start;
+            Files.delete(copy);
+            return time;
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Same as {@link #sendFrames(Path)} with the stream copy.
+     */
+    private static long sendStream(Path file) throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(STREAM_PORT)) {
+            final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+            final ServerSocket listener = serverSocket;
+            Thread receiver = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (Socket socket = listener.accept();
+                         ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                        Path copy = Files.createTempFile("benchmark", ".bin");
+                        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(copy))) {
+                            pipe(in, out, in.readLong());
+                        }
+                        received.add(copy);
+                    } catch (IOException e) {
+                        received.add(e);
+                    }
+                }
+            });
+            receiver.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), STREAM_PORT);
+                 ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                 InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                long start = System.nanoTime();
+                out.writeLong(Files.size(file));
+                pipe(in, out, Files.size(file));
+                Object copy = received.take();
+                long time = System.nanoTime() - start;
+                if (copy instanceof IOException) throw (IOException) copy;
+                Files.delete((Path) copy);
+                return time;
+            }
+        }
+    }
+
+    private static void pipe(InputStream from, OutputStream to, long numBytes) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (numBytes > 0) {
+            int bytesRead = from.read(buffer, 0, (int) Math.min(buffer.length, numBytes));
+            if (bytesRead == -1) break;
+            numBytes -= bytesRead;
+            to.write(buffer, 0, bytesRead);
+        }
+        to.flush();
+    }
+}
@@ -0,0 +1,123 @@
+package com.parentoop.network.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Completes once a dispatched message hit the socket, or failed to. Listeners let callers react to it without holding
+ * a thread. Dispatches can't be cancelled.
+ */
+public class DispatchFuture implements Future<Void> {
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private volatile IOException mFailure;
+    private List<Runnable> mListeners = new ArrayList<>(); // Guarded by this, null once done
+
+    /* package private */ DispatchFuture() {
+    }
+
+    /* package private */ static DispatchFuture completed(IOException failure) {
+        DispatchFuture future = new DispatchFuture();
+        future.complete(failure);
+        return future;
+    }
+
+    /* package private */ void complete(IOException failure) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mListeners == null) return;
+            mFailure = failure;
+            listeners = mListeners;
+            mListeners = null;
+            mDone.countDown();
+        }
+        for (Runnable listener : listeners) listener.run();
+    }
+
+    /**
+     * Runs the listener on the executor once the dispatch completes, right away if it already did. Completion happens
+     * on I/O threads, so only cheap listeners should use a direct executor.
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(listener);
+                } catch (RejectedExecutionException ex) {
+                    // nobody left to run it
+                }
+            }
+        };
+        synchronized (this) {
+            if (mListeners != null) {
+                mListeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * The reason the dispatch failed, null if it succeeded or is still pending.
+     */
+    public IOException getFailure() {
+        return mFailure;
+    }
+
+    public boolean isSuccess() {
+        return isDone() && mFailure == null;
+    }
+
+    /**
+     * Waits for the dispatch, rethrowing its failure as is, so that callers can catch its specific type (e.g.
+     * {@link OutboundQueueFullException}). Its stack trace is the one of the failed write.
+     */
+    public void await() throws IOException {
+        try {
+            mDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (mFailure != null) throw mFailure;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        mDone.await();
+        if (mFailure != null) throw new ExecutionException(mFailure);
+        return null;
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) throw new TimeoutException();
+        if (mFailure != null) throw new ExecutionException(mFailure);
+        return null;
+    }
+}
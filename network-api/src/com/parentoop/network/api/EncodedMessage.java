@@ -0,0 +1,62 @@
+package com.parentoop.network.api;
+
+import com.parentoop.network.api.FileTransferHelper.FileSender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A message encoded once, to be dispatched to many peers through {@link PeerCommunicator#dispatchEncoded}. The frame is
+ * shared read-only by every connection it's written to, a file payload is memory-mapped once instead of being read
+ * again for each peer.
+ */
+public class EncodedMessage {
+
+    private final int mCode;
+    private final ByteBuffer mFrame;
+    private final Path mFile;
+    private final ByteBuffer mMappedFile;
+
+    private EncodedMessage(int code, ByteBuffer frame, Path file, ByteBuffer mappedFile) {
+        mCode = code;
+        mFrame = frame;
+        mFile = file;
+        mMappedFile = mappedFile;
+    }
+
+    public static EncodedMessage encode(Message message) throws IOException {
+        if (!(message.getData() instanceof Path)) {
+            ByteBuffer frame = PeerCommunicator.encode(message).toByteBuffer().asReadOnlyBuffer();
+            return new EncodedMessage(message.getCode(), frame, null, null);
+        }
+        Path file = message.getData();
+        ByteBuffer mapped = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // a mapping stays valid after its channel is closed, larger files are streamed for each peer instead
+            if (channel.size() <= Integer.MAX_VALUE) mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new EncodedMessage(message.getCode(), null, file, mapped);
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+
+    /* package private */ boolean isFile() {
+        return mFile != null;
+    }
+
+    /**
+     * The frame, through a view of its own.
+     */
+    /* package private */ ByteBuffer newFrame() {
+        return mFrame.duplicate();
+    }
+
+    /* package private */ FileSender newFileSender() throws IOException {
+        return (mMappedFile != null) ? new FileSender(mMappedFile.duplicate()) : new FileSender(mFile);
+    }
+}
@@ -1,36 +1,160 @@
 package com.parentoop.network.api;
 
-import java.io.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class FileTransferHelper {
 
-    private static final int BUFFER_SIZE = 8192;
+    // Prevents instantiation
+    private FileTransferHelper() {
+        throw new AssertionError("Cannot instantiate object from " + this.getClass());
+    }
+
+    /**
+     * Streams a file into a non-blocking channel, one {@link #send} call at a time, so it can be sliced into chunks.
+     * Bytes go straight from the page cache to the socket through {@link FileChannel#transferTo} (sendfile on Linux),
+     * never entering the heap. A file mapped once can be sent to many peers, each sender reading its own view of it.
+     */
+    /* package private */ static class FileSender {
 
-    public static void sendFile(Path file, ObjectOutputStream outputStream) throws IOException {
-        try (InputStream fileStream = new BufferedInputStream(Files.newInputStream(file))) {
-            long fileSize = Files.size(file);
-            outputStream.writeLong(fileSize);
-            pipeStreams(fileStream, outputStream, fileSize);
+        private final FileChannel mFile;
+        private final ByteBuffer mMapped;
+        private final long mSize;
+        private long mPosition = 0;
+
+        public FileSender(Path file) throws IOException {
+            mFile = FileChannel.open(file, StandardOpenOption.READ);
+            mMapped = null;
+            mSize = mFile.size();
         }
-    }
 
-    public static void receiveFile(Path dest, ObjectInputStream inputStream) throws IOException {
-        try (OutputStream fileStream = new BufferedOutputStream(Files.newOutputStream(dest))) {
-            long fileSize = inputStream.readLong();
-            pipeStreams(inputStream, fileStream, fileSize);
+        /**
+         * @param mapped the file contents, its position and limit are this sender's own.
+         */
+        public FileSender(ByteBuffer mapped) {
+            mFile = null;
+            mMapped = mapped;
+            mSize = mapped.capacity();
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        public long getRemaining() {
+            return mSize - mPosition;
+        }
+
+        /**
+         * Writes up to {@code max} bytes, as many as the channel accepts, and returns how many were written.
+         */
+        public long send(WritableByteChannel channel, long max) throws IOException {
+            if (mMapped != null) {
+                mMapped.limit((int) (mPosition + Math.min(max, getRemaining()))).position((int) mPosition);
+                int written = channel.write(mMapped);
+                mPosition += written;
+                return written;
+            }
+            long end = mPosition + Math.min(max, getRemaining());
+            long start = mPosition;
+            while (mPosition < end) {
+                long sent = mFile.transferTo(mPosition, end - mPosition, channel);
+                if (sent == 0) {
+                    if (mPosition >= mFile.size()) throw new IOException("File shrank while being sent");
+                    break;
+                }
+                mPosition += sent;
+            }
+            return mPosition - start;
+        }
+
+        public void close() {
+            if (mFile == null) return;
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                // we are done with it anyway, eat
+            }
         }
     }
 
-    private static void pipeStreams(InputStream from, OutputStream to, long numBytes) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        while (numBytes > 0) {
-            int bytesRead = from.read(buffer, 0, (int) Math.min(buffer.length, numBytes));
-            if (bytesRead == -1) break;
-            numBytes -= bytesRead;
-            to.write(buffer, 0, bytesRead);
+    /**
+     * Writes a file of known size as its chunks arrive from the network. Once the bytes already buffered by the reader
+     * are consumed, the rest of a chunk is moved with {@link FileChannel#transferFrom} straight from the socket.
+     */
+    /* package private */ static class FileReceiver {
+
+        private final Path mPath;
+        private final FileChannel mFile;
+        private long mPosition = 0;
+        private long mRemaining;
+
+        public FileReceiver(Path dest, long size) throws IOException {
+            mPath = dest;
+            mFile = FileChannel.open(dest, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            mRemaining = size;
+        }
+
+        public static FileReceiver toTempFile(long size) throws IOException {
+            Path file = Files.createTempFile("parentoop", ".tempfile");
+            file.toFile().deleteOnExit();
+            return new FileReceiver(file, size);
+        }
+
+        public Path getPath() {
+            return mPath;
+        }
+
+        public boolean isComplete() {
+            return mRemaining == 0;
+        }
+
+        /**
+         * Consumes up to {@code max} bytes from the buffer, leaving whatever comes after them untouched. Returns the
+         * number of bytes consumed.
+         */
+        public int receive(ByteBuffer buffer, long max) throws IOException {
+            max = Math.min(max, mRemaining);
+            int limit = buffer.limit();
+            if (buffer.remaining() > max) buffer.limit(buffer.position() + (int) max);
+            int start = buffer.position();
+            try {
+                while (buffer.hasRemaining()) {
+                    int written = mFile.write(buffer, mPosition);
+                    mPosition += written;
+                    mRemaining -= written;
+                }
+            } finally {
+                buffer.limit(limit);
+            }
+            if (isComplete()) close();
+            return buffer.position() - start;
+        }
+
+        /**
+         * Moves up to {@code max} bytes of whatever the (non-blocking) channel has available. Returns the number of
+         * bytes transferred, zero meaning either no data or end of stream.
+         */
+        public long receive(ReadableByteChannel channel, long max) throws IOException {
+            long transferred = mFile.transferFrom(channel, mPosition, Math.min(max, mRemaining));
+            mPosition += transferred;
+            mRemaining -= transferred;
+            if (isComplete()) close();
+            return transferred;
+        }
+
+        public void close() {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                // we are done with it anyway, eat
+            }
         }
-        to.flush();
     }
 }
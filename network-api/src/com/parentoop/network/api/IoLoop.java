@@ -0,0 +1,206 @@
+package com.parentoop.network.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single selector thread. Every read, write, accept and close of the channels registered here runs on this thread,
+ * which sleeps in {@link Selector#select()} while none of them is ready.
+ */
+/* package private */ class IoLoop implements Runnable {
+
+    private static final ThreadLocal<IoLoop> sCurrentLoop = new ThreadLocal<>();
+
+    private final Selector mSelector;
+    private final Thread mThread;
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+
+    // Loop thread only
+    private final Queue<ScheduledTask> mScheduledTasks = new PriorityQueue<>();
+    private long mScheduledSequence = 0;
+
+    public IoLoop(String name) throws IOException {
+        mSelector = Selector.open();
+        mThread = new Thread(this, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public static boolean isLoopThread() {
+        return sCurrentLoop.get() != null;
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Runs the task on the loop thread, inline if we are already on it.
+     */
+    public void execute(Runnable task) {
+        if (inLoop()) {
+            task.run();
+            return;
+        }
+        mTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    /**
+     * Runs the task on the loop thread, always queued behind the pending ones, even when called from the loop.
+     */
+    public void post(Runnable task) {
+        mTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    /**
+     * Like {@link #execute(Runnable)}, but waits for the task to finish. Loop threads never wait on each other, when
+     * called from another loop the task is only scheduled.
+     */
+    public void executeAndWait(Runnable task) throws IOException {
+        if (inLoop() || isLoopThread()) {
+            execute(task);
+            return;
+        }
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        execute(future);
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs the task on the loop thread once the delay has elapsed. Precision is bounded by the selector timeout, which
+     * is rounded up to the next millisecond.
+     */
+    public void schedule(final Runnable task, long delay, TimeUnit unit) {
+        final long deadline = System.nanoTime() + unit.toNanos(delay);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                mScheduledTasks.add(new ScheduledTask(deadline, mScheduledSequence++, task));
+            }
+        });
+    }
+
+    /**
+     * Registers the channel asynchronously, the resulting key is handed to {@link IoHandler#onRegistered}. Tasks
+     * executed afterwards are guaranteed to see the key.
+     */
+    public void register(final SelectableChannel channel, final int ops, final IoHandler handler) throws IOException {
+        channel.configureBlocking(false);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handler.onRegistered(channel.register(mSelector, ops, handler));
+                } catch (IOException | RuntimeException ex) {
+                    handler.onError(ex);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        sCurrentLoop.set(this);
+        while (true) {
+            try {
+                long timeout = runScheduledTasks();
+                if (timeout < 0) {
+                    mSelector.select();
+                } else {
+                    mSelector.select(timeout);
+                }
+                runTasks();
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    IoHandler handler = (IoHandler) key.attachment();
+                    try {
+                        if (key.isValid()) handler.onReady(key);
+                    } catch (IOException | RuntimeException ex) {
+                        handler.onError(ex);
+                    }
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Runs the scheduled tasks that are due and returns how many milliseconds until the next one, -1 if there's none.
+     */
+    private long runScheduledTasks() {
+        ScheduledTask next;
+        while ((next = mScheduledTasks.peek()) != null) {
+            long delay = next.mDeadline - System.nanoTime();
+            if (delay > 0) return (delay + 999999) / 1000000;
+            mScheduledTasks.poll();
+            try {
+                next.mTask.run();
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return -1;
+    }
+
+    private static class ScheduledTask implements Comparable<ScheduledTask> {
+
+        private final long mDeadline;
+        private final long mSequence;
+        private final Runnable mTask;
+
+        private ScheduledTask(long deadline, long sequence, Runnable task) {
+            mDeadline = deadline;
+            mSequence = sequence;
+            mTask = task;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            long difference = mDeadline - other.mDeadline;
+            if (difference == 0) difference = mSequence - other.mSequence;
+            return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+        }
+    }
+
+    /* package private */ interface IoHandler {
+
+        public void onRegistered(SelectionKey key);
+
+        public void onReady(SelectionKey key) throws IOException;
+
+        public void onError(Exception ex);
+    }
+}
@@ -0,0 +1,36 @@
+package com.parentoop.network.api;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of {@link IoLoop}s shared by every {@link NodeServer} and {@link NodeClient} of the process. Channels are
+ * spread over the loops round-robin.
+ */
+/* package private */ class IoReactor {
+
+    private static final int DEFAULT_LOOP_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static IoReactor sDefault;
+
+    public static synchronized IoReactor getDefault() throws IOException {
+        if (sDefault == null) sDefault = new IoReactor(DEFAULT_LOOP_COUNT);
+        return sDefault;
+    }
+
+    private final IoLoop[] mLoops;
+    private final AtomicInteger mNextLoop = new AtomicInteger(0);
+
+    public IoReactor(int loopCount) throws IOException {
+        mLoops = new IoLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            mLoops[i] = new IoLoop("parentoop-io-" + i);
+        }
+    }
+
+    public IoLoop nextLoop() {
+        int i = (mNextLoop.getAndIncrement() & Integer.MAX_VALUE) % mLoops.length;
+        return mLoops[i];
+    }
+}
@@ -0,0 +1,67 @@
+package com.parentoop.network.api;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process transport, to run a whole cluster in a single JVM. Once enabled, servers started afterwards are bound to
+ * a port of an in-memory registry instead of a socket, and clients created afterwards connect to them through byte
+ * queues, whatever the address they are given. Frames and I/O loops are the same as over TCP.
+ */
+public class Loopback {
+
+    private static final int FIRST_EPHEMERAL_PORT = 49152;
+
+    private static volatile boolean sEnabled = false;
+    private static final ConcurrentMap<Integer, NodeServer> sServers = new ConcurrentHashMap<>();
+    private static final AtomicInteger sNextEphemeralPort = new AtomicInteger(FIRST_EPHEMERAL_PORT);
+
+    // Prevents instantiation
+    private Loopback() {
+        throw new AssertionError("Cannot instantiate object from " + this.getClass());
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @param port zero for any free port.
+     * @return the port the server was bound to.
+     */
+    /* package private */ static int bind(int port, NodeServer server) throws BindException {
+        if (port == 0) {
+            do {
+                port = sNextEphemeralPort.getAndIncrement();
+            } while (sServers.putIfAbsent(port, server) != null);
+            return port;
+        }
+        if (sServers.putIfAbsent(port, server) != null) {
+            throw new BindException("Loopback port " + port + " already in use");
+        }
+        return port;
+    }
+
+    /* package private */ static void unbind(int port) {
+        sServers.remove(port);
+    }
+
+    /**
+     * Connects to the server bound to the port, returning the client end of the connection.
+     */
+    /* package private */ static Transport connect(int port) throws IOException {
+        NodeServer server = sServers.get(port);
+        if (server == null) throw new ConnectException("Nothing bound to loopback port " + port);
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        server.accept(ends[1]);
+        return ends[0];
+    }
+}
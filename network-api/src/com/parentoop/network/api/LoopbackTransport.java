@@ -0,0 +1,206 @@
+package com.parentoop.network.api;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One end of an in-memory connection, see {@link Loopback}. Each direction is a bounded byte queue, bytes written on
+ * one end are read on the other one. Readiness is posted to the loops of the ends as level-triggered events, like a
+ * selector would report them.
+ */
+/* package private */ class LoopbackTransport extends Transport {
+
+    private static final int QUEUE_CAPACITY = 256 * 1024;
+
+    private final ByteQueue mIncoming;
+    private final ByteQueue mOutgoing;
+    private LoopbackTransport mPeer;
+    private volatile boolean mOpen = true;
+
+    private volatile IoLoop mLoop;
+    private volatile Listener mListener;
+    private volatile boolean mReadInterest = false;
+    private volatile boolean mWriteInterest = false;
+    private final AtomicBoolean mReadablePosted = new AtomicBoolean(false);
+    private final AtomicBoolean mWritablePosted = new AtomicBoolean(false);
+
+    private LoopbackTransport(ByteQueue incoming, ByteQueue outgoing) {
+        mIncoming = incoming;
+        mOutgoing = outgoing;
+    }
+
+    /**
+     * Both ends of a new connection.
+     */
+    public static LoopbackTransport[] pair() {
+        ByteQueue forward = new ByteQueue(QUEUE_CAPACITY);
+        ByteQueue backward = new ByteQueue(QUEUE_CAPACITY);
+        LoopbackTransport first = new LoopbackTransport(backward, forward);
+        LoopbackTransport second = new LoopbackTransport(forward, backward);
+        first.mPeer = second;
+        second.mPeer = first;
+        return new LoopbackTransport[] {first, second};
+    }
+
+    @Override
+    public void register(IoLoop loop, Listener listener) {
+        mListener = listener;
+        mLoop = loop;
+    }
+
+    @Override
+    public void setReadInterest(boolean interested) {
+        mReadInterest = interested;
+        postReadable();
+    }
+
+    @Override
+    public void setWriteInterest(boolean interested) {
+        mWriteInterest = interested;
+        postWritable();
+    }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read = mIncoming.read(dst);
+        if (read > 0) mPeer.postWritable();
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = mOutgoing.write(src);
+        if (written > 0) mPeer.postReadable();
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public void close() {
+        mOpen = false;
+        mIncoming.closeReader();
+        mOutgoing.closeWriter();
+        mPeer.postReadable();
+        mPeer.postWritable();
+    }
+
+    /**
+     * Events are always queued, never run inline: the caller may be in the middle of a read or write of its own end.
+     */
+    private void postReadable() {
+        IoLoop loop = mLoop;
+        if (loop == null || !mOpen || !mReadInterest || !mIncoming.isReadable()) return;
+        if (mReadablePosted.compareAndSet(false, true)) loop.post(mReadableTask);
+    }
+
+    private void postWritable() {
+        IoLoop loop = mLoop;
+        if (loop == null || !mOpen || !mWriteInterest || !mOutgoing.isWritable()) return;
+        if (mWritablePosted.compareAndSet(false, true)) loop.post(mWritableTask);
+    }
+
+    private final Runnable mReadableTask = new Runnable() {
+        @Override
+        public void run() {
+            mReadablePosted.set(false);
+            if (!mOpen || !mReadInterest || !mIncoming.isReadable()) return;
+            try {
+                mListener.onReadable();
+            } catch (IOException | RuntimeException ex) {
+                mListener.onError(ex);
+            }
+            postReadable();
+        }
+    };
+
+    private final Runnable mWritableTask = new Runnable() {
+        @Override
+        public void run() {
+            mWritablePosted.set(false);
+            if (!mOpen || !mWriteInterest || !mOutgoing.isWritable()) return;
+            try {
+                mListener.onWritable();
+            } catch (IOException | RuntimeException ex) {
+                mListener.onError(ex);
+            }
+            postWritable();
+        }
+    };
+
+    /**
+     * Bounded byte queue shared by a writing end and a reading end.
+     */
+    private static class ByteQueue {
+
+        private final ByteBuffer mBuffer;
+        private boolean mWriterClosed = false;
+        private boolean mReaderClosed = false;
+
+        private ByteQueue(int capacity) {
+            mBuffer = ByteBuffer.allocate(capacity);
+        }
+
+        public synchronized int write(ByteBuffer src) throws IOException {
+            if (mReaderClosed) throw new IOException("Loopback connection closed by peer");
+            int length = Math.min(src.remaining(), mBuffer.remaining());
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + length);
+            mBuffer.put(slice);
+            src.position(src.position() + length);
+            return length;
+        }
+
+        /**
+         * Returns -1 once the writer closed and everything it wrote was read.
+         */
+        public synchronized int read(ByteBuffer dst) {
+            if (mBuffer.position() == 0) return mWriterClosed ? -1 : 0;
+            mBuffer.flip();
+            int length = Math.min(mBuffer.remaining(), dst.remaining());
+            ByteBuffer slice = mBuffer.duplicate();
+            slice.limit(slice.position() + length);
+            dst.put(slice);
+            mBuffer.position(mBuffer.position() + length);
+            mBuffer.compact();
+            return length;
+        }
+
+        /**
+         * Whether a read would not return 0.
+         */
+        public synchronized boolean isReadable() {
+            return mBuffer.position() > 0 || mWriterClosed;
+        }
+
+        /**
+         * Whether a write would not return 0.
+         */
+        public synchronized boolean isWritable() {
+            return mBuffer.hasRemaining() || mReaderClosed;
+        }
+
+        public synchronized void closeWriter() {
+            mWriterClosed = true;
+        }
+
+        public synchronized void closeReader() {
+            mReaderClosed = true;
+        }
+    }
+}
@@ -4,23 +4,57 @@ import com.parentoop.network.api.messaging.MessageHandler;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class NodeClient extends PeerCommunicator {
 
     private MessageHandler mMessageHandler;
+    private ExecutorService mExecutorService;
 
     public NodeClient(InetAddress address, int port, MessageHandler messageHandler) throws IOException {
-        this(address, port, messageHandler, Executors.newSingleThreadScheduledExecutor());
+        this(NodeId.anonymous(), address, port, messageHandler);
+    }
+
+    public NodeClient(NodeId localNodeId, InetAddress address, int port,
+                      MessageHandler messageHandler) throws IOException {
+        this(localNodeId, address, port, messageHandler, newHandlerExecutor());
     }
 
     public NodeClient(InetAddress address, int port,
                       MessageHandler messageHandler,
-                      ScheduledExecutorService executorService) throws IOException {
-        super(new Socket(address, port), executorService);
+                      ExecutorService executorService) throws IOException {
+        this(NodeId.anonymous(), address, port, messageHandler, executorService);
+    }
+
+    /**
+     * @param localNodeId identity this client introduces itself with to the server.
+     * @param executorService runs the message handler, it's owned by the client and shut down along with it.
+     */
+    public NodeClient(NodeId localNodeId, InetAddress address, int port,
+                      MessageHandler messageHandler,
+                      ExecutorService executorService) throws IOException {
+        super(connect(address, port), localNodeId, executorService);
         mMessageHandler = messageHandler;
+        mExecutorService = executorService;
+        startReading();
+    }
+
+    private static Transport connect(InetAddress address, int port) throws IOException {
+        if (Loopback.isEnabled()) return Loopback.connect(port);
+        return new SocketTransport(SocketChannel.open(new InetSocketAddress(address, port)));
+    }
+
+    private static ExecutorService newHandlerExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // I/O threads are daemons, this one keeps the process alive while the client is connected
+        executor.prestartCoreThread();
+        return executor;
     }
 
     @Override
@@ -29,14 +63,18 @@ public class NodeClient extends PeerCommunicator {
     }
 
     public void shutdown() throws IOException {
-        super.shutdown();
+        try {
+            super.shutdown();
+        } finally {
+            mExecutorService.shutdown();
+        }
     }
 
     public boolean isConnected() {
-        return mSocket.isConnected() && !mSocket.isClosed();
+        return mTransport.isConnected() && mTransport.isOpen();
     }
 
     public boolean isShutdown() {
-        return mSocket.isClosed();
+        return !mTransport.isOpen();
     }
 }
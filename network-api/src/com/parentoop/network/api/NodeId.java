@@ -0,0 +1,86 @@
+package com.parentoop.network.api;
+
+import com.parentoop.network.api.codec.ObjectCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Cluster-unique identity of a node, along with the host and port its server can be reached at. Nodes exchange them
+ * when connecting, so several nodes can share a host. Identity is the id alone.
+ */
+public final class NodeId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String mId;
+    private final String mHost;
+    private final int mPort;
+
+    private NodeId(String id, String host, int port) {
+        mId = id;
+        mHost = host;
+        mPort = port;
+    }
+
+    /**
+     * @param host the advertised host, or null to let peers use the address the node connects from.
+     * @param port the port its server listens on, 0 if it has none.
+     */
+    public static NodeId create(String host, int port) {
+        return new NodeId(UUID.randomUUID().toString(), host, port);
+    }
+
+    public static NodeId anonymous() {
+        return create(null, 0);
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public String getHost() {
+        return mHost;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    public NodeId withHost(String host) {
+        return new NodeId(mId, host, mPort);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        ObjectCodec.writeString(out, mId);
+        out.writeBoolean(mHost != null);
+        if (mHost != null) ObjectCodec.writeString(out, mHost);
+        ObjectCodec.writeVarInt(out, mPort);
+    }
+
+    public static NodeId read(DataInput in) throws IOException {
+        String id = ObjectCodec.readString(in);
+        String host = in.readBoolean() ? ObjectCodec.readString(in) : null;
+        return new NodeId(id, host, ObjectCodec.readVarInt(in));
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof NodeId)) return false;
+        return mId.equals(((NodeId) object).mId);
+    }
+
+    @Override
+    public int hashCode() {
+        return mId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mId.substring(0, 8) + "@" + mHost + ":" + mPort;
+    }
+}
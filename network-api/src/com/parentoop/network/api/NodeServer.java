@@ -3,15 +3,22 @@ package com.parentoop.network.api;
 import com.parentoop.network.api.messaging.MessageHandler;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.ConnectException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class NodeServer {
 
@@ -22,12 +29,23 @@ public class NodeServer {
     private int mConnectionPort;
     private int mBacklog;
 
-    private ServerSocket mServerSocket;
-    private ScheduledExecutorService mExecutorService;
+    private ServerSocketChannel mServerChannel;
+    private int mLoopbackPort = -1;
+    private volatile boolean mStarted = false;
+    private volatile boolean mClosed = false;
+    private IoLoop mAcceptLoop;
+    private ExecutorService mExecutorService;
     private MessageHandler mMessageHandler;
     private ClassLoader mClassLoader = null;
+    private int mMaxBatchSize = 0;
+    private long mLingerNanos = 0;
 
-    private HashMap<InetAddress, PeerCommunicator> mPeerHandlers = new HashMap<>();
+    private NodeId mNodeId = NodeId.anonymous();
+
+    // peers are only listed once they identified themselves, all accepted ones are kept for shutdown
+    private Map<NodeId, PeerCommunicator> mPeerHandlers = new ConcurrentHashMap<>();
+    private Set<PeerCommunicator> mAcceptedPeers = Collections.newSetFromMap(
+            new ConcurrentHashMap<PeerCommunicator, Boolean>());
     private PeerConnetionListener mPeerConnetionListener;
 
     public NodeServer(int connectionPort, MessageHandler messageHandler) {
@@ -44,6 +62,25 @@ public class NodeServer {
         mPeerConnetionListener = peerConnetionListener;
     }
 
+    /**
+     * Identity this server introduces itself with to the peers that connect from now on.
+     */
+    public void setNodeId(NodeId nodeId) {
+        mNodeId = nodeId;
+    }
+
+    public NodeId getNodeId() {
+        return mNodeId;
+    }
+
+    /**
+     * The port the server is bound to, useful when it was created with port 0.
+     */
+    public int getPort() {
+        if (mLoopbackPort >= 0) return mLoopbackPort;
+        return (mServerChannel != null) ? mServerChannel.socket().getLocalPort() : mConnectionPort;
+    }
+
     public void setClassLoader(ClassLoader classLoader) {
         mClassLoader = classLoader;
         for (PeerCommunicator peerHandler : getConnectedPeers()) {
@@ -51,35 +88,98 @@ public class NodeServer {
         }
     }
 
+    /**
+     * Batching for the messages dispatched to connected peers, see {@link PeerCommunicator#setBatching}.
+     */
+    public void setBatching(int maxBatchSize, long linger, TimeUnit unit) throws IOException {
+        mMaxBatchSize = maxBatchSize;
+        mLingerNanos = unit.toNanos(linger);
+        for (PeerCommunicator peerHandler : getConnectedPeers()) {
+            peerHandler.setBatching(mMaxBatchSize, mLingerNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Binds to the port, in memory if {@link Loopback} is enabled.
+     */
     public void startServer() throws IOException {
-        if (mServerSocket != null) throw new IllegalStateException("Server already started");
+        if (mStarted) throw new IllegalStateException("Server already started");
 
-        mServerSocket = new ServerSocket(mConnectionPort, mBacklog);
-        mExecutorService = Executors.newScheduledThreadPool(THREAD_POOL_SIZE);
-        mExecutorService.submit(new ListeningRunnable());
+        if (Loopback.isEnabled()) {
+            mExecutorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+            mLoopbackPort = Loopback.bind(mConnectionPort, this);
+            mStarted = true;
+            return;
+        }
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(mConnectionPort), mBacklog);
+        } catch (IOException ex) {
+            serverChannel.close();
+            throw ex;
+        }
+        mServerChannel = serverChannel;
+        mExecutorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        mAcceptLoop = IoReactor.getDefault().nextLoop();
+        mAcceptLoop.register(mServerChannel, SelectionKey.OP_ACCEPT, new AcceptHandler());
+        mStarted = true;
     }
 
     public void shutdown() throws IOException {
-        if (mServerSocket == null) throw new IllegalStateException("Attempting shutdown on non started server");
+        if (!mStarted) throw new IllegalStateException("Attempting shutdown on non started server");
 
-        for (PeerCommunicator peerHandler : getConnectedPeers()) {
+        if (mLoopbackPort >= 0) Loopback.unbind(mLoopbackPort);
+        mClosed = true;
+        for (PeerCommunicator peerHandler : mAcceptedPeers) {
             peerHandler.shutdown();
         }
         mExecutorService.shutdownNow();
-        mServerSocket.close();
+        if (mAcceptLoop == null) return;
+        mAcceptLoop.executeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                closeServerChannel();
+            }
+        });
+    }
+
+    private void closeServerChannel() {
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            // we are shutting down anyway, eat
+        }
+    }
+
+    private void notifyListener(Runnable notification) {
+        if (mPeerConnetionListener == null) return;
+        try {
+            mExecutorService.execute(notification);
+        } catch (RejectedExecutionException ex) {
+            // server is shutting down, nobody cares anymore
+        }
     }
 
     public void broadcastMessage(Message message) throws IOException {
         broadcastMessage(message, getConnectedPeers());
     }
 
+    /**
+     * Encodes the message once and writes it to every peer concurrently, returning once all writes completed.
+     */
     public void broadcastMessage(Message message, Collection<PeerCommunicator> peers) throws IOException {
         Collection<PeerCommunicator> connectedPeers = getConnectedPeers();
-        IOException thrownException = null;
+        EncodedMessage encodedMessage = EncodedMessage.encode(message);
+        List<DispatchFuture> futures = new ArrayList<>(peers.size());
         for (PeerCommunicator peerHandler : peers) {
             if (!connectedPeers.contains(peerHandler)) continue;
+            futures.add(peerHandler.dispatchEncoded(encodedMessage));
+        }
+        IOException thrownException = null;
+        for (DispatchFuture future : futures) {
             try {
-                peerHandler.dispatchMessage(message);
+                future.await();
             } catch (IOException ex) {
                 thrownException = ex;
             }
@@ -91,46 +191,57 @@ public class NodeServer {
         return Collections.unmodifiableCollection(mPeerHandlers.values());
     }
 
+    public PeerCommunicator getPeer(NodeId nodeId) {
+        return mPeerHandlers.get(nodeId);
+    }
+
     public boolean isStarted() {
-        return mServerSocket != null;
+        return mStarted;
     }
 
     public boolean isRunning() {
-        return isStarted() && !mServerSocket.isClosed();
+        return isStarted() && !mClosed;
     }
 
     public boolean isShutdown() {
-        return isStarted() && mServerSocket.isClosed();
+        return isStarted() && mClosed;
     }
 
-    private class ListeningRunnable implements Runnable {
+    /**
+     * Takes over a new connection.
+     */
+    /* package private */ void accept(Transport transport) throws IOException {
+        if (mClosed) {
+            transport.close();
+            throw new ConnectException("Server shut down");
+        }
+        PeerHandler peerHandler = new PeerHandler(transport);
+        peerHandler.setClassLoader(mClassLoader);
+        peerHandler.setBatching(mMaxBatchSize, mLingerNanos, TimeUnit.NANOSECONDS);
+        mAcceptedPeers.add(peerHandler);
+        peerHandler.startReading();
+    }
+
+    private class AcceptHandler implements IoLoop.IoHandler {
 
         @Override
-        public void run() {
-            while (!Thread.interrupted() && !mServerSocket.isClosed()) {
-                try {
-                    Socket socket = mServerSocket.accept();
-                    PeerHandler peerHandler = new PeerHandler(socket);
-                    peerHandler.setClassLoader(mClassLoader);
-                    mPeerHandlers.put(socket.getInetAddress(), peerHandler);
-                    if (mPeerConnetionListener != null) mPeerConnetionListener.onPeerConnected(peerHandler);
-                } catch (SocketException ex) {
-                    String excMessage = ex.getMessage();
-                    if (excMessage == null) excMessage = "";
-                    if (mServerSocket.isClosed() || excMessage.contains("closed")) {
-                        try {
-                            shutdown();
-                        } catch (IOException e) {
-                            // we are shutting down anyway, eat
-                        }
-                    } else {
-                        ex.printStackTrace();
-                    }
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+        public void onRegistered(SelectionKey key) {
+            /* No-op */
+        }
+
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            SocketChannel channel;
+            while ((channel = mServerChannel.accept()) != null) {
+                accept(new SocketTransport(channel));
             }
         }
+
+        @Override
+        public void onError(Exception ex) {
+            if (!mServerChannel.isOpen()) return;
+            ex.printStackTrace();
+        }
     }
 
     /**
@@ -138,16 +249,39 @@ public class NodeServer {
      */
     private class PeerHandler extends PeerCommunicator {
 
-        public PeerHandler(Socket socket) throws IOException {
-            super(socket, mExecutorService);
+        public PeerHandler(Transport transport) throws IOException {
+            super(transport, mNodeId, mExecutorService);
+        }
+
+        @Override
+        protected void onHandshake(NodeId nodeId) {
+            mPeerHandlers.put(nodeId, this);
+            // lost a race with shutdown, which would not find it in the map
+            if (!mAcceptedPeers.contains(this)) {
+                mPeerHandlers.values().remove(this);
+                return;
+            }
+            notifyListener(new Runnable() {
+                @Override
+                public void run() {
+                    mPeerConnetionListener.onPeerConnected(PeerHandler.this);
+                }
+            });
         }
 
         protected void shutdown() throws IOException {
             try {
                 super.shutdown();
             } finally {
-                mPeerHandlers.values().remove(this);
-                if (mPeerConnetionListener != null) mPeerConnetionListener.onPeerDisconnected(this);
+                mAcceptedPeers.remove(this);
+                if (mPeerHandlers.values().remove(this)) {
+                    notifyListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            mPeerConnetionListener.onPeerDisconnected(PeerHandler.this);
+                        }
+                    });
+                }
             }
         }
 
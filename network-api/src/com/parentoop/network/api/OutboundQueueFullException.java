@@ -0,0 +1,16 @@
+package com.parentoop.network.api;
+
+import java.io.IOException;
+
+/**
+ * Fails asynchronous dispatches while too many bytes are waiting to be written to the peer, see
+ * {@link PeerCommunicator#whenWritable}.
+ */
+public class OutboundQueueFullException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public OutboundQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -1,40 +1,136 @@
 package com.parentoop.network.api;
 
+import com.parentoop.network.api.FileTransferHelper.FileReceiver;
+import com.parentoop.network.api.FileTransferHelper.FileSender;
+import com.parentoop.network.api.codec.FrameInput;
+import com.parentoop.network.api.codec.FrameOutput;
+import com.parentoop.network.api.codec.MessageCodecs;
+
 import java.io.*;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Message-oriented connection to a remote node, over TCP or {@link Loopback in-process}. The connection is served by
+ * the shared {@link IoReactor}: frames are read
+ * as soon as they arrive and handed to {@link #handleMessage} on the handler executor, in arrival order. Writes are
+ * queued and performed by the loop thread, {@link #dispatchMessage} returns once the message hit the socket, unless
+ * {@link #setBatching batching} is on.
+ *
+ * Messages are dispatched on {@link MessageStream logical streams}, each with its own write queue. The loop thread
+ * writes one frame of each stream with pending writes in turn, so a long stream (or a large file, sent in chunks) does
+ * not hold back the others. Order is kept within a stream only.
+ *
+ * Frame layout: {@code [int length][byte header][int code][payload]}, where length counts the bytes after itself. The
+ * payload is encoded by the {@link MessageCodecs codec registered} for the message code. Batch frames are
+ * {@code [int length][byte header]} followed by message frames. File frames carry the stream id and the file size as
+ * payload, the file follows in chunk frames {@code [int length][byte header][int stream id][bytes]}. Each side starts
+ * with a hello frame carrying its {@link NodeId}.
+ */
 public abstract class PeerCommunicator {
 
     public static final byte MESSAGE_HEADER = 3;
     public static final byte FILE_HEADER = 4;
+    public static final byte BATCH_HEADER = 5;
+    public static final byte FILE_CHUNK_HEADER = 6;
+    public static final byte HELLO_HEADER = 7;
     public static final byte DISCONNECT_HEADER = 127;
-    private final ScheduledExecutorService mExecutorService;
 
-    protected Socket mSocket;
-    private ObjectInputStream mInputStream;
-    private ObjectOutputStream mOutputStream;
-    private ClassLoader mClassLoader = ClassLoader.getSystemClassLoader();
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int FILE_CHUNK_SIZE = 64 * 1024;
+    private static final int FRAME_PREFIX_SIZE = 4 + 1 + 4;
+    private static final int BATCH_PREFIX_SIZE = 4 + 1;
+    private static final int FILE_CHUNK_PREFIX_SIZE = 4 + 1 + 4;
+    private static final int DEFAULT_STREAM_ID = 0;
+    private static final long DEFAULT_MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+    private static final ThreadLocal<FrameOutput> sFrameOutput = new ThreadLocal<FrameOutput>() {
+        @Override
+        protected FrameOutput initialValue() {
+            return new FrameOutput(256);
+        }
+    };
 
-    private Future<?> mReadTaskFuture;
+    /* package private */ final Transport mTransport;
+    private final IoLoop mLoop;
+    private final Executor mHandlerExecutor;
+    private volatile ClassLoader mClassLoader = ClassLoader.getSystemClassLoader();
+    private final NodeId mLocalNodeId;
+    private volatile NodeId mNodeId;
 
-    public PeerCommunicator(Socket socket, ScheduledExecutorService executorService) throws IOException {
-        mSocket = socket;
-        mOutputStream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-        mOutputStream.flush();
-        mInputStream = new CustomObjectInputStream(new BufferedInputStream(socket.getInputStream()));
-        mExecutorService = executorService;
+    private final Map<Integer, MessageStream> mStreams = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextStreamId = new AtomicInteger(DEFAULT_STREAM_ID);
+    private final MessageStream mDefaultStream;
+    private final Queue<MessageStream> mReadyStreams = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean mShutdown = new AtomicBoolean(false);
+    private volatile int mMaxBatchSize = 0;
+    private volatile long mLingerNanos = 0;
+    private final AtomicLong mQueuedBytes = new AtomicLong(0);
+    private volatile long mMaxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private final Queue<DispatchFuture> mWritabilityWaiters = new ConcurrentLinkedQueue<>();
+
+    // Only touched by the loop thread
+    private final Queue<MessageStream> mActiveStreams = new ArrayDeque<>();
+    private ByteBuffer mReadBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final Map<Integer, IncomingFile> mIncomingFiles = new HashMap<>();
+    private IncomingFile mChunkFile;
+    private long mChunkRemaining = 0;
+    private final FrameInput mFrameInput = new FrameInput();
+
+    /* package private */ PeerCommunicator(Transport transport, NodeId localNodeId,
+                                           Executor handlerExecutor) throws IOException {
+        mTransport = transport;
+        mLocalNodeId = localNodeId;
+        mHandlerExecutor = new SerialExecutor(handlerExecutor);
+        mDefaultStream = openStream();
+        mLoop = IoReactor.getDefault().nextLoop();
+        transport.register(mLoop, new TransportListener());
+        FrameOutput hello = new FrameOutput(64);
+        hello.skip(BATCH_PREFIX_SIZE);
+        localNodeId.write(hello);
+        hello.setInt(0, hello.size() - 4);
+        hello.setByte(4, HELLO_HEADER);
+        enqueue(mDefaultStream, new BufferWrite(hello.asByteBuffer(), new DispatchFuture()));
+    }
 
-        mReadTaskFuture = executorService.scheduleWithFixedDelay(new ReadRunnable(), 0, 100, TimeUnit.NANOSECONDS);
+    /**
+     * Starts delivering incoming messages. Subclasses call it once they are ready to handle them.
+     */
+    protected void startReading() {
+        mLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mTransport.setReadInterest(true);
+            }
+        });
     }
 
     public InetAddress getAddress() {
-        return mSocket.getInetAddress();
+        return mTransport.getRemoteAddress();
+    }
+
+    /**
+     * Identity of the remote node, null until its hello frame arrives.
+     */
+    public NodeId getNodeId() {
+        return mNodeId;
+    }
+
+    public NodeId getLocalNodeId() {
+        return mLocalNodeId;
     }
 
     public void setClassLoader(ClassLoader classLoader) {
@@ -45,49 +141,351 @@ public abstract class PeerCommunicator {
         }
     }
 
-    public synchronized void dispatchMessage(Message message) throws IOException {
-        Object data = message.getData();
-        if (data instanceof Path) {
-            mOutputStream.writeByte(FILE_HEADER);
-            mOutputStream.writeInt(message.getCode());
-            FileTransferHelper.sendFile((Path) data, mOutputStream);
-        } else if (data == null || data instanceof Serializable) {
-            mOutputStream.writeByte(MESSAGE_HEADER);
-            mOutputStream.writeInt(message.getCode());
-            mOutputStream.writeObject(message.getData());
+    /**
+     * Opens a new logical stream on this connection, with the connection's current batching settings. Streams should
+     * be {@link MessageStream#close closed} once done.
+     */
+    public MessageStream openStream() throws ClosedChannelException {
+        if (mShutdown.get()) throw new ClosedChannelException();
+        MessageStream stream = new MessageStream(mNextStreamId.getAndIncrement());
+        stream.setBatchingSettings(mMaxBatchSize, mLingerNanos);
+        mStreams.put(stream.mId, stream);
+        return stream;
+    }
+
+    /**
+     * Packs messages into batch frames instead of writing them one by one, see {@link MessageStream#setBatching}.
+     * Applies to the streams already open and to those opened afterwards.
+     *
+     * @param maxBatchSize in bytes, zero disables batching.
+     */
+    public void setBatching(int maxBatchSize, long linger, TimeUnit unit) throws IOException {
+        mMaxBatchSize = maxBatchSize;
+        mLingerNanos = unit.toNanos(linger);
+        for (MessageStream stream : mStreams.values()) {
+            stream.setBatching(maxBatchSize, linger, unit);
         }
-        mOutputStream.flush();
+    }
+
+    /**
+     * Flushes the default stream, see {@link MessageStream#flush}.
+     */
+    public void flush() throws IOException {
+        mDefaultStream.flush();
+    }
+
+    /**
+     * Dispatches the message on the default stream, see {@link MessageStream#dispatchMessage}.
+     */
+    public void dispatchMessage(Message message) throws IOException {
+        mDefaultStream.dispatchMessage(message);
+    }
+
+    /**
+     * Dispatches the message on the default stream without waiting, see {@link MessageStream#dispatchAsync}.
+     */
+    public DispatchFuture dispatchAsync(Message message) {
+        return mDefaultStream.dispatchAsync(message);
+    }
+
+    /**
+     * Dispatches the pre-encoded message on the default stream, see {@link MessageStream#dispatchEncoded}.
+     */
+    public DispatchFuture dispatchEncoded(EncodedMessage message) {
+        return mDefaultStream.dispatchEncoded(message);
+    }
+
+    /**
+     * Bounds the bytes waiting to be written to the peer across all streams, past which {@link #dispatchAsync} fails
+     * with {@link OutboundQueueFullException}. Blocking dispatches are not refused, they wait for their own writes.
+     */
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        mMaxQueuedBytes = maxQueuedBytes;
+        if (mQueuedBytes.get() < maxQueuedBytes / 2) releaseWritabilityWaiters(null);
+    }
+
+    /**
+     * Whether asynchronous dispatches are accepted right now.
+     */
+    public boolean isWritable() {
+        return mQueuedBytes.get() < mMaxQueuedBytes;
+    }
+
+    /**
+     * Completes once the outbound queue drained to half its bound, right away if dispatches are accepted now. Fails
+     * if the connection closes first.
+     */
+    public DispatchFuture whenWritable() {
+        if (isWritable()) return DispatchFuture.completed(null);
+        DispatchFuture future = new DispatchFuture();
+        mWritabilityWaiters.add(future);
+        // the queue may have drained before we were added
+        if (mShutdown.get()) {
+            releaseWritabilityWaiters(new ClosedChannelException());
+        } else if (mQueuedBytes.get() < mMaxQueuedBytes / 2) {
+            releaseWritabilityWaiters(null);
+        }
+        return future;
+    }
+
+    private void releaseWritabilityWaiters(IOException failure) {
+        DispatchFuture waiter;
+        while ((waiter = mWritabilityWaiters.poll()) != null) waiter.complete(failure);
+    }
+
+    /**
+     * Encodes the message frame into the calling thread's scratch output, valid until its next call.
+     */
+    /* package private */ static FrameOutput encode(Message message) throws IOException {
+        FrameOutput frame = sFrameOutput.get();
+        frame.reset();
+        frame.skip(FRAME_PREFIX_SIZE);
+        MessageCodecs.getCodec(message.getCode()).encode(message.getData(), frame);
+        frame.setInt(0, frame.size() - 4);
+        frame.setByte(4, MESSAGE_HEADER);
+        frame.setInt(5, message.getCode());
+        return frame;
+    }
+
+    private void enqueue(MessageStream stream, PendingWrite write) throws ClosedChannelException {
+        if (mShutdown.get()) {
+            write.release();
+            throw new ClosedChannelException();
+        }
+        // if we lose a race with shutdown, the flush task fails the write
+        mQueuedBytes.addAndGet(write.getQueuedBytes());
+        stream.mPendingWrites.add(write);
+        if (stream.mReady.compareAndSet(false, true)) mReadyStreams.add(stream);
+        if (mFlushScheduled.compareAndSet(false, true)) mLoop.execute(mFlushTask);
+    }
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled.set(false);
+            try {
+                flushPendingWrites();
+            } catch (IOException ex) {
+                onConnectionError(ex);
+            }
+        }
+    };
+
+    // Loop thread only
+    private void flushPendingWrites() throws IOException {
+        if (!mTransport.isOpen()) {
+            failPendingWrites(new ClosedChannelException());
+            return;
+        }
+        MessageStream stream;
+        while ((stream = mReadyStreams.poll()) != null) {
+            stream.mReady.set(false);
+            if (!stream.mActive) {
+                stream.mActive = true;
+                mActiveStreams.add(stream);
+            }
+        }
+        // Round robin, one frame per stream. A frame is never interrupted by another stream's
+        while ((stream = mActiveStreams.peek()) != null) {
+            PendingWrite write = stream.mPendingWrites.peek();
+            if (write == null) {
+                mActiveStreams.poll();
+                stream.mActive = false;
+                continue;
+            }
+            if (!write.writeTo(mTransport)) {
+                mTransport.setWriteInterest(true);
+                return;
+            }
+            if (write.isDone()) {
+                stream.mPendingWrites.poll();
+                completeWrite(write, null);
+            }
+            mActiveStreams.add(mActiveStreams.poll());
+        }
+        mTransport.setWriteInterest(false);
+    }
+
+    // Loop thread only
+    private void failPendingWrites(IOException cause) {
+        List<MessageStream> streams = new ArrayList<>(mStreams.values());
+        streams.addAll(mActiveStreams);
+        streams.addAll(mReadyStreams);
+        mActiveStreams.clear();
+        mReadyStreams.clear();
+        for (MessageStream stream : streams) {
+            PendingWrite write;
+            while ((write = stream.mPendingWrites.poll()) != null) completeWrite(write, cause);
+            stream.mActive = false;
+            stream.mReady.set(false);
+        }
+    }
+
+    // Loop thread only
+    private void completeWrite(PendingWrite write, IOException failure) {
+        long queuedBytes = mQueuedBytes.addAndGet(-write.getQueuedBytes());
+        write.complete(failure);
+        if (queuedBytes < mMaxQueuedBytes / 2 && !mWritabilityWaiters.isEmpty()) releaseWritabilityWaiters(null);
+    }
+
+    private boolean hasPendingWrites() {
+        for (MessageStream stream : mStreams.values()) {
+            if (!stream.mPendingWrites.isEmpty()) return true;
+        }
+        return !mActiveStreams.isEmpty() || !mReadyStreams.isEmpty();
     }
 
     protected void shutdown() throws IOException {
-        mReadTaskFuture.cancel(true);
-        // try with resources just for automatic closing
-        try (InputStream is = mInputStream;
-             OutputStream os = mOutputStream;
-             Socket socket = mSocket) {
-            os.write(DISCONNECT_HEADER);
-            os.flush();
-            mExecutorService.shutdownNow();
+        for (MessageStream stream : mStreams.values()) {
+            synchronized (stream.mBatchLock) {
+                stream.sealBatch();
+            }
+        }
+        if (!mShutdown.compareAndSet(false, true)) return;
+        mLoop.executeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                closeChannel(true, new ClosedChannelException());
+            }
+        });
+    }
+
+    // Loop thread only
+    private void closeChannel(boolean notifyPeer, IOException cause) {
+        mShutdown.set(true);
+        if (notifyPeer && mTransport.isOpen()) {
+            try {
+                flushPendingWrites();
+                // a frame cut in half would be garbage to the peer, it will see the end of stream instead
+                if (!hasPendingWrites()) {
+                    ByteBuffer disconnect = ByteBuffer.allocate(5);
+                    disconnect.putInt(1).put(DISCONNECT_HEADER).flip();
+                    mTransport.write(disconnect);
+                }
+            } catch (IOException ex) {
+                // eat exception, we are closing anyway
+            }
+        }
+        try {
+            mTransport.close();
         } catch (IOException ex) {
             // eat exception, we are closing anyway
         }
+        failPendingWrites(cause);
+        releaseWritabilityWaiters(cause);
+        for (IncomingFile file : mIncomingFiles.values()) file.mReceiver.close();
+        mIncomingFiles.clear();
+    }
+
+    // Loop thread only
+    private void onReadable() throws IOException {
+        if (mChunkRemaining > 0 && mChunkFile != null && mReadBuffer.position() == 0) {
+            long transferred = mChunkFile.mReceiver.receive(mTransport, mChunkRemaining);
+            if (transferred > 0) {
+                // nothing buffered, chunk bytes went from the socket to the file directly
+                mChunkRemaining -= transferred;
+                if (mChunkRemaining == 0) endChunk();
+                return;
+            }
+        }
+        int read = mTransport.read(mReadBuffer);
+        if (read == -1) {
+            shutdown();
+            return;
+        }
+        mReadBuffer.flip();
+        int requiredCapacity = processInput();
+        if (mShutdown.get()) return;
+        if (requiredCapacity > mReadBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(requiredCapacity);
+            larger.put(mReadBuffer);
+            mReadBuffer = larger;
+        } else if (!mReadBuffer.hasRemaining() && mReadBuffer.capacity() > READ_BUFFER_SIZE) {
+            mReadBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        } else {
+            mReadBuffer.compact();
+        }
+    }
+
+    /**
+     * Consumes every complete frame in the read buffer and returns the size the buffer needs to hold the next one.
+     * File chunks are the exception, they are streamed to the file as they arrive.
+     */
+    private int processInput() throws IOException {
+        while (!mShutdown.get()) {
+            if (mChunkRemaining > 0) {
+                int consumed;
+                if (mChunkFile != null) {
+                    consumed = mChunkFile.mReceiver.receive(mReadBuffer, mChunkRemaining);
+                } else {
+                    consumed = (int) Math.min(mReadBuffer.remaining(), mChunkRemaining);
+                    mReadBuffer.position(mReadBuffer.position() + consumed);
+                }
+                mChunkRemaining -= consumed;
+                if (mChunkRemaining > 0) return 0;
+                endChunk();
+                continue;
+            }
+            if (mReadBuffer.remaining() < 5) return 0;
+            int frameStart = mReadBuffer.position();
+            int frameSize = 4 + mReadBuffer.getInt(frameStart);
+            if (mReadBuffer.get(frameStart + 4) == FILE_CHUNK_HEADER) {
+                if (mReadBuffer.remaining() < FILE_CHUNK_PREFIX_SIZE) return 0;
+                mReadBuffer.position(frameStart + 5);
+                mChunkFile = mIncomingFiles.get(mReadBuffer.getInt());
+                mChunkRemaining = frameSize - FILE_CHUNK_PREFIX_SIZE;
+                continue;
+            }
+            if (mReadBuffer.remaining() < frameSize) return frameSize;
+            int frameEnd = frameStart + frameSize;
+            mReadBuffer.getInt();
+            readFrame(frameEnd);
+            mReadBuffer.position(frameEnd);
+        }
+        return 0;
     }
 
-    private void readMessage() throws IOException, ClassNotFoundException {
-        byte header = mInputStream.readByte();
-        Message message;
+    private void readFrame(int frameEnd) throws IOException {
+        byte header = mReadBuffer.get();
         switch (header) {
             case MESSAGE_HEADER:
-                message = new Message(mInputStream.readInt(), mInputStream.readObject());
-                handleMessage(message);
+                int code = mReadBuffer.getInt();
+                Object data;
+                try {
+                    data = MessageCodecs.getCodec(code).decode(mFrameInput.reset(mReadBuffer, frameEnd), mClassLoader);
+                } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+                    // the frame is skipped as a whole, the stream stays in sync
+                    ex.printStackTrace();
+                    break;
+                }
+                deliver(new Message(code, data));
                 break;
             case FILE_HEADER:
-                int messageType = mInputStream.readInt();
-                Path fileRead = Files.createTempFile("parentoop", ".tempfile");
-                fileRead.toFile().deleteOnExit();
-                FileTransferHelper.receiveFile(fileRead, mInputStream);
-                message = new Message(messageType, fileRead);
-                handleMessage(message);
+                IncomingFile file = new IncomingFile(mReadBuffer.getInt(), mReadBuffer.getInt(), mReadBuffer.getLong());
+                if (file.mReceiver.isComplete()) {
+                    deliverIncomingFile(file);
+                } else {
+                    mIncomingFiles.put(file.mStreamId, file);
+                }
+                break;
+            case BATCH_HEADER:
+                while (mReadBuffer.position() < frameEnd) {
+                    int messageEnd = mReadBuffer.position() + 4 + mReadBuffer.getInt();
+                    readFrame(messageEnd);
+                    mReadBuffer.position(messageEnd);
+                }
+                break;
+            case HELLO_HEADER:
+                NodeId nodeId = NodeId.read(mFrameInput.reset(mReadBuffer, frameEnd));
+                if (nodeId.getHost() == null) nodeId = nodeId.withHost(getAddress().getHostAddress());
+                mNodeId = nodeId;
+                final NodeId remoteNodeId = nodeId;
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onHandshake(remoteNodeId);
+                    }
+                });
                 break;
             case DISCONNECT_HEADER:
                 shutdown();
@@ -95,51 +493,414 @@ public abstract class PeerCommunicator {
         }
     }
 
+    private void endChunk() {
+        if (mChunkFile != null && mChunkFile.mReceiver.isComplete()) {
+            mIncomingFiles.remove(mChunkFile.mStreamId);
+            deliverIncomingFile(mChunkFile);
+        }
+        mChunkFile = null;
+    }
+
+    private void deliverIncomingFile(IncomingFile file) {
+        file.mReceiver.close();
+        deliver(new Message(file.mCode, file.mReceiver.getPath()));
+    }
+
+    private void deliver(final Message message) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                handleMessage(message);
+            }
+        });
+    }
+
+    private void execute(final Runnable task) {
+        try {
+            mHandlerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // handler executor is gone, so is whoever would handle the message
+        }
+    }
+
+    /**
+     * Called on the handler executor once the remote node identified itself, before any of its messages is handled.
+     */
+    protected void onHandshake(NodeId nodeId) {
+        /* No-op */
+    }
+
     protected abstract void handleMessage(Message message);
 
-    private class ReadRunnable implements Runnable {
+    private class TransportListener implements Transport.Listener {
 
         @Override
-        public void run() {
+        public void onReadable() throws IOException {
+            PeerCommunicator.this.onReadable();
+        }
+
+        @Override
+        public void onWritable() throws IOException {
+            flushPendingWrites();
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            onConnectionError(ex);
+        }
+    }
+
+    // Loop thread only
+    private void onConnectionError(Exception ex) {
+        String excMessage = ex.getMessage();
+        if (excMessage == null) excMessage = "";
+        if (!mShutdown.get() && !excMessage.contains("closed") && !excMessage.contains("reset")) {
+            ex.printStackTrace();
+        }
+        closeChannel(false, (ex instanceof IOException) ? (IOException) ex : new IOException(ex));
+        try {
+            // already closed, but lets subclasses clean up
+            shutdown();
+        } catch (IOException e) {
+            // connection is gone anyway, eat
+        }
+    }
+
+    /**
+     * Logical stream of messages over the connection. Messages of a stream are written in order, interleaved frame by
+     * frame with those of the other streams.
+     */
+    public class MessageStream {
+
+        private final int mId;
+        private final Queue<PendingWrite> mPendingWrites = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean mReady = new AtomicBoolean(false);
+        private boolean mActive = false; // Loop thread only
+
+        // Guards the batch and the order in which writes are enqueued
+        private final Object mBatchLock = new Object();
+        private int mMaxBatchSize = 0;
+        private long mLingerNanos;
+        private FrameOutput mBatch;
+        private DispatchFuture mBatchFuture;
+
+        private MessageStream(int id) {
+            mId = id;
+        }
+
+        /**
+         * Packs messages into batch frames instead of writing them one by one. A batch is sent once it holds
+         * {@code maxBatchSize} bytes, {@code linger} after its first message, or on {@link #flush}. While batching,
+         * {@link #dispatchMessage} returns as soon as the message is buffered, or once the batch is written if the
+         * message filled it. Files are never batched, they are sent right after the batch in progress.
+         *
+         * @param maxBatchSize in bytes, zero disables batching.
+         */
+        public void setBatching(int maxBatchSize, long linger, TimeUnit unit) throws IOException {
+            PendingWrite write = setBatchingSettings(maxBatchSize, unit.toNanos(linger));
+            if (write != null) write.await();
+        }
+
+        private PendingWrite setBatchingSettings(int maxBatchSize, long lingerNanos) {
+            synchronized (mBatchLock) {
+                PendingWrite write = sealBatch();
+                mMaxBatchSize = maxBatchSize;
+                mLingerNanos = lingerNanos;
+                return write;
+            }
+        }
+
+        /**
+         * Sends the batch in progress, if any, and waits until every message dispatched so far on this stream hit the
+         * socket. Meant for stream boundaries while batching, a no-op otherwise.
+         */
+        public void flush() throws IOException {
+            PendingWrite marker = new BufferWrite(ByteBuffer.allocate(0), new DispatchFuture());
+            synchronized (mBatchLock) {
+                sealBatch();
+                enqueue(this, marker);
+            }
+            marker.await();
+        }
+
+        public void dispatchMessage(Message message) throws IOException {
+            DispatchFuture future;
+            if (message.getData() instanceof Path) {
+                future = enqueueFile(message);
+            } else {
+                FrameOutput frame = encode(message);
+                synchronized (mBatchLock) {
+                    future = enqueueFrame(frame);
+                    // the message waits in the batch in progress
+                    if (mBatch != null) return;
+                }
+            }
+            future.await();
+        }
+
+        /**
+         * Dispatches the message without waiting for it to be written. While batching, the future completes along
+         * with the batch the message lands in. Fails right away with {@link OutboundQueueFullException} while the
+         * connection is not {@link #isWritable writable}.
+         */
+        public DispatchFuture dispatchAsync(Message message) {
+            if (!isWritable()) {
+                return DispatchFuture.completed(new OutboundQueueFullException(
+                        mQueuedBytes.get() + " bytes already queued to " + getAddress()));
+            }
             try {
-                if (mSocket.isClosed() || mSocket.isInputShutdown() || mSocket.isOutputShutdown()) {
-                    shutdown();
-                    return;
+                if (message.getData() instanceof Path) return enqueueFile(message);
+                FrameOutput frame = encode(message);
+                synchronized (mBatchLock) {
+                    return enqueueFrame(frame);
                 }
-                try {
-                    if (mInputStream.available() == 0) return;
-                    readMessage();
-                } catch (EOFException ex) {
-                    // end of stream, shutdown
-                    shutdown();
-                } catch (IOException ex) {
-                    String excMessage = ex.getMessage();
-                    if (excMessage == null) excMessage = "";
-                    if (mSocket.isClosed() || excMessage.contains("closed")) {
-                        shutdown();
-                    } else {
-                        throw ex;
-                    }
+            } catch (IOException ex) {
+                return DispatchFuture.completed(ex);
+            }
+        }
+
+        /**
+         * Dispatches a message encoded once for many peers without waiting for it to be written. It's never batched
+         * nor refused when the connection is not {@link #isWritable writable}, it was already paid for.
+         */
+        public DispatchFuture dispatchEncoded(EncodedMessage message) {
+            try {
+                PendingWrite write;
+                if (message.isFile()) {
+                    write = encodeFile(message.getCode(), message.newFileSender());
+                } else {
+                    write = new BufferWrite(message.newFrame(), new DispatchFuture());
                 }
-            } catch (IOException | ClassNotFoundException ex) {
-                ex.printStackTrace();
+                return enqueueUnbatched(write);
+            } catch (IOException ex) {
+                return DispatchFuture.completed(ex);
+            }
+        }
+
+        private DispatchFuture enqueueFile(Message message) throws IOException {
+            return enqueueUnbatched(encodeFile(message.getCode(), new FileSender(message.<Path>getData())));
+        }
+
+        /**
+         * Enqueues the write right after the batch in progress.
+         */
+        private DispatchFuture enqueueUnbatched(PendingWrite write) throws IOException {
+            synchronized (mBatchLock) {
+                sealBatch();
+                enqueue(this, write);
             }
+            return write.mFuture;
+        }
+
+        /**
+         * Holds mBatchLock.
+         */
+        private DispatchFuture enqueueFrame(FrameOutput frame) throws IOException {
+            if (mMaxBatchSize > 0) return addToBatch(frame);
+            PendingWrite write = new BufferWrite(frame.toByteBuffer(), new DispatchFuture());
+            enqueue(this, write);
+            return write.mFuture;
+        }
+
+        /**
+         * Sends the batch in progress and releases the stream. Writes already dispatched still go out.
+         */
+        public void close() {
+            synchronized (mBatchLock) {
+                sealBatch();
+            }
+            if (this != mDefaultStream) mStreams.remove(mId);
+        }
+
+        private PendingWrite encodeFile(int code, FileSender sender) {
+            ByteBuffer header = ByteBuffer.allocate(FRAME_PREFIX_SIZE + 4 + 8);
+            header.putInt(header.capacity() - 4).put(FILE_HEADER).putInt(code);
+            header.putInt(mId).putLong(sender.getSize()).flip();
+            return new FileWrite(header, sender, mId, new DispatchFuture());
+        }
+
+        /**
+         * Appends the frame to the batch in progress, sealing it if the frame filled it, and returns the batch's future.
+         * Holds mBatchLock.
+         */
+        private DispatchFuture addToBatch(FrameOutput frame) throws IOException {
+            if (mBatch == null) {
+                final FrameOutput batch = new FrameOutput(Math.max(mMaxBatchSize, frame.size()) + BATCH_PREFIX_SIZE);
+                batch.skip(BATCH_PREFIX_SIZE);
+                mBatch = batch;
+                mBatchFuture = new DispatchFuture();
+                mLoop.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mBatchLock) {
+                            if (mBatch == batch) sealBatch();
+                        }
+                    }
+                }, mLingerNanos, TimeUnit.NANOSECONDS);
+            }
+            frame.writeTo(mBatch);
+            DispatchFuture future = mBatchFuture;
+            if (mBatch.size() >= mMaxBatchSize) sealBatch();
+            return future;
+        }
+
+        /**
+         * Enqueues the batch in progress, if any, and returns its write. Holds mBatchLock.
+         */
+        private PendingWrite sealBatch() {
+            if (mBatch == null) return null;
+            mBatch.setInt(0, mBatch.size() - 4);
+            mBatch.setByte(4, BATCH_HEADER);
+            PendingWrite write = new BufferWrite(mBatch.asByteBuffer(), mBatchFuture);
+            mBatch = null;
+            mBatchFuture = null;
+            try {
+                enqueue(this, write);
+            } catch (ClosedChannelException ex) {
+                write.complete(ex);
+            }
+            return write;
+        }
+    }
+
+    private static class IncomingFile {
+
+        private final int mCode;
+        private final int mStreamId;
+        private final FileReceiver mReceiver;
+
+        private IncomingFile(int code, int streamId, long size) throws IOException {
+            mCode = code;
+            mStreamId = streamId;
+            mReceiver = FileReceiver.toTempFile(size);
+        }
+    }
+
+    private abstract static class PendingWrite {
+
+        private final DispatchFuture mFuture;
+
+        protected PendingWrite(DispatchFuture future) {
+            mFuture = future;
+        }
+
+        /**
+         * Bytes held in memory until written, counted against the outbound queue bound.
+         */
+        public abstract int getQueuedBytes();
+
+        /**
+         * Writes as much of the current frame as the channel accepts, returns true if it was completely written.
+         */
+        public abstract boolean writeTo(WritableByteChannel channel) throws IOException;
+
+        /**
+         * Whether every frame was written.
+         */
+        public abstract boolean isDone();
+
+        public void release() {
+            /* No-op */
+        }
+
+        public void complete(IOException failure) {
+            release();
+            mFuture.complete(failure);
+        }
+
+        public void await() throws IOException {
+            mFuture.await();
+        }
+    }
+
+    private static class BufferWrite extends PendingWrite {
+
+        private final ByteBuffer mBuffer;
+
+        private BufferWrite(ByteBuffer buffer, DispatchFuture future) {
+            super(future);
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int getQueuedBytes() {
+            return mBuffer.capacity();
+        }
+
+        @Override
+        public boolean writeTo(WritableByteChannel channel) throws IOException {
+            channel.write(mBuffer);
+            return !mBuffer.hasRemaining();
+        }
+
+        @Override
+        public boolean isDone() {
+            return !mBuffer.hasRemaining();
         }
     }
 
-    private class CustomObjectInputStream extends ObjectInputStream {
+    /**
+     * The file header frame followed by one chunk frame per {@link #writeTo} call that completes.
+     */
+    private static class FileWrite extends PendingWrite {
 
-        public CustomObjectInputStream(InputStream in) throws IOException {
-            super(in);
+        private final ByteBuffer mHeader;
+        private final FileSender mSender;
+        private final int mStreamId;
+        private final ByteBuffer mChunkHeader = ByteBuffer.allocate(FILE_CHUNK_PREFIX_SIZE);
+        private long mChunkRemaining = 0;
+
+        private FileWrite(ByteBuffer header, FileSender sender, int streamId, DispatchFuture future) {
+            super(future);
+            mHeader = header;
+            mSender = sender;
+            mStreamId = streamId;
+            mChunkHeader.flip();
         }
 
         @Override
-        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-            try {
-                return Class.forName(desc.getName(), true, mClassLoader);
-            } catch (ClassNotFoundException ex) {
-                return super.resolveClass(desc);
+        public boolean writeTo(WritableByteChannel channel) throws IOException {
+            if (mHeader.hasRemaining()) {
+                channel.write(mHeader);
+                return !mHeader.hasRemaining();
+            }
+            if (mChunkRemaining == 0) {
+                mChunkRemaining = Math.min(FILE_CHUNK_SIZE, mSender.getRemaining());
+                mChunkHeader.clear();
+                mChunkHeader.putInt(FILE_CHUNK_PREFIX_SIZE - 4 + (int) mChunkRemaining).put(FILE_CHUNK_HEADER);
+                mChunkHeader.putInt(mStreamId).flip();
+            }
+            if (mChunkHeader.hasRemaining()) {
+                channel.write(mChunkHeader);
+                if (mChunkHeader.hasRemaining()) return false;
             }
+            mChunkRemaining -= mSender.send(channel, mChunkRemaining);
+            return mChunkRemaining == 0;
+        }
+
+        @Override
+        public boolean isDone() {
+            return !mHeader.hasRemaining() && mChunkRemaining == 0 && mSender.getRemaining() == 0;
+        }
+
+        @Override
+        public int getQueuedBytes() {
+            // the file itself is read as it's written
+            return mHeader.capacity();
+        }
+
+        @Override
+        public void release() {
+            mSender.close();
         }
     }
 }
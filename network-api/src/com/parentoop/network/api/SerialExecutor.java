@@ -0,0 +1,41 @@
+package com.parentoop.network.api;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time and in submission order on top of a (possibly shared) executor. Used to keep messages of a
+ * peer ordered while many peers share the same handler threads.
+ */
+/* package private */ class SerialExecutor implements Executor {
+
+    private final Queue<Runnable> mTasks = new ArrayDeque<>();
+    private final Executor mExecutor;
+    private Runnable mActive;
+
+    public SerialExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        mTasks.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (mActive == null) scheduleNext();
+    }
+
+    private synchronized void scheduleNext() {
+        if ((mActive = mTasks.poll()) != null) {
+            mExecutor.execute(mActive);
+        }
+    }
+}
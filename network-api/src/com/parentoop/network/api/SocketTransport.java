@@ -0,0 +1,89 @@
+package com.parentoop.network.api;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP transport, readiness comes from the loop's selector.
+ */
+/* package private */ class SocketTransport extends Transport {
+
+    private final SocketChannel mChannel;
+    private volatile SelectionKey mKey;
+
+    public SocketTransport(SocketChannel channel) throws IOException {
+        mChannel = channel;
+        mChannel.socket().setTcpNoDelay(true);
+    }
+
+    @Override
+    public void register(IoLoop loop, final Listener listener) throws IOException {
+        loop.register(mChannel, 0, new IoLoop.IoHandler() {
+            @Override
+            public void onRegistered(SelectionKey key) {
+                mKey = key;
+            }
+
+            @Override
+            public void onReady(SelectionKey key) throws IOException {
+                if (key.isReadable()) listener.onReadable();
+                if (key.isValid() && key.isWritable()) listener.onWritable();
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                listener.onError(ex);
+            }
+        });
+    }
+
+    @Override
+    public void setReadInterest(boolean interested) {
+        setInterest(SelectionKey.OP_READ, interested);
+    }
+
+    @Override
+    public void setWriteInterest(boolean interested) {
+        setInterest(SelectionKey.OP_WRITE, interested);
+    }
+
+    private void setInterest(int op, boolean interested) {
+        if (mKey == null || !mKey.isValid()) return;
+        int ops = mKey.interestOps();
+        mKey.interestOps(interested ? ops | op : ops & ~op);
+    }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+        return mChannel.socket().getInetAddress();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mChannel.isConnected();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return mChannel.read(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return mChannel.write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mChannel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mKey != null) mKey.cancel();
+        mChannel.close();
+    }
+}
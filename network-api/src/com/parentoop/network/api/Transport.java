@@ -0,0 +1,33 @@
+package com.parentoop.network.api;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.ByteChannel;
+
+/**
+ * Non-blocking byte stream a {@link PeerCommunicator} talks through. Once registered, readiness is reported to the
+ * listener on the {@link IoLoop} thread, where every read and write takes place.
+ */
+/* package private */ abstract class Transport implements ByteChannel {
+
+    public abstract void register(IoLoop loop, Listener listener) throws IOException;
+
+    // Loop thread only
+    public abstract void setReadInterest(boolean interested);
+
+    // Loop thread only
+    public abstract void setWriteInterest(boolean interested);
+
+    public abstract InetAddress getRemoteAddress();
+
+    public abstract boolean isConnected();
+
+    /* package private */ interface Listener {
+
+        public void onReadable() throws IOException;
+
+        public void onWritable() throws IOException;
+
+        public void onError(Exception ex);
+    }
+}
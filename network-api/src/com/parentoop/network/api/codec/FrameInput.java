@@ -0,0 +1,137 @@
+package com.parentoop.network.api.codec;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link DataInput} over a region of a {@link ByteBuffer}, read in place. Reading past the end of the region throws
+ * {@link EOFException} instead of running into whatever follows it in the buffer.
+ */
+public class FrameInput extends InputStream implements DataInput {
+
+    private ByteBuffer mBuffer;
+    private int mEnd;
+
+    /**
+     * Reads from the buffer's position up to {@code end}, advancing the buffer's position.
+     */
+    public FrameInput reset(ByteBuffer buffer, int end) {
+        mBuffer = buffer;
+        mEnd = end;
+        return this;
+    }
+
+    private void require(int bytes) throws EOFException {
+        if (mEnd - mBuffer.position() < bytes) throw new EOFException();
+    }
+
+    @Override
+    public int available() {
+        return mEnd - mBuffer.position();
+    }
+
+    @Override
+    public int read() {
+        if (mBuffer.position() >= mEnd) return -1;
+        return mBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        int available = available();
+        if (available <= 0) return -1;
+        len = Math.min(len, available);
+        mBuffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        require(len);
+        mBuffer.get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        n = Math.max(0, Math.min(n, available()));
+        mBuffer.position(mBuffer.position() + n);
+        return n;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        require(1);
+        return mBuffer.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        require(2);
+        return mBuffer.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        require(2);
+        return mBuffer.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        require(4);
+        return mBuffer.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        require(8);
+        return mBuffer.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        require(4);
+        return mBuffer.getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        require(8);
+        return mBuffer.getDouble();
+    }
+
+    @Override
+    public String readLine() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
@@ -0,0 +1,176 @@
+package com.parentoop.network.api.codec;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable, unsynchronized byte array {@link DataOutput}. Meant to be reused by a single thread: {@link #reset} it,
+ * encode, then take the bytes with {@link #toByteBuffer}.
+ */
+public class FrameOutput extends OutputStream implements DataOutput {
+
+    private byte[] mBuffer;
+    private int mCount = 0;
+
+    public FrameOutput(int initialCapacity) {
+        mBuffer = new byte[initialCapacity];
+    }
+
+    public void reset() {
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Moves the write position, used to reserve room for a prefix that is only known after encoding.
+     */
+    public void skip(int bytes) {
+        ensureCapacity(mCount + bytes);
+        mCount += bytes;
+    }
+
+    public void setInt(int index, int value) {
+        mBuffer[index] = (byte) (value >>> 24);
+        mBuffer[index + 1] = (byte) (value >>> 16);
+        mBuffer[index + 2] = (byte) (value >>> 8);
+        mBuffer[index + 3] = (byte) value;
+    }
+
+    public void setByte(int index, int value) {
+        mBuffer[index] = (byte) value;
+    }
+
+    /**
+     * Copies the written bytes into a buffer of their own, so this output can be reused right away.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(Arrays.copyOf(mBuffer, mCount));
+    }
+
+    /**
+     * Exposes the written bytes without copying, the output must not be written to while the buffer is in use.
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(mBuffer, 0, mCount);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mCount);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(capacity, mBuffer.length * 2));
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(mCount + 1);
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(mCount + len);
+        System.arraycopy(b, off, mBuffer, mCount, len);
+        mCount += len;
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) {
+        ensureCapacity(mCount + 2);
+        mBuffer[mCount++] = (byte) (v >>> 8);
+        mBuffer[mCount++] = (byte) v;
+    }
+
+    @Override
+    public void writeChar(int v) {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        ensureCapacity(mCount + 4);
+        setInt(mCount, v);
+        mCount += 4;
+    }
+
+    @Override
+    public void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        int length = s.length();
+        ensureCapacity(mCount + length);
+        for (int i = 0; i < length; i++) mBuffer[mCount++] = (byte) s.charAt(i);
+    }
+
+    @Override
+    public void writeChars(String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) writeChar(s.charAt(i));
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        int start = mCount;
+        skip(2);
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x01 && c < 0x80) {
+                write(c);
+            } else if (c < 0x800) {
+                write(0xC0 | (c >> 6));
+                write(0x80 | (c & 0x3F));
+            } else {
+                write(0xE0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3F));
+                write(0x80 | (c & 0x3F));
+            }
+        }
+        int utfLength = mCount - start - 2;
+        if (utfLength > 0xFFFF) {
+            mCount = start;
+            throw new UTFDataFormatException("Encoded string too long: " + utfLength + " bytes");
+        }
+        mBuffer[start] = (byte) (utfLength >>> 8);
+        mBuffer[start + 1] = (byte) utfLength;
+    }
+}
@@ -0,0 +1,17 @@
+package com.parentoop.network.api.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoding of the data carried by messages of a given code. Implementations must be stateless, the same
+ * instance encodes and decodes concurrently for every connection.
+ */
+public interface MessageCodec<T> {
+
+    public void encode(T data, DataOutput out) throws IOException;
+
+    public T decode(DataInput in, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+
+}
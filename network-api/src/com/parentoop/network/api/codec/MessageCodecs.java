@@ -0,0 +1,32 @@
+package com.parentoop.network.api.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of the codec used for each message code. Codes without a registered codec fall back to
+ * {@link ObjectCodec}. Both ends of a connection must register the same codecs.
+ */
+public class MessageCodecs {
+
+    private static final Map<Integer, MessageCodec<?>> sCodecs = new ConcurrentHashMap<>();
+
+    // Prevents instantiation
+    private MessageCodecs() {
+        throw new AssertionError("Cannot instantiate object from " + this.getClass());
+    }
+
+    public static void register(int messageCode, MessageCodec<?> codec) {
+        sCodecs.put(messageCode, codec);
+    }
+
+    public static void unregister(int messageCode) {
+        sCodecs.remove(messageCode);
+    }
+
+    public static MessageCodec<Object> getCodec(int messageCode) {
+        MessageCodec<?> codec = sCodecs.get(messageCode);
+        //noinspection unchecked
+        return (codec != null) ? (MessageCodec<Object>) codec : ObjectCodec.INSTANCE;
+    }
+}
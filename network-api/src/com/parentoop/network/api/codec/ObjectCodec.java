@@ -0,0 +1,257 @@
+package com.parentoop.network.api.codec;
+
+import com.parentoop.network.api.NodeId;
+
+import java.io.*;
+import java.net.InetAddress;
+
+/**
+ * Default codec: a type tag followed by a compact encoding for strings, boxed primitives, {@code String[]},
+ * {@code InetAddress[]} and {@code NodeId[]}. Any other {@link Serializable} goes through Java serialization, resolving classes with the
+ * connection's class loader.
+ */
+public class ObjectCodec implements MessageCodec<Object> {
+
+    public static final ObjectCodec INSTANCE = new ObjectCodec();
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte STRING_ARRAY = 10;
+    private static final byte INET_ADDRESS_ARRAY = 11;
+    private static final byte NODE_ID_ARRAY = 12;
+    private static final byte SERIALIZED = 127;
+
+    @Override
+    public void encode(Object data, DataOutput out) throws IOException {
+        if (data == null) {
+            out.writeByte(NULL);
+        } else if (data instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) data);
+        } else if (data instanceof Integer) {
+            out.writeByte(INTEGER);
+            writeVarLong(out, (Integer) data);
+        } else if (data instanceof Long) {
+            out.writeByte(LONG);
+            writeVarLong(out, (Long) data);
+        } else if (data instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) data);
+        } else if (data instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) data);
+        } else if (data instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) data);
+        } else if (data instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) data);
+        } else if (data instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) data);
+        } else if (data instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) data);
+        } else if (data instanceof String[]) {
+            String[] strings = (String[]) data;
+            out.writeByte(STRING_ARRAY);
+            writeVarInt(out, strings.length);
+            for (String string : strings) writeString(out, string);
+        } else if (data instanceof InetAddress[]) {
+            InetAddress[] addresses = (InetAddress[]) data;
+            out.writeByte(INET_ADDRESS_ARRAY);
+            writeVarInt(out, addresses.length);
+            for (InetAddress address : addresses) {
+                byte[] bytes = address.getAddress();
+                out.writeByte(bytes.length);
+                out.write(bytes);
+            }
+        } else if (data instanceof NodeId[]) {
+            NodeId[] nodeIds = (NodeId[]) data;
+            out.writeByte(NODE_ID_ARRAY);
+            writeVarInt(out, nodeIds.length);
+            for (NodeId nodeId : nodeIds) nodeId.write(out);
+        } else if (data instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectStream = new ObjectOutputStream(bytes)) {
+                objectStream.writeObject(data);
+            }
+            writeVarInt(out, bytes.size());
+            bytes.writeTo(asOutputStream(out));
+        } else {
+            throw new NotSerializableException(data.getClass().getName());
+        }
+    }
+
+    @Override
+    public Object decode(DataInput in, final ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return (int) readVarLong(in);
+            case LONG:
+                return readVarLong(in);
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readBoolean();
+            case CHARACTER:
+                return in.readChar();
+            case STRING_ARRAY:
+                String[] strings = new String[readVarInt(in)];
+                for (int i = 0; i < strings.length; i++) strings[i] = readString(in);
+                return strings;
+            case INET_ADDRESS_ARRAY:
+                InetAddress[] addresses = new InetAddress[readVarInt(in)];
+                for (int i = 0; i < addresses.length; i++) {
+                    byte[] bytes = new byte[in.readUnsignedByte()];
+                    in.readFully(bytes);
+                    addresses[i] = InetAddress.getByAddress(bytes);
+                }
+                return addresses;
+            case NODE_ID_ARRAY:
+                NodeId[] nodeIds = new NodeId[readVarInt(in)];
+                for (int i = 0; i < nodeIds.length; i++) nodeIds[i] = NodeId.read(in);
+                return nodeIds;
+            case SERIALIZED:
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                try (ObjectInputStream objectStream = new ClassLoaderObjectInputStream(bytes, classLoader)) {
+                    return objectStream.readObject();
+                }
+            default:
+                throw new StreamCorruptedException("Unknown type tag " + tag);
+        }
+    }
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new StreamCorruptedException("Malformed variable length int");
+    }
+
+    /**
+     * Zig-zag encoded, so small negative numbers are small too.
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return (zigZag >>> 1) ^ -(zigZag & 1);
+        }
+        throw new StreamCorruptedException("Malformed variable length long");
+    }
+
+    /**
+     * Length in chars followed by each char in UTF-8 (surrogates are encoded separately), no 64KB limit unlike
+     * {@link DataOutput#writeUTF}.
+     */
+    public static void writeString(DataOutput out, String string) throws IOException {
+        int length = string.length();
+        writeVarInt(out, length);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                out.writeByte(c);
+            } else if (c < 0x800) {
+                out.writeByte(0xC0 | (c >> 6));
+                out.writeByte(0x80 | (c & 0x3F));
+            } else {
+                out.writeByte(0xE0 | (c >> 12));
+                out.writeByte(0x80 | ((c >> 6) & 0x3F));
+                out.writeByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        char[] chars = new char[readVarInt(in)];
+        for (int i = 0; i < chars.length; i++) {
+            int b = in.readUnsignedByte();
+            if (b < 0x80) {
+                chars[i] = (char) b;
+            } else if (b < 0xE0) {
+                chars[i] = (char) (((b & 0x1F) << 6) | (in.readUnsignedByte() & 0x3F));
+            } else {
+                int b2 = in.readUnsignedByte();
+                chars[i] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (in.readUnsignedByte() & 0x3F));
+            }
+        }
+        return new String(chars);
+    }
+
+    private static OutputStream asOutputStream(final DataOutput out) {
+        if (out instanceof OutputStream) return (OutputStream) out;
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+        private final ClassLoader mClassLoader;
+
+        public ClassLoaderObjectInputStream(byte[] bytes, ClassLoader classLoader) throws IOException {
+            super(new ByteArrayInputStream(bytes));
+            mClassLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), true, mClassLoader);
+            } catch (ClassNotFoundException ex) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.parentoop.network.api;
+
+import com.parentoop.network.api.messaging.MessageHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LoopbackTest {
+
+    private static final int SERVER_COUNT = 4;
+    private static final long TIMEOUT = 1000;
+    private static final int LARGE_FILE_SIZE = 4 * 1024 * 1024;
+
+    private final List<NodeServer> mServers = new ArrayList<>();
+    private final List<NodeClient> mClients = new ArrayList<>();
+    private final BlockingQueue<Message> mReceivedMessages = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        Loopback.setEnabled(true);
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            NodeServer server = new NodeServer(0, new MessageQueuer());
+            server.startServer();
+            mServers.add(server);
+            mClients.add(new NodeClient(InetAddress.getLoopbackAddress(), server.getPort(), new MessageQueuer()));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (NodeClient client : mClients) client.shutdown();
+        for (NodeServer server : mServers) server.shutdown();
+        Loopback.setEnabled(false);
+    }
+
+    @Test
+    public void testServersOnDistinctPorts() {
+        assertEquals(SERVER_COUNT, mServers.size());
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            for (int j = i + 1; j < SERVER_COUNT; j++) {
+                assertTrue(mServers.get(i).getPort() != mServers.get(j).getPort());
+            }
+        }
+    }
+
+    @Test
+    public void testMessagesBothWays() throws Exception {
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            mClients.get(i).dispatchMessage(new Message(10, i));
+        }
+        List<Integer> received = new ArrayList<>();
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            received.add(mReceivedMessages.poll(TIMEOUT, TimeUnit.MILLISECONDS).<Integer>getData());
+        }
+        assertEquals(SERVER_COUNT, received.size());
+        for (int i = 0; i < SERVER_COUNT; i++) assertTrue(received.contains(i));
+
+        mServers.get(0).broadcastMessage(new Message(11, "mensagem"));
+        assertEquals(new Message(11, "mensagem"), mReceivedMessages.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testLargeFile() throws Exception {
+        byte[] content = new byte[LARGE_FILE_SIZE];
+        new Random(42).nextBytes(content);
+        Path fileToSend = Files.createTempFile("dummy", ".bin");
+        fileToSend.toFile().deleteOnExit();
+        Files.write(fileToSend, content);
+
+        mClients.get(0).dispatchMessage(new Message(13, fileToSend));
+        Message message = mReceivedMessages.poll(10 * TIMEOUT, TimeUnit.MILLISECONDS);
+        assertNotNull(message);
+        assertArrayEquals(content, Files.readAllBytes(message.<Path>getData()));
+    }
+
+    @Test
+    public void testServerShutdown() throws Exception {
+        NodeServer server = mServers.remove(0);
+        NodeClient client = mClients.remove(0);
+        int port = server.getPort();
+        server.shutdown();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!client.isShutdown() && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertTrue(client.isShutdown());
+        try {
+            new NodeClient(InetAddress.getLoopbackAddress(), port, new MessageQueuer());
+            fail("Connected to a server that was shut down");
+        } catch (ConnectException ex) {
+            // expected
+        }
+    }
+
+    private class MessageQueuer implements MessageHandler {
+        @Override
+        public void handle(Message message, PeerCommunicator sender) {
+            mReceivedMessages.add(message);
+        }
+    }
+}
@@ -10,8 +10,15 @@ import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -22,6 +29,7 @@ public class NodeClientServerTest {
 
     private static final int PORT = 13371;
     private static final long FAKE_NETWORK_THRESHOLD = 100;
+    private static final int LARGE_FILE_SIZE = 16 * 1024 * 1024;
 
     private NodeServer mNodeServer;
     private NodeClient mNodeClient;
@@ -29,6 +37,7 @@ public class NodeClientServerTest {
     private ReentrantLock mLock;
     private Condition mCondition;
     private Message mReceivedMessage;
+    private final List<Integer> mReceivedCodes = Collections.synchronizedList(new ArrayList<Integer>());
 
     @Before
     public void setUp() throws IOException, InterruptedException {
@@ -165,10 +174,171 @@ public class NodeClientServerTest {
         assertEquals(loremIpsum, read);
     }
 
+    @Test
+    public void testLargeFileSharing() throws IOException, InterruptedException {
+        byte[] content = new byte[LARGE_FILE_SIZE];
+        new Random(42).nextBytes(content);
+        Path fileToSend = Files.createTempFile("dummy", ".bin");
+        fileToSend.toFile().deleteOnExit();
+        Files.write(fileToSend, content);
+
+        mNodeServer.broadcastMessage(new Message(13, fileToSend));
+        waitForMessageReceive(10 * FAKE_NETWORK_THRESHOLD);
+        assertNotNull(mReceivedMessage);
+        assertEquals(13, mReceivedMessage.getCode());
+
+        Path receivedFile = mReceivedMessage.getData();
+        assertArrayEquals(content, Files.readAllBytes(receivedFile));
+    }
+
+    @Test
+    public void testBatchedMessages() throws IOException, InterruptedException {
+        mNodeClient.setBatching(1024 * 1024, 1, TimeUnit.HOURS);
+        Message message = null;
+        for (int i = 0; i < 1000; i++) {
+            message = new Message(10, i);
+            mNodeClient.dispatchMessage(message);
+        }
+        waitForMessageReceive();
+        assertNull(mReceivedMessage);
+
+        mNodeClient.flush();
+        long deadline = System.currentTimeMillis() + FAKE_NETWORK_THRESHOLD;
+        while (!message.equals(mReceivedMessage) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(message, mReceivedMessage);
+    }
+
+    @Test
+    public void testBatchLinger() throws IOException, InterruptedException {
+        mNodeClient.setBatching(1024 * 1024, 10, TimeUnit.MILLISECONDS);
+        Message message = new Message(10, "mensagem");
+        mNodeClient.dispatchMessage(message);
+
+        waitForMessageReceive();
+        assertEquals(message, mReceivedMessage);
+    }
+
+    @Test
+    public void testStreamsInterleave() throws IOException, InterruptedException {
+        byte[] content = new byte[LARGE_FILE_SIZE];
+        Path fileToSend = Files.createTempFile("dummy", ".bin");
+        fileToSend.toFile().deleteOnExit();
+        Files.write(fileToSend, content);
+
+        final PeerCommunicator.MessageStream fileStream = mNodeClient.openStream();
+        final Message fileMessage = new Message(13, fileToSend);
+        Thread fileSender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fileStream.dispatchMessage(fileMessage);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        fileSender.start();
+        Thread.sleep(5);
+        PeerCommunicator.MessageStream messageStream = mNodeClient.openStream();
+        messageStream.dispatchMessage(new Message(10, "mensagem"));
+        fileSender.join();
+
+        long deadline = System.currentTimeMillis() + 10 * FAKE_NETWORK_THRESHOLD;
+        while (mReceivedCodes.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(Arrays.asList(10, 13), mReceivedCodes);
+        fileStream.close();
+        messageStream.close();
+    }
+
+    @Test
+    public void testDispatchAsync() throws Exception {
+        final Message message = new Message(10, "mensagem");
+        DispatchFuture future = mNodeClient.dispatchAsync(message);
+        final CountDownLatch listened = new CountDownLatch(1);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                listened.countDown();
+            }
+        }, Executors.newSingleThreadExecutor());
+        future.get(FAKE_NETWORK_THRESHOLD, TimeUnit.MILLISECONDS);
+        assertTrue(future.isSuccess());
+        assertTrue(listened.await(FAKE_NETWORK_THRESHOLD, TimeUnit.MILLISECONDS));
+        waitForMessageReceive();
+        assertEquals(message, mReceivedMessage);
+    }
+
+    @Test
+    public void testOutboundQueueFull() throws Exception {
+        mNodeClient.setMaxQueuedBytes(0);
+        assertFalse(mNodeClient.isWritable());
+        DispatchFuture future = mNodeClient.dispatchAsync(new Message(10, "mensagem"));
+        assertTrue(future.isDone());
+        assertTrue(future.getFailure() instanceof OutboundQueueFullException);
+        try {
+            future.await();
+            fail();
+        } catch (OutboundQueueFullException e) {
+            assertSame(future.getFailure(), e);
+        }
+        DispatchFuture writable = mNodeClient.whenWritable();
+        assertFalse(writable.isDone());
+
+        mNodeClient.setMaxQueuedBytes(1024);
+        assertTrue(writable.isSuccess());
+        mNodeClient.dispatchAsync(new Message(11, "mensagem")).get();
+        waitForMessageReceive();
+        assertEquals(11, mReceivedMessage.getCode());
+    }
+
+    @Test
+    public void testEncodedMessageReused() throws Exception {
+        Path fileToSend = Files.createTempFile("dummy", ".txt");
+        fileToSend.toFile().deleteOnExit();
+        Files.write(fileToSend, "Lorem ipsum dolor sit amet.".getBytes());
+        EncodedMessage fileMessage = EncodedMessage.encode(new Message(13, fileToSend));
+        EncodedMessage message = EncodedMessage.encode(new Message(10, "mensagem"));
+
+        for (int i = 0; i < 2; i++) {
+            mNodeClient.dispatchEncoded(fileMessage).get();
+            mNodeClient.dispatchEncoded(message).get();
+        }
+        long deadline = System.currentTimeMillis() + FAKE_NETWORK_THRESHOLD;
+        while (mReceivedCodes.size() < 4 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(Arrays.asList(13, 10, 13, 10), mReceivedCodes);
+        assertEquals(new Message(10, "mensagem"), mReceivedMessage);
+    }
+
+    @Test
+    public void testNodeIdsOnSameHost() throws IOException, InterruptedException {
+        NodeId first = NodeId.create(null, 20001);
+        NodeId second = NodeId.create(null, 20002);
+        NodeClient firstClient = new NodeClient(first, InetAddress.getLocalHost(), PORT, new MessageReceiveSignaler());
+        NodeClient secondClient = new NodeClient(second, InetAddress.getLocalHost(), PORT, new MessageReceiveSignaler());
+        Thread.sleep(FAKE_NETWORK_THRESHOLD);
+
+        assertEquals(3, mNodeServer.getConnectedPeers().size());
+        PeerCommunicator firstPeer = mNodeServer.getPeer(first);
+        assertNotNull(firstPeer);
+        assertEquals(20001, firstPeer.getNodeId().getPort());
+        assertEquals(InetAddress.getLocalHost().getHostAddress(), firstPeer.getNodeId().getHost());
+        assertNotSame(firstPeer, mNodeServer.getPeer(second));
+        assertEquals(mNodeServer.getNodeId(), firstClient.getNodeId());
+
+        firstClient.shutdown();
+        secondClient.shutdown();
+    }
+
     private void waitForMessageReceive() throws InterruptedException {
+        waitForMessageReceive(FAKE_NETWORK_THRESHOLD);
+    }
+
+    private void waitForMessageReceive(long timeout) throws InterruptedException {
         mLock.lock();
         try {
-            mCondition.await(FAKE_NETWORK_THRESHOLD, TimeUnit.MILLISECONDS);
+            if (mReceivedMessage == null) mCondition.await(timeout, TimeUnit.MILLISECONDS);
         } finally {
             mLock.unlock();
         }
@@ -180,6 +350,7 @@ public class NodeClientServerTest {
             mLock.lock();
             try {
                 mReceivedMessage = message;
+                mReceivedCodes.add(message.getCode());
                 mCondition.signal();
             } finally {
                 mLock.unlock();
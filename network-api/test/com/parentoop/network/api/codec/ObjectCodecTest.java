@@ -0,0 +1,76 @@
+package com.parentoop.network.api.codec;
+
+import com.parentoop.network.api.NodeId;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class ObjectCodecTest {
+
+    private static Object roundTrip(Object data) throws IOException, ClassNotFoundException {
+        FrameOutput out = new FrameOutput(4);
+        ObjectCodec.INSTANCE.encode(data, out);
+        ByteBuffer buffer = out.toByteBuffer();
+        FrameInput in = new FrameInput().reset(buffer, buffer.limit());
+        Object decoded = ObjectCodec.INSTANCE.decode(in, ClassLoader.getSystemClassLoader());
+        assertEquals(0, in.available());
+        return decoded;
+    }
+
+    @Test
+    public void testBuiltInTypes() throws Exception {
+        Object[] values = {null, "", "word", "ação 中文", 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Long.MIN_VALUE, 42L, 3.5, 2.5f, (short) -7, (byte) 9, true, 'x'};
+        for (Object value : values) {
+            assertEquals(value, roundTrip(value));
+        }
+    }
+
+    @Test
+    public void testArrays() throws Exception {
+        String[] strings = {"a", "bc", ""};
+        assertTrue(Arrays.equals(strings, (String[]) roundTrip(strings)));
+        InetAddress[] addresses = {InetAddress.getByName("127.0.0.1"), InetAddress.getByName("::1")};
+        assertTrue(Arrays.equals(addresses, (InetAddress[]) roundTrip(addresses)));
+        NodeId[] nodeIds = {NodeId.create("10.0.0.1", 4242), NodeId.anonymous()};
+        NodeId[] decoded = (NodeId[]) roundTrip(nodeIds);
+        assertTrue(Arrays.equals(nodeIds, decoded));
+        assertEquals("10.0.0.1", decoded[0].getHost());
+        assertEquals(4242, decoded[0].getPort());
+        assertNull(decoded[1].getHost());
+    }
+
+    @Test
+    public void testSerializableFallback() throws Exception {
+        Date date = new Date(123456789L);
+        assertEquals(date, roundTrip(date));
+    }
+
+    @Test
+    public void testCompactEncoding() throws Exception {
+        FrameOutput out = new FrameOutput(16);
+        ObjectCodec.INSTANCE.encode(1, out);
+        assertEquals(2, out.size());
+    }
+
+    @Test(expected = NotSerializableException.class)
+    public void testNotSerializable() throws Exception {
+        ObjectCodec.INSTANCE.encode(new Object(), new FrameOutput(16));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedFrame() throws Exception {
+        FrameOutput out = new FrameOutput(16);
+        ObjectCodec.INSTANCE.encode("truncated", out);
+        ByteBuffer buffer = out.toByteBuffer();
+        ObjectCodec.INSTANCE.decode(new FrameInput().reset(buffer, buffer.limit() - 1), null);
+    }
+}
@@ -1,5 +1,8 @@
 package com.parentoop.slave.api;
 
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.LongIterator;
+
 import java.io.Serializable;
 
 public interface SlaveStorage<T extends Serializable> {
@@ -8,8 +11,39 @@ public interface SlaveStorage<T extends Serializable> {
 
     public void terminate();
 
+    /**
+     * Lets the storage buffer the values inserted from now on and write them in large batches, until
+     * {@link #endBulkLoad()}. A read ends it first, so that it sees every value inserted before it.
+     */
+    public void beginBulkLoad();
+
+    /**
+     * Writes the values still buffered, inserts are written one by one again afterwards.
+     */
+    public void endBulkLoad();
+
     public void insert(String key, T value);
 
+    /**
+     * Stores the value raw. {@link #read(String)} returns it as a {@link Long}.
+     */
+    public void insertLong(String key, long value);
+
+    /**
+     * Stores the value raw. {@link #read(String)} returns it as a {@link Double}.
+     */
+    public void insertDouble(String key, double value);
+
     public Iterable<T> read(String key);
 
+    /**
+     * Values inserted raw come out as they are, values inserted as objects must be numbers.
+     */
+    public LongIterator readLongs(String key);
+
+    /**
+     * Values inserted raw come out as they are, values inserted as objects must be numbers.
+     */
+    public DoubleIterator readDoubles(String key);
+
 }
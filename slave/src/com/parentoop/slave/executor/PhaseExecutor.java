@@ -1,8 +1,10 @@
 package com.parentoop.slave.executor;
 
+import com.parentoop.core.networking.Messages;
 import com.parentoop.core.networking.Ports;
 import com.parentoop.network.api.Message;
 import com.parentoop.network.api.NodeClient;
+import com.parentoop.network.api.NodeId;
 import com.parentoop.network.api.NodeServer;
 import com.parentoop.network.api.PeerCommunicator;
 import com.parentoop.network.api.messaging.MessageHandler;
@@ -12,43 +14,73 @@ import com.parentoop.slave.view.Console;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
 
 public class PhaseExecutor implements MessageHandler {
 
+    // Slaves stream many small messages (KEY_FOUND, KEY_VALUE, RESULT_PAIR), pack them into larger frames
+    private static final int BATCH_SIZE = 32 * 1024;
+    private static final long BATCH_LINGER_MILLIS = 1;
+
     private final TaskParameters mTaskParameters;
     private boolean mVerbose;
     private NodeClient mMasterConnection;
     private InetAddress mMasterAddress;
-    private Phase mPhase;
+    private String mAdvertisedHost;
+    private volatile Phase mPhase;
 
     public PhaseExecutor(InetAddress masterAddress) {
+        this(masterAddress, null);
+    }
+
+    /**
+     * @param advertisedHost host other slaves reach this one at, null for the address the master sees it connect from.
+     */
+    public PhaseExecutor(InetAddress masterAddress, String advertisedHost) {
+        Messages.registerCodecs();
         mTaskParameters = new TaskParameters();
         mTaskParameters.setExecutor(this);
         mMasterAddress = masterAddress;
+        mAdvertisedHost = advertisedHost;
     }
 
     public void initialize() throws IOException {
-        Console.println("Setting Master connection as client");
-        mMasterConnection = new NodeClient(mMasterAddress, Ports.MASTER_SLAVE_PORT, this);
-        mTaskParameters.setMasterConnection(mMasterConnection);
         Console.println("Setting Slave connection as server");
-        NodeServer slaveConnection = new NodeServer(Ports.SLAVE_SLAVE_PORT, this);
+        // Any free port, so that several slaves can run on the same host
+        NodeServer slaveConnection = new NodeServer(0, this);
+        slaveConnection.setBatching(BATCH_SIZE, BATCH_LINGER_MILLIS, TimeUnit.MILLISECONDS);
         slaveConnection.startServer();
+        NodeId nodeId = NodeId.create(mAdvertisedHost, slaveConnection.getPort());
+        slaveConnection.setNodeId(nodeId);
         mTaskParameters.setSlaveConnection(slaveConnection);
+        Console.println("Setting Master connection as client, node " + nodeId);
+        mMasterConnection = new NodeClient(nodeId, mMasterAddress, Ports.MASTER_SLAVE_PORT, this);
+        mMasterConnection.setBatching(BATCH_SIZE, BATCH_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+        mTaskParameters.setMasterConnection(mMasterConnection);
         mPhase = new LoadPhase();
         mPhase.initialize(mTaskParameters);
     }
 
+    /**
+     * Messages of each peer are handled in order, but peers are handled concurrently, so state phases share between
+     * peers must be thread-safe (e.g. the requests pending in the reduce phase).
+     */
     @Override
     public void handle(Message message, PeerCommunicator sender) {
-        Console.println("SLAVE: " + message.getCode() + " <- " + sender.getAddress());
-        mPhase.execute(message, sender);
-        Phase phase = mPhase.nextPhase();
-        if (!phase.equals(mPhase)) {
-            mPhase.terminate(mTaskParameters);
-            mPhase = phase;
-            mPhase.initialize(mTaskParameters);
-            Console.println("===========[ " + phase.getClass().getSimpleName() + " ]===========");
+        Console.println("SLAVE: " + message.getCode() + " <- " + sender.getNodeId());
+        Phase current = mPhase;
+        current.execute(message, sender);
+        // Only held to switch phases, never while a message is handled
+        synchronized (this) {
+            // Another peer's message may have moved on from it meanwhile
+            if (current != mPhase) return;
+            Phase phase = current.nextPhase();
+            if (!phase.equals(current)) {
+                current.terminate(mTaskParameters);
+                mPhase = phase;
+                phase.initialize(mTaskParameters);
+                Console.println("===========[ " + phase.getClass().getSimpleName() + " ]===========");
+            }
         }
     }
 }
@@ -1,23 +1,37 @@
 package com.parentoop.slave.executor;
 
+import com.parentoop.core.api.Combiner;
 import com.parentoop.core.api.Mapper;
 import com.parentoop.core.api.Reducer;
+import com.parentoop.core.loader.Task;
 import com.parentoop.network.api.NodeClient;
 import com.parentoop.network.api.NodeServer;
 import com.parentoop.slave.api.SlaveStorage;
+import com.parentoop.slave.executor.phases.SortedMapOutput;
 
 import java.io.Serializable;
 
 public final class TaskParameters {
 
+    private Task mTask;
     private Mapper mMapper;
     private Reducer mReducer;
+    private Combiner mCombiner;
     private SlaveStorage<Serializable> mStorage;
+    private SortedMapOutput mMapOutput;
     private PhaseExecutor mExecutor;
     private NodeClient mMasterConnection;
     private NodeServer mSlaveConnection;
     private boolean mVerbose;
 
+    public Task getTask() {
+        return mTask;
+    }
+
+    public void setTask(Task task) {
+        mTask = task;
+    }
+
     public Mapper getMapper() {
         return mMapper;
     }
@@ -34,6 +48,17 @@ public final class TaskParameters {
         mReducer = reducer;
     }
 
+    /**
+     * Null if the task has no combiner.
+     */
+    public Combiner getCombiner() {
+        return mCombiner;
+    }
+
+    public void setCombiner(Combiner combiner) {
+        mCombiner = combiner;
+    }
+
     public SlaveStorage<Serializable> getStorage() {
         return mStorage;
     }
@@ -42,6 +67,17 @@ public final class TaskParameters {
         mStorage = storage;
     }
 
+    /**
+     * Null unless the map phase sorted its output instead of inserting it into the storage.
+     */
+    public SortedMapOutput getMapOutput() {
+        return mMapOutput;
+    }
+
+    public void setMapOutput(SortedMapOutput mapOutput) {
+        mMapOutput = mapOutput;
+    }
+
     public NodeClient getMasterConnection() {
         return mMasterConnection;
     }
@@ -0,0 +1,131 @@
+package com.parentoop.slave.executor.phases;
+
+import com.parentoop.core.api.Combiner;
+import com.parentoop.core.api.DoubleCombiner;
+import com.parentoop.core.api.LongCombiner;
+import com.parentoop.core.data.Datum;
+import com.parentoop.core.data.Yielder;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the mapper output through the task's combiner, one entry per key, until the entries take roughly the
+ * given number of bytes. Raw values are accumulated raw by primitive combiners. Only used by the data persistor thread.
+ */
+/* package private */ class CombinerTable {
+
+    // Rough footprint of an entry besides the chars of its key: the map entry, the key string and the entry object
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final Combiner mCombiner;
+    private final long mBudget;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private long mSize = 0;
+
+    public CombinerTable(Combiner combiner, long budget) {
+        mCombiner = combiner;
+        mBudget = budget;
+    }
+
+    /**
+     * @return whether the table is over its budget and should be flushed.
+     */
+    public boolean add(String key, long value) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) return put(key, new Entry(key, value));
+        if (entry.mType == Entry.LONG && mCombiner instanceof LongCombiner) {
+            entry.mLong = ((LongCombiner) mCombiner).combine(key, entry.mLong, value);
+        } else {
+            combine(entry, value);
+        }
+        return false;
+    }
+
+    public boolean add(String key, double value) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) return put(key, new Entry(key, value));
+        if (entry.mType == Entry.DOUBLE && mCombiner instanceof DoubleCombiner) {
+            entry.mDouble = ((DoubleCombiner) mCombiner).combine(key, entry.mDouble, value);
+        } else {
+            combine(entry, value);
+        }
+        return false;
+    }
+
+    public boolean add(String key, Serializable value) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) return put(key, new Entry(key, value));
+        combine(entry, value);
+        return false;
+    }
+
+    private boolean put(String key, Entry entry) {
+        mEntries.put(key, entry);
+        mSize += ENTRY_OVERHEAD + 2 * key.length();
+        return mSize >= mBudget;
+    }
+
+    private void combine(Entry entry, Serializable value) {
+        //noinspection unchecked
+        entry.mValue = mCombiner.combine(entry.mKey, entry.getValue(), value);
+        entry.mType = Entry.OBJECT;
+    }
+
+    /**
+     * Yields the accumulated values and empties the table.
+     */
+    public void flush(Yielder<Datum> yielder) {
+        for (Entry entry : mEntries.values()) yielder.yield(entry.toDatum());
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * The accumulated value of a key, kept raw as long as it's combined by a primitive combiner, so that combining
+     * allocates nothing.
+     */
+    private static class Entry {
+
+        private static final byte OBJECT = 0;
+        private static final byte LONG = 1;
+        private static final byte DOUBLE = 2;
+
+        private final String mKey;
+        private byte mType;
+        private long mLong;
+        private double mDouble;
+        private Serializable mValue;
+
+        private Entry(String key, long value) {
+            mKey = key;
+            mType = LONG;
+            mLong = value;
+        }
+
+        private Entry(String key, double value) {
+            mKey = key;
+            mType = DOUBLE;
+            mDouble = value;
+        }
+
+        private Entry(String key, Serializable value) {
+            mKey = key;
+            mType = OBJECT;
+            mValue = value;
+        }
+
+        private Serializable getValue() {
+            if (mType == LONG) return mLong;
+            if (mType == DOUBLE) return mDouble;
+            return mValue;
+        }
+
+        private Datum toDatum() {
+            if (mType == LONG) return new Datum(mKey, mLong);
+            if (mType == DOUBLE) return new Datum(mKey, mDouble);
+            return new Datum(mKey, mValue);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.parentoop.slave.executor.phases;
 
+import com.parentoop.core.api.Combiner;
 import com.parentoop.core.api.Mapper;
 import com.parentoop.core.api.Reducer;
 import com.parentoop.core.loader.Task;
@@ -16,16 +17,23 @@ import java.nio.file.Path;
 
 public class LoadPhase extends Phase {
 
+    // Class name of the storage the map output is inserted into, one of the SlaveStorage providers on the classpath
+    public static final String STORAGE_PROPERTY = "parentoop.slave.storage";
+    private static final String DEFAULT_STORAGE = "com.parentoop.storage.sqllite.SqlLiteStorage";
+
     private Path mJarPath;
     private TaskDescriptor mDescriptor;
+    private Task mTask;
     private Mapper mMapper;
     private Reducer mReducer;
+    private Combiner mCombiner;
 
     @Override
     public void initialize(TaskParameters parameters) {
         super.initialize(parameters);
         //noinspection unchecked
-        SlaveStorage<Serializable> storage = (SlaveStorage<Serializable>) ServiceUtils.load(SlaveStorage.class);
+        SlaveStorage<Serializable> storage = (SlaveStorage<Serializable>) ServiceUtils.load(SlaveStorage.class,
+                System.getProperty(STORAGE_PROPERTY, DEFAULT_STORAGE));
         parameters.setStorage(storage);
         try {
             storage.initialize();
@@ -36,8 +44,10 @@ public class LoadPhase extends Phase {
 
     @Override
     public void terminate(TaskParameters parameters) {
+        parameters.setTask(mTask);
         parameters.setMapper(mMapper);
         parameters.setReducer(mReducer);
+        parameters.setCombiner(mCombiner);
         super.terminate(parameters);
     }
 
@@ -56,9 +66,10 @@ public class LoadPhase extends Phase {
 
     private void loadTask() {
         if (mJarPath == null || mDescriptor == null) return;
-        Task task = Task.load(mJarPath, mDescriptor);
-        mMapper = task.getMapper();
-        mReducer = task.getReducer();
+        mTask = Task.load(mJarPath, mDescriptor);
+        mMapper = mTask.getMapper();
+        mReducer = mTask.getReducer();
+        mCombiner = mTask.getCombiner();
         nextPhase(MapPhase.class);
     }
 }
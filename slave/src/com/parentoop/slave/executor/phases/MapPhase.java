@@ -1,9 +1,18 @@
 package com.parentoop.slave.executor.phases;
 
+import com.parentoop.core.api.BatchMapper;
+import com.parentoop.core.api.Combiner;
+import com.parentoop.core.api.MapYielder;
 import com.parentoop.core.api.Mapper;
+import com.parentoop.core.api.TaskContext;
+import com.parentoop.core.api.TaskLifecycle;
+import com.parentoop.core.data.DataPool;
 import com.parentoop.core.data.Datum;
-import com.parentoop.core.data.NetworkDataPool;
+import com.parentoop.core.data.DatumSlab;
+import com.parentoop.core.data.Yielder;
+import com.parentoop.core.loader.Task;
 import com.parentoop.core.networking.Messages;
+import com.parentoop.core.utils.text.KeyInterner;
 import com.parentoop.network.api.Message;
 import com.parentoop.network.api.PeerCommunicator;
 import com.parentoop.slave.api.SlaveStorage;
@@ -11,38 +20,78 @@ import com.parentoop.slave.executor.TaskParameters;
 import com.parentoop.slave.view.Console;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class MapPhase extends Phase {
 
+    // Set to true for the map output to be sorted and spilled to files instead of inserted into the storage
+    public static final String SORT_OUTPUT_PROPERTY = "parentoop.slave.sortMapOutput";
+
     private static final int MAP_THREADS = 5;
+    // Bytes of encoded pairs a mapper fills a slab with before handing it to the persistor
+    private static final int SLAB_SIZE = 64 * 1024;
+    // Full slabs the mappers may get ahead of the persistor before they block
+    private static final int DATA_POOL_CAPACITY = 64;
+    // Keys the persistor remembers, so that reading a key it saw recently from a slab doesn't copy it
+    private static final int INTERNED_KEYS = 64 * 1024;
+    // Memory the combiner may accumulate into before its partial results are stored
+    private static final long COMBINER_BUDGET = 32 * 1024 * 1024;
+    // Bytes of slabs the sorted output holds before sorting and spilling them
+    private static final long SORT_BUFFER_SIZE = 16 * 1024 * 1024;
 
     private final ExecutorService mMappersThreadPool = Executors.newFixedThreadPool(MAP_THREADS);
-    private NetworkDataPool mDataPool = new NetworkDataPool();
+    private DataPool<DatumSlab> mDataPool = new DataPool<>(DATA_POOL_CAPACITY);
+    // Slabs read by the persistor, to be filled again
+    private final Queue<DatumSlab> mFreeSlabs = new ConcurrentLinkedQueue<>();
     private Thread mDataPersistorThread = null;
     private Set<String> mKeysFound = new HashSet<>();
-    private Mapper mMapper;
+    private Task mTask;
+    private final List<MapWorker> mWorkers = Collections.synchronizedList(new ArrayList<MapWorker>());
+    private CombinerTable mCombinerTable;
+    private SortedMapOutput mSortedOutput;
     private SlaveStorage mStorage;
 
     @Override
     public void initialize(TaskParameters parameters) {
         super.initialize(parameters);
-        mMapper = parameters.getMapper();
+        mTask = parameters.getTask();
+        Combiner combiner = parameters.getCombiner();
+        if (Boolean.getBoolean(SORT_OUTPUT_PROPERTY)) {
+            // Combines the values of each key as it spills and merges them
+            mSortedOutput = new SortedMapOutput(SORT_BUFFER_SIZE, combiner, mTask.getJarClassLoader(), mSlabRecycler);
+        } else if (combiner != null) {
+            mCombinerTable = new CombinerTable(combiner, COMBINER_BUDGET);
+        }
         mStorage = parameters.getStorage();
         dispatchIdleMessage();
     }
 
+    @Override
+    public void terminate(TaskParameters parameters) {
+        parameters.setMapOutput(mSortedOutput);
+        super.terminate(parameters);
+    }
+
     @Override
     public void execute(Message message, PeerCommunicator sender) {
         switch (message.getCode()) {
             case Messages.MAP_CHUNK:
                 if (mDataPersistorThread == null) startDataPersistor();
-                Runnable task = new MapTask(message.<Serializable>getData());
-                mMappersThreadPool.submit(task);
+                mMappersThreadPool.submit(new MapTask(Collections.singletonList(message.<Serializable>getData())));
+                break;
+            case Messages.MAP_CHUNKS:
+                if (mDataPersistorThread == null) startDataPersistor();
+                mMappersThreadPool.submit(new MapTask(message.<List<Serializable>>getData()));
                 break;
             case Messages.END_MAP:
                 endMap();
@@ -53,47 +102,223 @@ public class MapPhase extends Phase {
     }
 
     private void endMap() {
+        // A slave may get no chunks at all, its persistor still has to begin and end the storage's bulk load and finish
+        // the map output
+        if (mDataPersistorThread == null) startDataPersistor();
         try {
-            mDataPool.close();
             mMappersThreadPool.shutdown();
             mMappersThreadPool.awaitTermination(INFINITY_TIME_OUT, TimeUnit.SECONDS);
+            // The mapper threads are gone, each instance is still only used by one thread at a time
+            for (MapWorker worker : mWorkers) worker.cleanup();
+            mDataPool.close();
             mDataPersistorThread.join();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * The mapper instance of the current mapper thread.
+     */
+    private final ThreadLocal<MapWorker> mWorker = new ThreadLocal<MapWorker>() {
+        @Override
+        protected MapWorker initialValue() {
+            MapWorker worker = new MapWorker(mTask.newMapper());
+            int index;
+            synchronized (mWorkers) {
+                index = mWorkers.size();
+                mWorkers.add(worker);
+            }
+            worker.setup(index);
+            return worker;
+        }
+    };
+
     private class MapTask implements Runnable {
 
-        private final Serializable mChunk;
+        private final List<Serializable> mChunks;
 
-        private MapTask(Serializable chunk) {
-            mChunk = chunk;
+        private MapTask(List<Serializable> chunks) {
+            mChunks = chunks;
         }
 
         @Override
         public void run() {
-            //noinspection unchecked
-            mMapper.map(mChunk, mDataPool);
+            mWorker.get().map(mChunks);
             dispatchIdleMessage();
         }
     }
 
+    private class MapWorker implements MapYielder {
+
+        private final Mapper mMapper;
+        private DatumSlab mSlab = newSlab();
+
+        private MapWorker(Mapper mapper) {
+            mMapper = mapper;
+        }
+
+        private void setup(int index) {
+            if (mMapper instanceof TaskLifecycle) {
+                String taskName = mTask.getDescriptor().getTaskName();
+                ((TaskLifecycle) mMapper).setup(new TaskContext(taskName, index, MAP_THREADS));
+            }
+        }
+
+        private void map(List<Serializable> chunks) {
+            if (mMapper instanceof BatchMapper) {
+                //noinspection unchecked
+                ((BatchMapper) mMapper).mapBatch(chunks, this);
+            } else {
+                //noinspection unchecked
+                for (Serializable chunk : chunks) mMapper.map(chunk, this);
+            }
+        }
+
+        private void cleanup() {
+            if (mMapper instanceof TaskLifecycle) ((TaskLifecycle) mMapper).cleanup(this);
+            flush();
+        }
+
+        private void flush() {
+            if (mSlab.isEmpty()) return;
+            mDataPool.yield(mSlab);
+            mSlab = newSlab();
+        }
+
+        @Override
+        public void yield(String key, Serializable value) {
+            this.yield((CharSequence) key, value);
+        }
+
+        @Override
+        public void yield(String key, int value) {
+            this.yield((CharSequence) key, value);
+        }
+
+        @Override
+        public void yield(String key, long value) {
+            this.yield((CharSequence) key, value);
+        }
+
+        @Override
+        public void yield(String key, double value) {
+            this.yield((CharSequence) key, value);
+        }
+
+        @Override
+        public void yield(CharSequence key, Serializable value) {
+            mSlab.append(key, value);
+            if (mSlab.size() >= SLAB_SIZE) flush();
+        }
+
+        @Override
+        public void yield(CharSequence key, int value) {
+            this.yield(key, (Serializable) value);
+        }
+
+        @Override
+        public void yield(CharSequence key, long value) {
+            mSlab.append(key, value);
+            if (mSlab.size() >= SLAB_SIZE) flush();
+        }
+
+        @Override
+        public void yield(CharSequence key, double value) {
+            mSlab.append(key, value);
+            if (mSlab.size() >= SLAB_SIZE) flush();
+        }
+    }
+
+    private DatumSlab newSlab() {
+        DatumSlab slab = mFreeSlabs.poll();
+        // Room for the record that fills it up
+        return (slab != null) ? slab : new DatumSlab(SLAB_SIZE + SLAB_SIZE / 4);
+    }
+
     private void startDataPersistor() {
         mDataPersistorThread = new Thread(new Runnable() {
             public void run() {
-                for (Datum datum : mDataPool) {
-                    String key = datum.getKey();
-                    if (!mKeysFound.contains(key)) {
-                        mKeysFound.add(key);
-                        dispatchMessageToMaster(new Message(Messages.KEY_FOUND, key));
+                if (mSortedOutput == null) mStorage.beginBulkLoad();
+                DatumSlab.Reader reader = new DatumSlab.Reader();
+                KeyInterner keys = new KeyInterner(INTERNED_KEYS);
+                for (Iterator<DatumSlab> slabs = mDataPool.iterator(); slabs.hasNext(); ) {
+                    DatumSlab slab = slabs.next();
+                    reader.reset(slab);
+                    while (reader.next()) {
+                        String key = keys.intern(reader.getKey());
+                        if (!mKeysFound.contains(key)) {
+                            mKeysFound.add(key);
+                            dispatchMessageToMaster(new Message(Messages.KEY_FOUND, key));
+                        }
+                        if (mSortedOutput != null) {
+                            mSortedOutput.add(key, slab, reader.getOffset());
+                        } else if (mCombinerTable == null) {
+                            store(key, reader);
+                        } else if (combine(key, reader)) {
+                            mCombinerTable.flush(mStorer);
+                        }
                     }
-                    //noinspection unchecked
-                    mStorage.insert(key, datum.getValue());
+                    // Otherwise held until the sorted output spills it
+                    if (mSortedOutput == null) {
+                        slab.clear();
+                        mFreeSlabs.offer(slab);
+                    }
+                }
+                if (mSortedOutput != null) {
+                    mSortedOutput.finish();
+                } else {
+                    if (mCombinerTable != null) mCombinerTable.flush(mStorer);
+                    mStorage.endBulkLoad();
                 }
                 Console.println("MapPhase: DataPersistor finished");
             }
         });
         mDataPersistorThread.start();
     }
+
+    private final Yielder<DatumSlab> mSlabRecycler = new Yielder<DatumSlab>() {
+        @Override
+        public void yield(DatumSlab slab) {
+            mFreeSlabs.offer(slab);
+        }
+    };
+
+    private final Yielder<Datum> mStorer = new Yielder<Datum>() {
+        @Override
+        public void yield(Datum datum) {
+            store(datum);
+        }
+    };
+
+    private void store(String key, DatumSlab.Reader record) {
+        if (record.isLong()) {
+            mStorage.insertLong(key, record.getLong());
+        } else if (record.isDouble()) {
+            mStorage.insertDouble(key, record.getDouble());
+        } else {
+            //noinspection unchecked
+            mStorage.insert(key, record.getValue());
+        }
+    }
+
+    /**
+     * @return whether the combiner table should be flushed.
+     */
+    private boolean combine(String key, DatumSlab.Reader record) {
+        if (record.isLong()) return mCombinerTable.add(key, record.getLong());
+        if (record.isDouble()) return mCombinerTable.add(key, record.getDouble());
+        return mCombinerTable.add(key, record.getValue());
+    }
+
+    private void store(Datum datum) {
+        if (datum.isLong()) {
+            mStorage.insertLong(datum.getKey(), datum.getLong());
+        } else if (datum.isDouble()) {
+            mStorage.insertDouble(datum.getKey(), datum.getDouble());
+        } else {
+            //noinspection unchecked
+            mStorage.insert(datum.getKey(), datum.getValue());
+        }
+    }
 }
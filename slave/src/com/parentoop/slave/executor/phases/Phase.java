@@ -1,10 +1,11 @@
 package com.parentoop.slave.executor.phases;
 
 import com.parentoop.core.networking.Messages;
-import com.parentoop.core.networking.Ports;
 import com.parentoop.network.api.Message;
 import com.parentoop.network.api.NodeClient;
+import com.parentoop.network.api.NodeId;
 import com.parentoop.network.api.PeerCommunicator;
+import com.parentoop.network.api.PeerCommunicator.MessageStream;
 import com.parentoop.slave.executor.PhaseExecutor;
 import com.parentoop.slave.executor.TaskParameters;
 import com.parentoop.slave.view.Console;
@@ -19,7 +20,8 @@ public abstract class Phase {
     protected static final long INFINITY_TIME_OUT = 60 * 60 * 24 * 7; // In seconds
 
     private Class<? extends Phase> mNextPhaseClass;
-    private Map<InetAddress, NodeClient> mPeers = new HashMap<>();
+    private Map<NodeId, NodeClient> mPeers = new HashMap<>();
+    private NodeId mNodeId;
     protected PhaseExecutor mExecutor;
     protected NodeClient mMasterConnection;
 
@@ -30,6 +32,7 @@ public abstract class Phase {
     public void initialize(TaskParameters parameters) {
         mMasterConnection = parameters.getMasterConnection();
         mExecutor = parameters.getExecutor();
+        mNodeId = parameters.getSlaveConnection().getNodeId();
     }
 
     public void terminate(TaskParameters parameters) {
@@ -52,13 +55,18 @@ public abstract class Phase {
         mNextPhaseClass = phaseClass;
     }
 
-    protected void dispatchMessageToSlave(InetAddress slaveAddress, Message message) {
+    protected void dispatchMessageToSlave(NodeId slave, Message message) {
         try {
             Console.println("-> " + message.getCode());
-            NodeClient nodeClient = mPeers.get(slaveAddress);
-            if (nodeClient == null) {
-                nodeClient = new NodeClient(slaveAddress, Ports.SLAVE_SLAVE_PORT, mExecutor);
-                mPeers.put(slaveAddress, nodeClient);
+            NodeClient nodeClient;
+            // Worker threads may dispatch too
+            synchronized (mPeers) {
+                nodeClient = mPeers.get(slave);
+                if (nodeClient == null) {
+                    InetAddress address = InetAddress.getByName(slave.getHost());
+                    nodeClient = new NodeClient(mNodeId, address, slave.getPort(), mExecutor);
+                    mPeers.put(slave, nodeClient);
+                }
             }
             nodeClient.dispatchMessage(message);
         } catch (IOException e) {
@@ -76,6 +84,15 @@ public abstract class Phase {
 
     }
 
+    protected void respondToSlave(MessageStream stream, Message message) {
+        try {
+            Console.println(message.getCode() + " -> SLAVE");
+            stream.dispatchMessage(message);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     protected void dispatchMessageToMaster(Message message) {
         try {
             Console.println(message.getCode() + " -> MASTER");
@@ -85,6 +102,25 @@ public abstract class Phase {
         }
     }
 
+    /**
+     * Sends whatever is batched for the peer, at the end of a stream of messages.
+     */
+    protected void flush(PeerCommunicator peer) {
+        try {
+            peer.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    protected void flush(MessageStream stream) {
+        try {
+            stream.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     protected void closeSlaves() {
         for (NodeClient slave : mPeers.values()) {
             try {
@@ -99,6 +135,7 @@ public abstract class Phase {
         Console.println("IDLE -> Master");
         try {
             mMasterConnection.dispatchMessage(new Message(Messages.IDLE));
+            mMasterConnection.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
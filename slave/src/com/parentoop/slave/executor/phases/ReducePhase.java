@@ -1,77 +1,122 @@
 package com.parentoop.slave.executor.phases;
 
+import com.parentoop.core.api.DoubleReducer;
+import com.parentoop.core.api.LongReducer;
+import com.parentoop.core.api.MapYielder;
 import com.parentoop.core.api.Reducer;
+import com.parentoop.core.api.TaskContext;
+import com.parentoop.core.api.TaskLifecycle;
 import com.parentoop.core.data.DataPool;
 import com.parentoop.core.data.Datum;
+import com.parentoop.core.loader.Task;
 import com.parentoop.core.networking.Messages;
+import com.parentoop.core.utils.iterating.Converter;
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.IteratorAdapter;
+import com.parentoop.core.utils.iterating.LongIterator;
+import com.parentoop.core.utils.iterating.SimpleIterable;
 import com.parentoop.network.api.Message;
+import com.parentoop.network.api.NodeId;
 import com.parentoop.network.api.PeerCommunicator;
+import com.parentoop.network.api.PeerCommunicator.MessageStream;
 import com.parentoop.slave.api.SlaveStorage;
 import com.parentoop.slave.executor.TaskParameters;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.net.InetAddress;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class ReducePhase extends Phase {
 
-    private final ExecutorService mReducersThreadPool = Executors.newCachedThreadPool();
+    // Values of a key a slave may send before the reducer consumes them, bounds the memory taken by each stream
+    private static final int INITIAL_CREDITS = 1024;
+    private static final int CREDITS_PER_GRANT = INITIAL_CREDITS / 4;
+    // Values a reducer takes from its pool at a time
+    private static final int VALUES_BATCH_SIZE = 64;
+    // Keys reduced at a time, the values of a key are only requested once its reducer starts
+    private static final int REDUCE_THREADS = 8;
+
+    private final ExecutorService mReducersThreadPool = Executors.newFixedThreadPool(REDUCE_THREADS);
     private final ExecutorService mCollectorsThreadPool = Executors.newCachedThreadPool();
     private final ExecutorService mValueSendersThreadPool = Executors.newCachedThreadPool();
 
     private SlaveStorage<Serializable> mStorage;
+    // Read instead of the storage if it's there
+    private SortedMapOutput mMapOutput;
+    private Task mTask;
+    // Only tells the type of the reducer instances, which are created for each reducer thread
     private Reducer mReducer;
+    private final List<ReduceWorker> mWorkers = Collections.synchronizedList(new ArrayList<ReduceWorker>());
 
-    private Collection<InetAddress> mSlaveAddresses;
+    private Collection<NodeId> mSlaves;
+    // Keys this slave reduces, messages about them carry their index in this list instead of the string
     private List<String> mKeys;
-    private Map<String, DataPool> mValues = new HashMap<>();
-    private Map<String, Future<Serializable>> mResults = new HashMap<>();
-    private Map<String, Integer> mRequests = new HashMap<>();
-    private int mTotalRequests = 0;
+    private volatile AtomicReferenceArray<DataPool<ReceivedValue>> mValues;
+    private List<Future<Serializable>> mResults;
+    // Slaves yet to end the stream of values of each key, END_OF_DATA_STREAM comes from all of them concurrently
+    private volatile AtomicIntegerArray mRequests;
+    private final AtomicInteger mTotalRequests = new AtomicInteger(0);
+    // Credits of the values this slave sends, by requester and id the requester gave to the key
+    private Map<PeerCommunicator, Map<Integer, Semaphore>> mCredits = new ConcurrentHashMap<>();
 
     @Override
     public void initialize(TaskParameters parameters) {
         super.initialize(parameters);
         mStorage = parameters.getStorage();
+        mMapOutput = parameters.getMapOutput();
+        mTask = parameters.getTask();
         mReducer = parameters.getReducer();
     }
 
     @Override
     public void terminate(TaskParameters parameters) {
         mStorage.terminate();
+        if (mMapOutput != null) mMapOutput.delete();
         super.terminate(parameters);
     }
 
     @Override
     public void execute(Message message, PeerCommunicator sender) {
         switch (message.getCode()) {
-            case Messages.LOAD_SLAVE_ADDRESSES: // param = { address }
-                mSlaveAddresses = Arrays.asList(message.<InetAddress[]>getData());
+            case Messages.LOAD_SLAVE_ADDRESSES: // param = { nodeId }
+                mSlaves = Arrays.asList(message.<NodeId[]>getData());
                 break;
             case Messages.REDUCE_KEYS: // param = { key }
                 mKeys = Arrays.asList(message.<String[]>getData());
                 startReduce();
                 break;
-            case Messages.KEY_VALUE: // param = (key, value)
+            case Messages.KEY_VALUE: // param = (keyId, value)
                 Datum datum = message.getData();
-                //noinspection unchecked
-                mValues.get(datum.getKey()).yield(datum.getValue());
+                mValues.get(datum.getKeyId()).yield(new ReceivedValue(sender, datum));
+                break;
+            case Messages.REQUEST_VALUES: // param = (key, keyId)
+                Datum request = message.getData();
+                int requestedKeyId = (int) request.getLong();
+                Map<Integer, Semaphore> requesterCredits = mCredits.get(sender);
+                if (requesterCredits == null) {
+                    requesterCredits = new ConcurrentHashMap<>();
+                    mCredits.put(sender, requesterCredits);
+                }
+                requesterCredits.put(requestedKeyId, new Semaphore(INITIAL_CREDITS));
+                mValueSendersThreadPool.submit(new ValueSender(sender, request.getKey(), requestedKeyId));
                 break;
-            case Messages.REQUEST_VALUES: // param = key
-                ValueSender task = new ValueSender(sender, message.<String>getData());
-                mValueSendersThreadPool.submit(task);
+            case Messages.GRANT_CREDITS: // param = (keyId, credits)
+                Datum grant = message.getData();
+                Map<Integer, Semaphore> grantedCredits = mCredits.get(sender);
+                Semaphore credits = (grantedCredits != null) ? grantedCredits.get(grant.getKeyId()) : null;
+                if (credits != null) credits.release((Integer) grant.getValue());
                 break;
-            case Messages.END_OF_DATA_STREAM: // param = key
-                String key = message.getData();
-                int n = mRequests.get(key) - 1;
-                mRequests.put(key, n);
-                if (n == 0) {
-                    mValues.get(key).close();
-                    mCollectorsThreadPool.submit(new CollectResultTask(key));
+            case Messages.END_OF_DATA_STREAM: // param = keyId
+                int keyId = message.<Integer>getData();
+                if (mRequests.decrementAndGet(keyId) == 0) {
+                    mValues.get(keyId).close();
+                    mCollectorsThreadPool.submit(new CollectResultTask(keyId));
                 }
-                mTotalRequests--;
-                if (mTotalRequests == 0) {
+                if (mTotalRequests.decrementAndGet() == 0) {
                     endReduce();
                 }
                 break;
@@ -87,80 +132,306 @@ public class ReducePhase extends Phase {
         try {
             mCollectorsThreadPool.shutdown();
             mCollectorsThreadPool.awaitTermination(INFINITY_TIME_OUT, TimeUnit.SECONDS);
+            mReducersThreadPool.shutdown();
+            mReducersThreadPool.awaitTermination(INFINITY_TIME_OUT, TimeUnit.SECONDS);
+            for (ReduceWorker worker : mWorkers) worker.cleanup();
             dispatchMessageToMaster(new Message(Messages.END_OF_RESULT_STREAM));
+            flush(mMasterConnection);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
     private void startReduce() {
-        for (String key : mKeys) {
-            DataPool pool = new DataPool();
-            mValues.put(key, pool);
-            requestValues(key);
-            Future<Serializable> result = mReducersThreadPool.submit(new ReduceTask(key, pool));
-            mResults.put(key, result);
+        mValues = new AtomicReferenceArray<>(mKeys.size());
+        mResults = new ArrayList<>(mKeys.size());
+        AtomicIntegerArray requests = new AtomicIntegerArray(mKeys.size());
+        for (int keyId = 0; keyId < mKeys.size(); keyId++) requests.set(keyId, mSlaves.size());
+        mTotalRequests.set(mKeys.size() * mSlaves.size());
+        mRequests = requests;
+        for (int keyId = 0; keyId < mKeys.size(); keyId++) {
+            mResults.add(mReducersThreadPool.submit(new ReduceTask(keyId)));
         }
     }
 
-    private void requestValues(String key) {
-        int size = mSlaveAddresses.size();
-        mRequests.put(key, size);
-        mTotalRequests += size;
-        for (InetAddress slaveAddress : mSlaveAddresses) {
-            dispatchMessageToSlave(slaveAddress, new Message(Messages.REQUEST_VALUES, key));
+    /**
+     * Called by the reducer thread of the key, once the pool its values go to is there.
+     */
+    private void requestValues(int keyId) {
+        // The only message carrying the key itself, the others carry the id given to it here
+        Message request = new Message(Messages.REQUEST_VALUES, new Datum(mKeys.get(keyId), (long) keyId));
+        for (NodeId slave : mSlaves) {
+            dispatchMessageToSlave(slave, request);
+        }
+    }
+
+    /**
+     * The reducer instance of the current reducer thread.
+     */
+    private final ThreadLocal<ReduceWorker> mWorker = new ThreadLocal<ReduceWorker>() {
+        @Override
+        protected ReduceWorker initialValue() {
+            ReduceWorker worker = new ReduceWorker(mTask.newReducer());
+            int index;
+            synchronized (mWorkers) {
+                index = mWorkers.size();
+                mWorkers.add(worker);
+            }
+            worker.setup(index);
+            return worker;
+        }
+    };
+
+    private class ReduceWorker implements MapYielder {
+
+        private final Reducer mReducer;
+
+        private ReduceWorker(Reducer reducer) {
+            mReducer = reducer;
+        }
+
+        private void setup(int index) {
+            if (mReducer instanceof TaskLifecycle) {
+                String taskName = mTask.getDescriptor().getTaskName();
+                ((TaskLifecycle) mReducer).setup(new TaskContext(taskName, index, REDUCE_THREADS));
+            }
+        }
+
+        private void cleanup() {
+            if (mReducer instanceof TaskLifecycle) ((TaskLifecycle) mReducer).cleanup(this);
+        }
+
+        @Override
+        public void yield(String key, Serializable value) {
+            dispatchMessageToMaster(new Message(Messages.RESULT_PAIR, new Datum(key, value)));
+        }
+
+        @Override
+        public void yield(String key, int value) {
+            dispatchMessageToMaster(new Message(Messages.RESULT_PAIR, new Datum(key, value)));
+        }
+
+        @Override
+        public void yield(String key, long value) {
+            dispatchMessageToMaster(new Message(Messages.RESULT_PAIR, new Datum(key, value)));
+        }
+
+        @Override
+        public void yield(String key, double value) {
+            dispatchMessageToMaster(new Message(Messages.RESULT_PAIR, new Datum(key, value)));
+        }
+
+        @Override
+        public void yield(CharSequence key, Serializable value) {
+            this.yield(key.toString(), value);
+        }
+
+        @Override
+        public void yield(CharSequence key, int value) {
+            this.yield(key.toString(), value);
+        }
+
+        @Override
+        public void yield(CharSequence key, long value) {
+            this.yield(key.toString(), value);
+        }
+
+        @Override
+        public void yield(CharSequence key, double value) {
+            this.yield(key.toString(), value);
         }
     }
 
     private class ReduceTask implements Callable<Serializable> {
 
-        private final String mKey;
-        private final DataPool mDataPool;
+        private final int mKeyId;
 
-        private ReduceTask(String key, DataPool dataPool) {
-            mKey = key;
-            mDataPool = dataPool;
+        private ReduceTask(int keyId) {
+            mKeyId = keyId;
         }
 
         @Override
         public Serializable call() throws Exception {
-            //noinspection unchecked
-            return mReducer.reduce(mKey, mDataPool);
+            Reducer reducer = mWorker.get().mReducer;
+            // Credits never let senders get further ahead than this, so the message handler never blocks on a yield
+            DataPool<ReceivedValue> pool = new DataPool<>(mSlaves.size() * INITIAL_CREDITS);
+            mValues.set(mKeyId, pool);
+            requestValues(mKeyId);
+            Iterator<Datum> values = new IteratorAdapter<>(pool.batchedIterator(VALUES_BATCH_SIZE),
+                    new CreditGranter(mKeyId));
+            String key = mKeys.get(mKeyId);
+            try {
+                if (reducer instanceof LongReducer) {
+                    return ((LongReducer) reducer).reduce(key, new LongValues(values));
+                }
+                if (reducer instanceof DoubleReducer) {
+                    return ((DoubleReducer) reducer).reduce(key, new DoubleValues(values));
+                }
+                //noinspection unchecked
+                return reducer.reduce(key, new SimpleIterable<>(new IteratorAdapter<>(values, sValueConverter)));
+            } finally {
+                // The reducer may stop early, keep granting credits so that senders reach the end of their streams
+                while (values.hasNext()) values.next();
+            }
+        }
+    }
+
+    private static final Converter<Datum, Serializable> sValueConverter = new Converter<Datum, Serializable>() {
+        @Override
+        public Serializable convert(Datum datum) {
+            return datum.getValue();
+        }
+    };
+
+    /**
+     * Senders read values raw for a {@link LongReducer}, the boxed fallback is for values that were yielded as objects.
+     */
+    private static class LongValues implements LongIterator {
+
+        private final Iterator<Datum> mValues;
+
+        private LongValues(Iterator<Datum> values) {
+            mValues = values;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mValues.hasNext();
+        }
+
+        @Override
+        public long nextLong() {
+            Datum datum = mValues.next();
+            return datum.isLong() ? datum.getLong() : ((Number) datum.getValue()).longValue();
+        }
+    }
+
+    private static class DoubleValues implements DoubleIterator {
+
+        private final Iterator<Datum> mValues;
+
+        private DoubleValues(Iterator<Datum> values) {
+            mValues = values;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mValues.hasNext();
+        }
+
+        @Override
+        public double nextDouble() {
+            Datum datum = mValues.next();
+            return datum.isDouble() ? datum.getDouble() : ((Number) datum.getValue()).doubleValue();
+        }
+    }
+
+    private static class ReceivedValue {
+
+        private final PeerCommunicator mSource;
+        private final Datum mDatum;
+
+        private ReceivedValue(PeerCommunicator source, Datum datum) {
+            mSource = source;
+            mDatum = datum;
+        }
+    }
+
+    /**
+     * Unwraps values as the reducer consumes them, granting credits back to their senders every CREDITS_PER_GRANT
+     * values. Only used by the reducer thread.
+     */
+    private class CreditGranter implements Converter<ReceivedValue, Datum> {
+
+        private final int mKeyId;
+        private final Map<PeerCommunicator, Integer> mConsumed = new HashMap<>();
+
+        private CreditGranter(int keyId) {
+            mKeyId = keyId;
+        }
+
+        @Override
+        public Datum convert(ReceivedValue received) {
+            Integer consumed = mConsumed.get(received.mSource);
+            consumed = (consumed == null) ? 1 : consumed + 1;
+            if (consumed == CREDITS_PER_GRANT) {
+                respondToSlave(received.mSource, new Message(Messages.GRANT_CREDITS, new Datum(mKeyId, consumed)));
+                consumed = 0;
+            }
+            mConsumed.put(received.mSource, consumed);
+            return received.mDatum;
         }
     }
 
     private class ValueSender implements Runnable {
 
         private final String mKey;
+        private final int mKeyId;
         private final PeerCommunicator mRequester;
 
-        private ValueSender(PeerCommunicator requester, String key) {
+        private ValueSender(PeerCommunicator requester, String key, int keyId) {
             mRequester = requester;
             mKey = key;
+            mKeyId = keyId;
         }
 
         @Override
         public void run() {
-            for (Serializable value : mStorage.read(mKey)) {
-                respondToSlave(mRequester, new Message(Messages.KEY_VALUE, new Datum(mKey, value)));
+            Map<Integer, Semaphore> requesterCredits = mCredits.get(mRequester);
+            Semaphore credits = requesterCredits.get(mKeyId);
+            // A stream per key, so that small keys are not stuck behind large ones
+            MessageStream stream;
+            try {
+                stream = mRequester.openStream();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            try {
+                // Values are read and sent raw for the primitive reducers, every slave has the same reducer
+                if (mMapOutput != null) {
+                    // Raw if they were yielded raw, the reducer unboxes the others
+                    Iterator<Datum> values = mMapOutput.read(mKey, mKeyId);
+                    while (values.hasNext()) send(stream, credits, values.next());
+                } else if (mReducer instanceof LongReducer) {
+                    LongIterator values = mStorage.readLongs(mKey);
+                    while (values.hasNext()) send(stream, credits, new Datum(mKeyId, values.nextLong()));
+                } else if (mReducer instanceof DoubleReducer) {
+                    DoubleIterator values = mStorage.readDoubles(mKey);
+                    while (values.hasNext()) send(stream, credits, new Datum(mKeyId, values.nextDouble()));
+                } else {
+                    for (Serializable value : mStorage.read(mKey)) send(stream, credits, new Datum(mKeyId, value));
+                }
+                respondToSlave(stream, new Message(Messages.END_OF_DATA_STREAM, mKeyId));
+                flush(stream);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                requesterCredits.remove(mKeyId);
+                stream.close();
             }
-            respondToSlave(mRequester, new Message(Messages.END_OF_DATA_STREAM, mKey));
+        }
+
+        private void send(MessageStream stream, Semaphore credits, Datum datum) throws InterruptedException {
+            credits.acquire();
+            respondToSlave(stream, new Message(Messages.KEY_VALUE, datum));
         }
     }
 
     private class CollectResultTask implements Runnable {
 
-        private final String mKey;
+        private final int mKeyId;
 
-        public CollectResultTask(String key) {
-            mKey = key;
+        public CollectResultTask(int keyId) {
+            mKeyId = keyId;
         }
 
         @Override
         public void run() {
-            Future<Serializable> future = mResults.get(mKey);
+            Future<Serializable> future = mResults.get(mKeyId);
             try {
-                Datum datum = new Datum(mKey, future.get());
+                // Results go out with the key itself
+                Datum datum = new Datum(mKeys.get(mKeyId), future.get());
                 dispatchMessageToMaster(new Message(Messages.RESULT_PAIR, datum));
             } catch (InterruptedException | ExecutionException e) {
                 e.printStackTrace();
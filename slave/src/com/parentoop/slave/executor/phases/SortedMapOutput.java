@@ -0,0 +1,617 @@
+package com.parentoop.slave.executor.phases;
+
+import com.parentoop.core.api.Combiner;
+import com.parentoop.core.data.Datum;
+import com.parentoop.core.data.DatumSlab;
+import com.parentoop.core.data.Yielder;
+import com.parentoop.network.api.codec.ObjectCodec;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Map output sorted by key, like Hadoop's sort buffer. The slabs filled by the mappers are held, along with the
+ * offsets of their records chained by key, until they take the buffer size. The keys are then sorted and the records
+ * of each one are spilled in turn to a run file, combined if the task has a combiner. Chaining records by key as they
+ * are added, instead of sorting the records themselves, spares comparing keys that are equal, which most are.
+ * {@link #finish()} merges the runs into a single sorted file, combining the values of each key across runs, with a
+ * sparse index of its keys. Reading the values of a key is then a lookup in the index and a sequential scan of the
+ * file, values in the order they were added.
+ * <p>
+ * Files are made of groups: the number of values, the key, the length in bytes of the values and the values, each a
+ * type followed by a zig-zag varint, a double or an object encoded by {@link ObjectCodec}. A key may span consecutive
+ * groups, so that a group is never buffered whole however many values its key has. A zero count ends the file.
+ * <p>
+ * Filled by the data persistor thread, then read by any number of threads once finished.
+ */
+public class SortedMapOutput {
+
+    private static final byte OBJECT = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+
+    // Bytes of values a group is closed at, the key goes on in a new group if it has more
+    private static final int GROUP_SIZE = 64 * 1024;
+    // Bytes of a file between two keys of its index
+    private static final int INDEX_INTERVAL = 16 * 1024;
+    // Runs merged at a time, larger numbers of runs are merged in levels of groups this size
+    private static final int MERGE_FACTOR = 64;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    // Rough footprint of a key in the buffer besides its chars: the map entry and the chain
+    private static final int KEY_OVERHEAD = 96;
+
+    private final long mBufferSize;
+    private final CombinerTable mCombinerTable;
+    private final ClassLoader mClassLoader;
+    private final Yielder<DatumSlab> mRecycler;
+    private Path mDirectory;
+
+    private final List<DatumSlab> mSlabs = new ArrayList<>();
+    private long mBufferedBytes = 0;
+    private final Map<String, Chain> mChains = new HashMap<>();
+    // Index of the slab in the high half and offset in the low half, by index of the record
+    private long[] mLocations = new long[1024];
+    // Index of the next record of the same key, by index of the record
+    private int[] mNext = new int[1024];
+    private int mRecordCount = 0;
+    private final DatumSlab.Reader mReader = new DatumSlab.Reader();
+
+    private final List<Run> mRuns = new ArrayList<>();
+    private int mFileCount = 0;
+    // The merged runs, null if nothing was added
+    private Run mOutput;
+
+    /**
+     * @param bufferSize bytes of slabs held before they are spilled.
+     * @param combiner null if the task has none.
+     * @param classLoader the one of the task, objects are read back by it.
+     * @param recycler takes the slabs back once spilled, cleared.
+     */
+    public SortedMapOutput(long bufferSize, Combiner combiner, ClassLoader classLoader,
+                           Yielder<DatumSlab> recycler) {
+        mBufferSize = bufferSize;
+        // Only ever holds the key being combined
+        mCombinerTable = (combiner != null) ? new CombinerTable(combiner, Long.MAX_VALUE) : null;
+        mClassLoader = classLoader;
+        mRecycler = recycler;
+    }
+
+    /**
+     * Adds the record at the offset of the slab, which is held from then on. Records of a slab are added one after the
+     * other.
+     *
+     * @param key the key of the record.
+     */
+    public void add(String key, DatumSlab slab, int offset) {
+        if (mSlabs.isEmpty() || mSlabs.get(mSlabs.size() - 1) != slab) {
+            if (mBufferedBytes >= mBufferSize) spill();
+            mSlabs.add(slab);
+            mBufferedBytes += slab.size();
+        }
+        if (mRecordCount == mLocations.length) {
+            mLocations = Arrays.copyOf(mLocations, 2 * mRecordCount);
+            mNext = Arrays.copyOf(mNext, 2 * mRecordCount);
+        }
+        mLocations[mRecordCount] = ((long) (mSlabs.size() - 1) << 32) | offset;
+        mNext[mRecordCount] = Chain.END;
+        Chain chain = mChains.get(key);
+        if (chain == null) {
+            mChains.put(key, new Chain(mRecordCount));
+            mBufferedBytes += KEY_OVERHEAD + 2 * key.length();
+        } else {
+            mNext[chain.mLast] = mRecordCount;
+            chain.mLast = mRecordCount;
+        }
+        mRecordCount++;
+    }
+
+    /**
+     * Spills what's left and merges the runs, see {@link #read(String, int)}.
+     */
+    public void finish() {
+        spill();
+        try {
+            // Level by level, so that each value is rewritten once per level. Consecutive runs are merged, so that the
+            // values of a key stay in order
+            while (mRuns.size() > MERGE_FACTOR) {
+                List<Run> level = new ArrayList<>();
+                for (int i = 0; i < mRuns.size(); i += MERGE_FACTOR) {
+                    List<Run> group = mRuns.subList(i, Math.min(i + MERGE_FACTOR, mRuns.size()));
+                    level.add((group.size() == 1) ? group.get(0) : merge(group));
+                }
+                mRuns.clear();
+                mRuns.addAll(level);
+            }
+            if (mRuns.size() == 1) {
+                mOutput = mRuns.remove(0);
+            } else if (mRuns.size() > 1) {
+                mOutput = merge(mRuns);
+                mRuns.clear();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw fail(e);
+        }
+    }
+
+    /**
+     * Values of the key, read as they are iterated, as datums with the given key id instead of the key.
+     */
+    public Iterator<Datum> read(String key, int keyId) {
+        if (mOutput == null) return Collections.<Datum>emptyIterator();
+        try {
+            return new ValueIterator(mOutput, key, keyId);
+        } catch (IOException e) {
+            throw error(e);
+        }
+    }
+
+    /**
+     * Deletes the files.
+     */
+    public void delete() {
+        try {
+            if (mOutput != null) Files.deleteIfExists(mOutput.mPath);
+            for (Run run : mRuns) Files.deleteIfExists(run.mPath);
+            if (mDirectory != null) Files.deleteIfExists(mDirectory);
+            mOutput = null;
+            mRuns.clear();
+            mDirectory = null;
+        } catch (IOException e) {
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    /**
+     * Deletes the files and wraps the exception, only for failures while the files are written.
+     */
+    private AssertionError fail(Exception e) {
+        try { delete(); } catch (Exception exc) { /* No-op */ }
+        return error(e);
+    }
+
+    /**
+     * Wraps the exception, for failures of a read, which leave the files to the other readers.
+     */
+    private static AssertionError error(Exception e) {
+        AssertionError error = new AssertionError();
+        error.initCause(e);
+        return error;
+    }
+
+    /**
+     * Sorts the keys held and writes their records to a new run, giving the slabs back.
+     */
+    private void spill() {
+        if (mRecordCount == 0) return;
+        List<String> keys = new ArrayList<>(mChains.keySet());
+        Collections.sort(keys);
+        try {
+            RunWriter writer = new RunWriter();
+            for (String key : keys) {
+                writer.startKey(key);
+                for (int record = mChains.get(key).mFirst; record != Chain.END; record = mNext[record]) {
+                    long location = mLocations[record];
+                    mReader.seek(mSlabs.get((int) (location >>> 32)), (int) location);
+                    if (mReader.isLong()) {
+                        writer.writeLong(mReader.getLong());
+                    } else if (mReader.isDouble()) {
+                        writer.writeDouble(mReader.getDouble());
+                    } else {
+                        writer.writeObject(mReader.getValue());
+                    }
+                }
+                writer.endKey();
+            }
+            mRuns.add(writer.close());
+        } catch (IOException e) {
+            throw fail(e);
+        }
+        for (DatumSlab slab : mSlabs) {
+            slab.clear();
+            mRecycler.yield(slab);
+        }
+        mSlabs.clear();
+        mChains.clear();
+        mBufferedBytes = 0;
+        mRecordCount = 0;
+    }
+
+    /**
+     * Merges the runs into a new one and deletes them. Groups of the same key are taken from the runs in the order
+     * they're given.
+     */
+    private Run merge(List<Run> runs) throws IOException, ClassNotFoundException {
+        PriorityQueue<RunReader> readers = new PriorityQueue<>(runs.size(), mReadersOrder);
+        for (int i = 0; i < runs.size(); i++) {
+            RunReader reader = new RunReader(runs.get(i), 0, i);
+            if (reader.nextGroup()) {
+                readers.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+        RunWriter writer = new RunWriter();
+        while (!readers.isEmpty()) {
+            String key = readers.peek().mKey;
+            writer.startKey(key);
+            while (!readers.isEmpty() && readers.peek().mKey.equals(key)) {
+                RunReader reader = readers.poll();
+                if (mCombinerTable == null) {
+                    writer.copyValues(reader);
+                } else {
+                    while (reader.hasNextValue()) {
+                        reader.nextValue();
+                        writer.writeValue(reader.mType, reader.mRaw, reader.mObject);
+                    }
+                }
+                if (reader.nextGroup()) {
+                    readers.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            writer.endKey();
+        }
+        Run merged = writer.close();
+        for (Run run : runs) Files.delete(run.mPath);
+        return merged;
+    }
+
+    private final Comparator<RunReader> mReadersOrder = new Comparator<RunReader>() {
+        @Override
+        public int compare(RunReader first, RunReader second) {
+            int keys = first.mKey.compareTo(second.mKey);
+            return (keys != 0) ? keys : Integer.compare(first.mOrder, second.mOrder);
+        }
+    };
+
+    private Path newFile() throws IOException {
+        if (mDirectory == null) mDirectory = Files.createTempDirectory("map-output");
+        return mDirectory.resolve("run-" + mFileCount++ + ".bin");
+    }
+
+    /**
+     * First and last records of a key in the buffer.
+     */
+    private static class Chain {
+
+        private static final int END = -1;
+
+        private final int mFirst;
+        private int mLast;
+
+        private Chain(int first) {
+            mFirst = first;
+            mLast = first;
+        }
+    }
+
+    /**
+     * A sorted file and its sparse index: the first key of some of its groups and their offsets, in order.
+     */
+    private static class Run {
+
+        private final Path mPath;
+        private final List<String> mIndexKeys = new ArrayList<>();
+        private final List<Long> mIndexOffsets = new ArrayList<>();
+
+        private Run(Path path) {
+            mPath = path;
+        }
+
+        /**
+         * Offset from which the key is found scanning forward, if it's there, -1 if it's known not to be there.
+         */
+        private long offsetOf(String key) {
+            int index = Collections.binarySearch(mIndexKeys, key);
+            // Otherwise the last key before it
+            if (index < 0) index = -index - 2;
+            return (index < 0) ? -1 : mIndexOffsets.get(index);
+        }
+    }
+
+    /**
+     * Writes the values of each key in turn, combined if there's a combiner.
+     */
+    private class RunWriter {
+
+        private final Run mRun;
+        private final CountingOutputStream mCounter;
+        private final DataOutputStream mOut;
+        private final ByteArrayOutputStream mGroupBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mGroup = new DataOutputStream(mGroupBytes);
+        private final byte[] mCopyBuffer = new byte[8 * 1024];
+        private final CombinedValue mCombinedValue = new CombinedValue();
+        private String mKey;
+        private String mLastGroupKey;
+        private int mCount = 0;
+        private long mLastIndexed = 0;
+
+        private RunWriter() throws IOException {
+            mRun = new Run(newFile());
+            mCounter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(mRun.mPath),
+                    IO_BUFFER_SIZE));
+            mOut = new DataOutputStream(mCounter);
+        }
+
+        private void startKey(String key) {
+            mKey = key;
+        }
+
+        private void writeLong(long value) throws IOException {
+            if (mCombinerTable != null) {
+                mCombinerTable.add(mKey, value);
+                return;
+            }
+            mGroup.writeByte(LONG);
+            ObjectCodec.writeVarLong(mGroup, value);
+            written(1);
+        }
+
+        private void writeDouble(double value) throws IOException {
+            if (mCombinerTable != null) {
+                mCombinerTable.add(mKey, value);
+                return;
+            }
+            mGroup.writeByte(DOUBLE);
+            mGroup.writeDouble(value);
+            written(1);
+        }
+
+        private void writeObject(Serializable value) throws IOException {
+            if (mCombinerTable != null) {
+                mCombinerTable.add(mKey, value);
+                return;
+            }
+            mGroup.writeByte(OBJECT);
+            ObjectCodec.INSTANCE.encode(value, mGroup);
+            written(1);
+        }
+
+        private void writeValue(byte type, long raw, Serializable object) throws IOException {
+            if (type == LONG) {
+                writeLong(raw);
+            } else if (type == DOUBLE) {
+                writeDouble(Double.longBitsToDouble(raw));
+            } else {
+                writeObject(object);
+            }
+        }
+
+        /**
+         * Copies the values of the current group of the reader as they are.
+         */
+        private void copyValues(RunReader reader) throws IOException {
+            for (int left = reader.mLength; left > 0; ) {
+                int length = Math.min(left, mCopyBuffer.length);
+                reader.mIn.readFully(mCopyBuffer, 0, length);
+                mGroup.write(mCopyBuffer, 0, length);
+                left -= length;
+            }
+            int count = reader.mRemaining;
+            reader.mRemaining = 0;
+            written(count);
+        }
+
+        private void written(int count) throws IOException {
+            mCount += count;
+            if (mGroupBytes.size() >= GROUP_SIZE) writeGroup();
+        }
+
+        private void endKey() throws IOException {
+            if (mCombinerTable != null) {
+                // The table only holds the key, it yields a single value
+                mCombinerTable.flush(mCombinedValue);
+                Datum combined = mCombinedValue.mDatum;
+                if (combined.isLong()) {
+                    mGroup.writeByte(LONG);
+                    ObjectCodec.writeVarLong(mGroup, combined.getLong());
+                } else if (combined.isDouble()) {
+                    mGroup.writeByte(DOUBLE);
+                    mGroup.writeDouble(combined.getDouble());
+                } else {
+                    mGroup.writeByte(OBJECT);
+                    ObjectCodec.INSTANCE.encode(combined.getValue(), mGroup);
+                }
+                mCount = 1;
+            }
+            if (mCount > 0) writeGroup();
+        }
+
+        private void writeGroup() throws IOException {
+            long offset = mCounter.getCount();
+            // Only the first group of a key is indexed, so that a lookup never starts past some of its values
+            boolean first = !mKey.equals(mLastGroupKey);
+            if (first && (mRun.mIndexKeys.isEmpty() || offset - mLastIndexed >= INDEX_INTERVAL)) {
+                mRun.mIndexKeys.add(mKey);
+                mRun.mIndexOffsets.add(offset);
+                mLastIndexed = offset;
+            }
+            ObjectCodec.writeVarInt(mOut, mCount);
+            ObjectCodec.writeString(mOut, mKey);
+            ObjectCodec.writeVarInt(mOut, mGroupBytes.size());
+            mGroupBytes.writeTo(mOut);
+            mGroupBytes.reset();
+            mCount = 0;
+            mLastGroupKey = mKey;
+        }
+
+        private Run close() throws IOException {
+            ObjectCodec.writeVarInt(mOut, 0);
+            mOut.close();
+            return mRun;
+        }
+    }
+
+    private static class CombinedValue implements Yielder<Datum> {
+
+        private Datum mDatum;
+
+        @Override
+        public void yield(Datum datum) {
+            mDatum = datum;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long mCount = 0;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        private long getCount() {
+            return mCount;
+        }
+    }
+
+    /**
+     * Reads the groups of a run from an offset, and their values. A group whose values weren't read is skipped.
+     */
+    private class RunReader implements Closeable {
+
+        // Of the run among the ones merged
+        private final int mOrder;
+        private final DataInputStream mIn;
+        private String mKey;
+        private int mLength;
+        private int mRemaining = 0;
+        private boolean mValuesRead = false;
+
+        private byte mType;
+        // The long or the bits of the double
+        private long mRaw;
+        private Serializable mObject;
+
+        private RunReader(Run run, long offset, int order) throws IOException {
+            mOrder = order;
+            FileChannel channel = FileChannel.open(run.mPath, StandardOpenOption.READ);
+            channel.position(offset);
+            mIn = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), IO_BUFFER_SIZE));
+        }
+
+        /**
+         * @return false at the end of the file.
+         */
+        private boolean nextGroup() throws IOException {
+            if (mRemaining > 0 && !mValuesRead) {
+                for (int left = mLength; left > 0; ) {
+                    int skipped = mIn.skipBytes(left);
+                    if (skipped == 0) throw new EOFException();
+                    left -= skipped;
+                }
+            }
+            mRemaining = ObjectCodec.readVarInt(mIn);
+            if (mRemaining == 0) return false;
+            mKey = ObjectCodec.readString(mIn);
+            mLength = ObjectCodec.readVarInt(mIn);
+            mValuesRead = false;
+            return true;
+        }
+
+        private boolean hasNextValue() {
+            return mRemaining > 0;
+        }
+
+        private void nextValue() throws IOException, ClassNotFoundException {
+            mValuesRead = true;
+            mRemaining--;
+            mType = mIn.readByte();
+            if (mType == LONG) {
+                mRaw = ObjectCodec.readVarLong(mIn);
+            } else if (mType == DOUBLE) {
+                mRaw = Double.doubleToRawLongBits(mIn.readDouble());
+            } else {
+                mObject = (Serializable) ObjectCodec.INSTANCE.decode(mIn, mClassLoader);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+
+    /**
+     * Scans the output from the closest key in the index before the one read, through the groups of the key.
+     */
+    private class ValueIterator implements Iterator<Datum> {
+
+        private final String mKey;
+        private final int mKeyId;
+        private final RunReader mReader;
+        private boolean mOpen;
+
+        private ValueIterator(Run run, String key, int keyId) throws IOException {
+            mKey = key;
+            mKeyId = keyId;
+            long offset = run.offsetOf(key);
+            mReader = (offset >= 0) ? new RunReader(run, offset, 0) : null;
+            mOpen = mReader != null;
+            // Skips the groups of the keys before it
+            while (mOpen && nextGroup() && mReader.mKey.compareTo(key) < 0) { /* Skips */ }
+            if (mOpen && !mReader.mKey.equals(key)) close();
+        }
+
+        private boolean nextGroup() throws IOException {
+            if (mReader.nextGroup()) return true;
+            close();
+            return false;
+        }
+
+        private void close() throws IOException {
+            mOpen = false;
+            mReader.close();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (mOpen && !mReader.hasNextValue()) {
+                    if (nextGroup() && !mReader.mKey.equals(mKey)) close();
+                }
+                return mOpen;
+            } catch (IOException e) {
+                throw error(e);
+            }
+        }
+
+        @Override
+        public Datum next() {
+            if (!hasNext()) throw new IllegalAccessError();
+            try {
+                mReader.nextValue();
+            } catch (IOException | ClassNotFoundException e) {
+                throw error(e);
+            }
+            if (mReader.mType == LONG) return new Datum(mKeyId, mReader.mRaw);
+            if (mReader.mType == DOUBLE) return new Datum(mKeyId, Double.longBitsToDouble(mReader.mRaw));
+            return new Datum(mKeyId, mReader.mObject);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -16,4 +16,14 @@ public class ServiceUtils {
         return i.next();
     }
 
+    /**
+     * Loads the provider of the service with the given class name, whatever the order the providers are found in.
+     */
+    public static <T> T load(Class<T> service, String className) {
+        for (T provider : ServiceLoader.load(service)) {
+            if (provider.getClass().getName().equals(className)) return provider;
+        }
+        throw new ServiceNotAvailableException(className + " does not provide " + service.getName());
+    }
+
 }
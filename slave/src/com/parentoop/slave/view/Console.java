@@ -28,6 +28,7 @@ public class Console {
     }
 
     private InetAddress mMasterAddress;
+    private String mAdvertisedHost;
     private final InputStream mInput;
     private final PrintStream mOutput;
 
@@ -42,6 +43,8 @@ public class Console {
             arg = arg.trim();
             if (Arrays.asList("-v", "--verbose").contains(arg)) {
                 sVerbose = true;
+            } else if (arg.startsWith("--host=")) {
+                mAdvertisedHost = arg.substring("--host=".length());
             } else {
                 setMasterAddress(arg);
             }
@@ -65,7 +68,7 @@ public class Console {
         boolean connected = false;
         while (!connected) {
             try {
-                PhaseExecutor executor = new PhaseExecutor(mMasterAddress);
+                PhaseExecutor executor = new PhaseExecutor(mMasterAddress, mAdvertisedHost);
                 executor.initialize();
                 connected = true;
             } catch (IOException e) {
@@ -0,0 +1,141 @@
+package com.parentoop.slave.executor.phases;
+
+import com.parentoop.core.api.Combiner;
+import com.parentoop.core.api.DoubleCombiner;
+import com.parentoop.core.api.LongCombiner;
+import com.parentoop.core.data.Datum;
+import com.parentoop.core.data.Yielder;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CombinerTableTest {
+
+    private final Map<String, Datum> mFlushed = new HashMap<>();
+    private final Yielder<Datum> mYielder = new Yielder<Datum>() {
+        @Override
+        public void yield(Datum datum) {
+            assertNull(mFlushed.put(datum.getKey(), datum));
+        }
+    };
+
+    @Test
+    public void testAddSignalsBudget() {
+        // A few entries' worth
+        CombinerTable table = new CombinerTable(new LongSum(), 1024);
+        int added = 0;
+        while (!table.add("key" + added, 1L)) added++;
+        assertTrue(added > 0);
+        // Combining into entries already there takes no room
+        for (int i = 0; i < 100; i++) assertFalse(table.add("key0", 1L));
+
+        table.flush(mYielder);
+        assertEquals(added + 1, mFlushed.size());
+        assertEquals(101, mFlushed.get("key0").getLong());
+
+        // Flushing empties the table, so it takes as many keys again
+        mFlushed.clear();
+        for (int i = 0; i < added; i++) assertFalse(table.add("other" + i, 1L));
+        assertTrue(table.add("other" + added, 1L));
+        table.flush(mYielder);
+        assertEquals(added + 1, mFlushed.size());
+    }
+
+    @Test
+    public void testCombineLongs() {
+        CombinerTable table = new CombinerTable(new LongSum(), Long.MAX_VALUE);
+        for (int i = 1; i <= 100; i++) table.add("a", (long) i);
+        table.add("b", -1L);
+        table.flush(mYielder);
+        assertTrue(mFlushed.get("a").isLong());
+        assertEquals(5050, mFlushed.get("a").getLong());
+        assertEquals(-1, mFlushed.get("b").getLong());
+    }
+
+    @Test
+    public void testCombineDoubles() {
+        CombinerTable table = new CombinerTable(new DoubleSum(), Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) table.add("a", 0.5);
+        table.flush(mYielder);
+        assertTrue(mFlushed.get("a").isDouble());
+        assertEquals(5.0, mFlushed.get("a").getDouble(), 0);
+    }
+
+    @Test
+    public void testCombineObjects() {
+        CombinerTable table = new CombinerTable(new Concatenation(), Long.MAX_VALUE);
+        table.add("a", "x");
+        table.add("a", "y");
+        table.add("a", "z");
+        table.flush(mYielder);
+        assertEquals("xyz", mFlushed.get("a").getValue());
+    }
+
+    @Test
+    public void testRawValuesOfObjectCombinerAreCombinedBoxed() {
+        CombinerTable table = new CombinerTable(new ObjectSum(), Long.MAX_VALUE);
+        table.add("a", 1L);
+        table.add("a", 2L);
+        table.flush(mYielder);
+        Datum datum = mFlushed.get("a");
+        assertFalse(datum.isLong());
+        assertEquals(3L, datum.getValue());
+    }
+
+    @Test
+    public void testMixedValuesFallBackToObjects() {
+        CombinerTable table = new CombinerTable(new LongSum(), Long.MAX_VALUE);
+        table.add("a", 1L);
+        table.add("a", (Long) 2L);
+        table.add("a", 3L);
+        table.flush(mYielder);
+        Datum datum = mFlushed.get("a");
+        assertFalse(datum.isLong());
+        assertEquals(6L, datum.getValue());
+    }
+
+    private static class LongSum implements LongCombiner {
+
+        @Override
+        public long combine(String key, long accumulated, long value) {
+            return accumulated + value;
+        }
+
+        @Override
+        public Long combine(String key, Long accumulated, Long value) {
+            return accumulated + value;
+        }
+    }
+
+    private static class DoubleSum implements DoubleCombiner {
+
+        @Override
+        public double combine(String key, double accumulated, double value) {
+            return accumulated + value;
+        }
+
+        @Override
+        public Double combine(String key, Double accumulated, Double value) {
+            return accumulated + value;
+        }
+    }
+
+    private static class ObjectSum implements Combiner<Long> {
+
+        @Override
+        public Long combine(String key, Long accumulated, Long value) {
+            return accumulated + value;
+        }
+    }
+
+    private static class Concatenation implements Combiner<String> {
+
+        @Override
+        public String combine(String key, String accumulated, String value) {
+            return accumulated + value;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.parentoop.slave.executor.phases;
+
+import com.parentoop.core.networking.Messages;
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.LongIterator;
+import com.parentoop.network.api.*;
+import com.parentoop.network.api.messaging.MessageHandler;
+import com.parentoop.slave.api.SlaveStorage;
+import com.parentoop.slave.executor.TaskParameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MapPhaseTest {
+
+    private static final long TIMEOUT = 1000;
+
+    private NodeServer mMaster;
+    private NodeServer mSlaveConnection;
+    private NodeClient mMasterConnection;
+    private final BlockingQueue<Message> mMasterMessages = new LinkedBlockingQueue<>();
+    private final RecordingStorage mStorage = new RecordingStorage();
+    private final TaskParameters mParameters = new TaskParameters();
+
+    @Before
+    public void setUp() throws IOException {
+        Loopback.setEnabled(true);
+        mMaster = new NodeServer(0, new MessageHandler() {
+            @Override
+            public void handle(Message message, PeerCommunicator sender) {
+                mMasterMessages.add(message);
+            }
+        });
+        mMaster.startServer();
+        mSlaveConnection = new NodeServer(0, null);
+        mSlaveConnection.startServer();
+        mSlaveConnection.setNodeId(NodeId.create(null, mSlaveConnection.getPort()));
+        mMasterConnection = new NodeClient(mSlaveConnection.getNodeId(), InetAddress.getLoopbackAddress(),
+                mMaster.getPort(), null);
+        mParameters.setMasterConnection(mMasterConnection);
+        mParameters.setSlaveConnection(mSlaveConnection);
+        mParameters.setStorage(mStorage);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mMasterConnection.shutdown();
+        mSlaveConnection.shutdown();
+        mMaster.shutdown();
+        Loopback.setEnabled(false);
+    }
+
+    @Test
+    public void testEndMapWithoutChunks() throws InterruptedException {
+        // More slaves than batches of chunks, this one got none
+        MapPhase phase = new MapPhase();
+        phase.initialize(mParameters);
+        assertEquals(Messages.IDLE, mMasterMessages.poll(TIMEOUT, TimeUnit.MILLISECONDS).getCode());
+
+        phase.execute(new Message(Messages.END_MAP), null);
+        assertTrue(phase.nextPhase() instanceof ReducePhase);
+        assertEquals(Messages.IDLE, mMasterMessages.poll(TIMEOUT, TimeUnit.MILLISECONDS).getCode());
+        assertEquals(2, mStorage.mCalls.size());
+        assertEquals("beginBulkLoad", mStorage.mCalls.get(0));
+        assertEquals("endBulkLoad", mStorage.mCalls.get(1));
+    }
+
+    private static class RecordingStorage implements SlaveStorage<Serializable> {
+
+        private final List<String> mCalls = new ArrayList<>();
+
+        @Override
+        public void initialize() {
+            /* No-op */
+        }
+
+        @Override
+        public void terminate() {
+            /* No-op */
+        }
+
+        @Override
+        public void beginBulkLoad() {
+            mCalls.add("beginBulkLoad");
+        }
+
+        @Override
+        public void endBulkLoad() {
+            mCalls.add("endBulkLoad");
+        }
+
+        @Override
+        public void insert(String key, Serializable value) {
+            mCalls.add("insert");
+        }
+
+        @Override
+        public void insertLong(String key, long value) {
+            mCalls.add("insertLong");
+        }
+
+        @Override
+        public void insertDouble(String key, double value) {
+            mCalls.add("insertDouble");
+        }
+
+        @Override
+        public Iterable<Serializable> read(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public LongIterator readLongs(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DoubleIterator readDoubles(String key) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.parentoop.slave.executor.phases;
+
+import com.parentoop.core.api.LongCombiner;
+import com.parentoop.core.data.Datum;
+import com.parentoop.core.data.DatumSlab;
+import com.parentoop.core.data.Yielder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SortedMapOutputTest {
+
+    private static final int KEY_ID = 7;
+    // Spills at every new slab
+    private static final long TINY_BUFFER = 1;
+
+    private SortedMapOutput mOutput;
+    private final List<DatumSlab> mRecycled = new ArrayList<>();
+    private final Yielder<DatumSlab> mRecycler = new Yielder<DatumSlab>() {
+        @Override
+        public void yield(DatumSlab slab) {
+            mRecycled.add(slab);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        if (mOutput != null) mOutput.delete();
+    }
+
+    @Test
+    public void testSingleRun() {
+        mOutput = newOutput(Long.MAX_VALUE, null);
+        DatumSlab slab = new DatumSlab(64);
+        add(slab, "b", 1L);
+        addObject(slab, "a", "first");
+        add(slab, "b", 2.5);
+        addObject(slab, "a", 3);
+        mOutput.finish();
+
+        Iterator<Datum> a = mOutput.read("a", KEY_ID);
+        assertEquals("first", a.next().getValue());
+        Datum datum = a.next();
+        assertEquals(Integer.valueOf(3), datum.getValue());
+        assertEquals(KEY_ID, datum.getKeyId());
+        assertFalse(a.hasNext());
+
+        Iterator<Datum> b = mOutput.read("b", KEY_ID);
+        assertEquals(1L, b.next().getLong());
+        assertEquals(2.5, b.next().getDouble(), 0);
+        assertFalse(b.hasNext());
+
+        assertFalse(mOutput.read("c", KEY_ID).hasNext());
+        assertFalse(mOutput.read("0", KEY_ID).hasNext());
+        assertEquals(1, mRecycled.size());
+        assertTrue(mRecycled.get(0).isEmpty());
+    }
+
+    @Test
+    public void testNothingAdded() {
+        mOutput = newOutput(Long.MAX_VALUE, null);
+        mOutput.finish();
+        assertFalse(mOutput.read("a", KEY_ID).hasNext());
+    }
+
+    @Test
+    public void testSeveralSpillsKeepOrder() {
+        mOutput = newOutput(1024, null);
+        int slabs = 0;
+        DatumSlab slab = null;
+        for (int i = 0; i < 10000; i++) {
+            if (i % 100 == 0) {
+                slab = new DatumSlab(1024);
+                slabs++;
+            }
+            addObject(slab, "key" + (i % 13), i);
+        }
+        mOutput.finish();
+        assertEquals(slabs, mRecycled.size());
+        assertValuesInOrder(13, 10000);
+    }
+
+    @Test
+    public void testMergeInSeveralPasses() {
+        mOutput = newOutput(TINY_BUFFER, null);
+        // A run per record, several times the runs merged at a time
+        for (int i = 0; i < 1000; i++) {
+            DatumSlab slab = new DatumSlab(32);
+            addObject(slab, "key" + (i % 5), i);
+        }
+        mOutput.finish();
+        assertValuesInOrder(5, 1000);
+    }
+
+    @Test
+    public void testMergeInSeveralLevels() {
+        mOutput = newOutput(TINY_BUFFER, null);
+        // Three levels, the last run of the first two is a group of its own
+        int runs = 64 * 64 + 1;
+        for (int i = 0; i < runs; i++) {
+            DatumSlab slab = new DatumSlab(32);
+            addObject(slab, "key" + (i % 5), i);
+        }
+        mOutput.finish();
+        assertValuesInOrder(5, runs);
+    }
+
+    @Test
+    public void testKeySpanningRunsAndIndexBlocks() {
+        mOutput = newOutput(64 * 1024, null);
+        // Many keys before and after the large one, so that the index has several entries around it
+        int values = 100000;
+        DatumSlab slab = null;
+        for (int i = 0; i < values; i++) {
+            if (i % 1000 == 0) slab = new DatumSlab(16 * 1024);
+            add(slab, "large", (long) i);
+            addObject(slab, String.format("small%05d", i), i);
+        }
+        mOutput.finish();
+        assertTrue(mRecycled.size() > 1);
+
+        Iterator<Datum> large = mOutput.read("large", KEY_ID);
+        for (int i = 0; i < values; i++) assertEquals(i, large.next().getLong());
+        assertFalse(large.hasNext());
+        for (int i = 0; i < values; i += 997) {
+            Iterator<Datum> small = mOutput.read(String.format("small%05d", i), KEY_ID);
+            assertEquals(Integer.valueOf(i), small.next().getValue());
+            assertFalse(small.hasNext());
+        }
+        assertFalse(mOutput.read("larger", KEY_ID).hasNext());
+    }
+
+    @Test
+    public void testCombinerOnSpill() {
+        mOutput = newOutput(1024, new SumCombiner());
+        DatumSlab slab = null;
+        for (int i = 0; i < 10000; i++) {
+            if (i % 100 == 0) slab = new DatumSlab(1024);
+            add(slab, "key" + (i % 3), 1L);
+        }
+        // Objects and longs of the same key are combined as objects
+        add(slab, "mixed", 1L);
+        addObject(slab, "mixed", 2L);
+        mOutput.finish();
+
+        for (int k = 0; k < 3; k++) {
+            Iterator<Datum> values = mOutput.read("key" + k, KEY_ID);
+            Datum combined = values.next();
+            assertTrue(combined.isLong());
+            assertEquals((k == 0) ? 3334 : 3333, combined.getLong());
+            assertFalse(values.hasNext());
+        }
+        Iterator<Datum> mixed = mOutput.read("mixed", KEY_ID);
+        assertEquals(3L, mixed.next().getValue());
+        assertFalse(mixed.hasNext());
+    }
+
+    @Test
+    public void testConcurrentReadsOfTheSameKey() {
+        mOutput = newOutput(Long.MAX_VALUE, null);
+        DatumSlab slab = new DatumSlab(64);
+        for (int i = 0; i < 10; i++) addObject(slab, "a", i);
+        mOutput.finish();
+        Iterator<Datum> first = mOutput.read("a", KEY_ID);
+        Iterator<Datum> second = mOutput.read("a", KEY_ID);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), first.next().getValue());
+            assertEquals(Integer.valueOf(i), second.next().getValue());
+        }
+        assertFalse(first.hasNext());
+        assertFalse(second.hasNext());
+    }
+
+    private SortedMapOutput newOutput(long bufferSize, SumCombiner combiner) {
+        return new SortedMapOutput(bufferSize, combiner, getClass().getClassLoader(), mRecycler);
+    }
+
+    /**
+     * Checks that the value i went to the key i % keys, for every i below count, in order.
+     */
+    private void assertValuesInOrder(int keys, int count) {
+        for (int k = 0; k < keys; k++) {
+            Iterator<Datum> values = mOutput.read("key" + k, KEY_ID);
+            for (int i = k; i < count; i += keys) assertEquals(Integer.valueOf(i), values.next().getValue());
+            assertFalse(values.hasNext());
+        }
+    }
+
+    private void addObject(DatumSlab slab, String key, Serializable value) {
+        int offset = slab.size();
+        slab.append(key, value);
+        mOutput.add(key, slab, offset);
+    }
+
+    private void add(DatumSlab slab, String key, long value) {
+        int offset = slab.size();
+        slab.append(key, value);
+        mOutput.add(key, slab, offset);
+    }
+
+    private void add(DatumSlab slab, String key, double value) {
+        int offset = slab.size();
+        slab.append(key, value);
+        mOutput.add(key, slab, offset);
+    }
+
+    private static class SumCombiner implements LongCombiner {
+
+        @Override
+        public long combine(String key, long accumulated, long value) {
+            return accumulated + value;
+        }
+
+        @Override
+        public Long combine(String key, Long accumulated, Long value) {
+            return accumulated + value;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.parentoop.storage.sqllite;
+
+import com.parentoop.core.utils.iterating.LongIterator;
+
+import java.io.Serializable;
+
+/**
+ * Records per second inserted into a {@link SqlLiteStorage}, raw longs over a thousand keys, one autocommitted insert
+ * at a time and in bulk-load mode, then read back key by key.
+ * <p>
+ * Arguments: the number of records, 100000 by default.
+ */
+public class SqlLiteStorageBenchmark {
+
+    private static final int KEYS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int records = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        run(records, false);
+        run(records, true);
+    }
+
+    private static void run(int records, boolean bulk) throws Exception {
+        SqlLiteStorage<Serializable> storage = new SqlLiteStorage<>();
+        storage.initialize();
+        try {
+            long start = System.nanoTime();
+            if (bulk) storage.beginBulkLoad();
+            for (int i = 0; i < records; i++) storage.insertLong("key" + (i % KEYS), i);
+            if (bulk) storage.endBulkLoad();
+            long insert = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long sum = 0;
+            for (int k = 0; k < KEYS; k++) {
+                LongIterator values = storage.readLongs("key" + k);
+                while (values.hasNext()) sum += values.nextLong();
+            }
+            long read = System.nanoTime() - start;
+            if (sum != (long) records * (records - 1) / 2) throw new AssertionError("Lost records, sum " + sum);
+
+            System.out.printf("%-10s insert: %8.0f records/s, read: %8.0f records/s%n", bulk ? "bulk" : "autocommit",
+                    records / (insert / 1e9), records / (read / 1e9));
+        } finally {
+            storage.terminate();
+        }
+    }
+}
@@ -1,38 +1,80 @@
 package com.parentoop.storage.sqllite;
 
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.LongIterator;
 import com.parentoop.slave.api.SlaveStorage;
+import com.parentoop.storage.sqllite.result.DoubleResultIterator;
+import com.parentoop.storage.sqllite.result.LongResultIterator;
 import com.parentoop.storage.sqllite.result.ResultIterable;
 import com.parentoop.storage.sqllite.result.ResultIterator;
 import com.parentoop.storage.utils.SerializableConverter;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
 
 public class SqlLiteStorage<T extends Serializable> implements SlaveStorage<T> {
 
     private final static String DRIVER_CLASS = org.sqlite.JDBC.class.getName();
-    private final static String SERVER_ADDRESS = "jdbc:sqlite:slave.db";
+    private final static String SERVER_ADDRESS_PREFIX = "jdbc:sqlite:";
 
+    // The database is scratch space deleted with the storage, durability is traded for write speed
+    private final static String[] WRITE_OPTIMIZED_PRAGMAS = {
+            "PRAGMA journal_mode = WAL",
+            "PRAGMA synchronous = OFF",
+            "PRAGMA cache_size = 65536"
+    };
+
+    // In bulk load mode, rows handed to SQLite at a time and rows written per transaction
+    private final static int BATCH_SIZE = 1024;
+    private final static int TRANSACTION_SIZE = 64 * 1024;
+
+    // A file of its own, several slaves may run in the same directory or JVM
+    private Path mDatabaseFile;
     private /* final */ Connection mConnection;
     private /* final */ SqlQueryHelper mQueryHelper;
+    // Prepared once, they'd be compiled again for every insert otherwise
+    private PreparedStatement mInsertValueStatement;
+    // Apart, once a statement was batched the driver can't execute it alone anymore
+    private PreparedStatement mBatchInsertValueStatement;
+    private PreparedStatement mInsertKeyStatement;
+    private PreparedStatement mLastInsertIdStatement;
+    private boolean mBulkLoading = false;
+    private int mBatchedRows = 0;
+    private int mUncommittedRows = 0;
 
     @Override
     public void initialize() throws Exception {
         if (mConnection != null) return;
         Class.forName(DRIVER_CLASS);
-        mConnection = DriverManager.getConnection(SERVER_ADDRESS);
+        mDatabaseFile = Files.createTempFile("slave", ".db");
+        mConnection = DriverManager.getConnection(SERVER_ADDRESS_PREFIX + mDatabaseFile);
         mQueryHelper = new SqlQueryHelper(mConnection);
 //        dropSchema(); // TODO: Comment after debugging
+        applyPragmas();
         createSchema();
+        mInsertValueStatement = mConnection.prepareStatement(INSERT_VALUE_QUERY);
+        mBatchInsertValueStatement = mConnection.prepareStatement(INSERT_VALUE_QUERY);
+        mInsertKeyStatement = mConnection.prepareStatement(INSERT_KEY_QUERY);
+        mLastInsertIdStatement = mConnection.prepareStatement(LAST_INSERT_ID_QUERY);
+    }
+
+    private void applyPragmas() throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            // Some of them return a row, so not executeUpdate()
+            for (String pragma : WRITE_OPTIMIZED_PRAGMAS) statement.execute(pragma);
+        }
     }
 
-    // TODO: Choose proper indexes
     // TODO: Externalize table and column names
     private static final String CREATE_KEYS_TABLE_QUERY =
             "CREATE TABLE IF NOT EXISTS keys (\n" +
@@ -40,8 +82,9 @@ public class SqlLiteStorage<T extends Serializable> implements SlaveStorage<T> {
             "    `key` TEXT NOT NULL\n" +
             ");";
 
+    // Formatted with the table name, see clusterData()
     private static final String CREATE_DATA_TABLE_QUERY =
-            "CREATE TABLE IF NOT EXISTS data (\n" +
+            "CREATE TABLE IF NOT EXISTS %s (\n" +
             "    `key_id` INT NOT NULL,\n" +
             "    `value` BLOB NOT NULL,\n" +
             "    CONSTRAINT `data_key`\n" +
@@ -53,7 +96,8 @@ public class SqlLiteStorage<T extends Serializable> implements SlaveStorage<T> {
 
     private void createSchema() throws SQLException {
         mQueryHelper.update(CREATE_KEYS_TABLE_QUERY).close();
-        mQueryHelper.update(CREATE_DATA_TABLE_QUERY).close();
+        mQueryHelper.update(String.format(CREATE_DATA_TABLE_QUERY, "data")).close();
+        mQueryHelper.update(CREATE_DATA_INDEX_QUERY).close();
     }
 
     private static final String DROP_KEYS_TABLE_QUERY = "DROP TABLE IF EXISTS keys";
@@ -66,41 +110,48 @@ public class SqlLiteStorage<T extends Serializable> implements SlaveStorage<T> {
     }
 
     @Override
-    public void terminate()  {
+    public synchronized void terminate()  {
         try {
             if (mConnection == null) return;
             mQueryHelper.closeAll();
+            if (mBulkLoading) {
+                // Everything is dropped anyway
+                mConnection.rollback();
+                mConnection.setAutoCommit(true);
+                mBulkLoading = false;
+                mBatchedRows = 0;
+                mUncommittedRows = 0;
+            }
+            mInsertValueStatement.close();
+            mBatchInsertValueStatement.close();
+            mInsertKeyStatement.close();
+            mLastInsertIdStatement.close();
             dropSchema();
             mConnection.close();
             mConnection = null;
-        } catch (SQLException e) {
+            mKeysMemoize.clear();
+            Files.deleteIfExists(mDatabaseFile);
+        } catch (SQLException | IOException e) {
             AssertionError error = new AssertionError();
             error.initCause(e);
             throw error;
         }
-
-        // TODO: Clean up .db file
     }
 
-    private static final String SELECT_KEY_ID_QUERY = "SELECT `id` FROM keys WHERE keys.`key` = ?";
+    private static final String INSERT_KEY_QUERY = "INSERT INTO keys (`key`) VALUES (?)";
 
+    private static final String LAST_INSERT_ID_QUERY = "SELECT last_insert_rowid()";
 
-    private int selectOrCreateKeyId(String key) throws SQLException, IOException {
-        ResultSet result = mQueryHelper.get(SELECT_KEY_ID_QUERY, key);
-        if (!result.next()) {
-            mQueryHelper.close();
-            createKey(key);
-            return selectOrCreateKeyId(key);
+    /**
+     * Only called for keys missing from {@link #mKeysMemoize}, which holds every key inserted, so the key is new.
+     */
+    private int createKey(String key) throws SQLException {
+        mInsertKeyStatement.setString(1, key);
+        mInsertKeyStatement.executeUpdate();
+        try (ResultSet result = mLastInsertIdStatement.executeQuery()) {
+            result.next();
+            return result.getInt(1);
         }
-        int id = result.getInt("id");
-        mQueryHelper.close();
-        return id;
-    }
-
-    private static final String INSERT_KEY_QUERY = "INSERT INTO keys (`key`) VALUES (?)";
-
-    private void createKey(String key) throws SQLException, IOException {
-        mQueryHelper.update(INSERT_KEY_QUERY, key).close();
     }
 
     private static final String INSERT_VALUE_QUERY = "INSERT INTO data (`key_id`, `value`) VALUES (?, ?)";
@@ -109,17 +160,53 @@ public class SqlLiteStorage<T extends Serializable> implements SlaveStorage<T> {
 
     @Override
     public void insert(String key, T value) {
+        try {
+            insertValue(key, SerializableConverter.toByteArray(value));
+        } catch (IOException e) {
+            try { terminate(); } catch (Exception exc) { /* No-op */ }
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    // SQLite columns take any type, raw values go in the same column as serialized ones, as INTEGER or REAL
+
+    @Override
+    public void insertLong(String key, long value) {
+        insertValue(key, value);
+    }
+
+    @Override
+    public void insertDouble(String key, double value) {
+        insertValue(key, value);
+    }
+
+    private synchronized void insertValue(String key, Object value) {
         try {
             int id;
             if (!mKeysMemoize.containsKey(key)) {
-                id = selectOrCreateKeyId(key);
+                id = createKey(key);
                 mKeysMemoize.put(key, id);
             } else {
                 id = mKeysMemoize.get(key);
             }
-            byte[] bytes = SerializableConverter.toByteArray(value);
-            mQueryHelper.update(INSERT_VALUE_QUERY, id, (Object) bytes).close();
-        } catch (SQLException | IOException e) {
+            PreparedStatement statement = mBulkLoading ? mBatchInsertValueStatement : mInsertValueStatement;
+            statement.setInt(1, id);
+            if (value instanceof Long) {
+                statement.setLong(2, (long) value);
+            } else if (value instanceof Double) {
+                statement.setDouble(2, (double) value);
+            } else {
+                statement.setBytes(2, (byte[]) value);
+            }
+            if (!mBulkLoading) {
+                statement.executeUpdate();
+                return;
+            }
+            statement.addBatch();
+            if (++mBatchedRows == BATCH_SIZE) executeBatch();
+        } catch (SQLException e) {
             try { terminate(); } catch (Exception exc) { /* No-op */ }
             AssertionError error = new AssertionError();
             error.initCause(e);
@@ -127,16 +214,86 @@ public class SqlLiteStorage<T extends Serializable> implements SlaveStorage<T> {
         }
     }
 
-    private static final String SELECT_DATA_BY_KEY_QUERY =
-            "SELECT keys.`key`, data.`value` FROM keys" +
-            "    INNER JOIN data" +
-            "        ON data.`key_id` = keys.`id`" +
-            "    WHERE keys.`key` = ?";
+    @Override
+    public synchronized void beginBulkLoad() {
+        if (mBulkLoading) return;
+        try {
+            mConnection.setAutoCommit(false);
+            mBulkLoading = true;
+            // Built again once the load ends
+            mQueryHelper.update(DROP_DATA_INDEX_QUERY).close();
+        } catch (SQLException e) {
+            try { terminate(); } catch (Exception exc) { /* No-op */ }
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
 
     @Override
-    public Iterable<T> read(String key) {
+    public synchronized void endBulkLoad() {
+        if (!mBulkLoading) return;
         try {
-            ResultSet result = mQueryHelper.get(SELECT_DATA_BY_KEY_QUERY, key);
+            if (mBatchedRows > 0) executeBatch();
+            clusterData();
+            mConnection.commit();
+            mUncommittedRows = 0;
+            mConnection.setAutoCommit(true);
+            mBulkLoading = false;
+        } catch (SQLException e) {
+            try { terminate(); } catch (Exception exc) { /* No-op */ }
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    private void executeBatch() throws SQLException {
+        mBatchInsertValueStatement.executeBatch();
+        mUncommittedRows += mBatchedRows;
+        mBatchedRows = 0;
+        if (mUncommittedRows >= TRANSACTION_SIZE) {
+            mConnection.commit();
+            mUncommittedRows = 0;
+        }
+    }
+
+    private static final String COPY_DATA_BY_KEY_QUERY =
+            "INSERT INTO data_by_key (`key_id`, `value`)" +
+            "    SELECT `key_id`, `value` FROM data ORDER BY `key_id`, rowid";
+
+    private static final String RENAME_DATA_BY_KEY_QUERY = "ALTER TABLE data_by_key RENAME TO data";
+
+    private static final String CREATE_DATA_INDEX_QUERY = "CREATE INDEX IF NOT EXISTS data_key_id ON data (`key_id`)";
+
+    private static final String DROP_DATA_INDEX_QUERY = "DROP INDEX IF EXISTS data_key_id";
+
+    /**
+     * Rewrites the data table ordered by key and indexes it, so that the values of a key are consecutive rows and
+     * reading them is a single range scan. Done once the values are loaded rather than maintaining the index while
+     * they are inserted.
+     */
+    private void clusterData() throws SQLException {
+        mQueryHelper.update(String.format(CREATE_DATA_TABLE_QUERY, "data_by_key")).close();
+        mQueryHelper.update(COPY_DATA_BY_KEY_QUERY).close();
+        mQueryHelper.update(DROP_DATA_TABLE_QUERY).close();
+        mQueryHelper.update(RENAME_DATA_BY_KEY_QUERY).close();
+        mQueryHelper.update(CREATE_DATA_INDEX_QUERY).close();
+    }
+
+    // Keys are looked up in mKeysMemoize, a key that was never inserted gets an id no row has
+    private int getKeyId(String key) {
+        Integer id = mKeysMemoize.get(key);
+        return (id != null) ? id : -1;
+    }
+
+    private static final String SELECT_DATA_BY_KEY_QUERY = "SELECT data.`value` FROM data WHERE data.`key_id` = ?";
+
+    @Override
+    public synchronized Iterable<T> read(String key) {
+        endBulkLoad();
+        try {
+            ResultSet result = mQueryHelper.get(SELECT_DATA_BY_KEY_QUERY, getKeyId(key));
             return new ResultIterable<>(new ResultIterator<T>(result));
         } catch (SQLException | IOException e) {
             try { terminate(); } catch (Exception exc) { /* No-op */ }
@@ -146,4 +303,33 @@ public class SqlLiteStorage<T extends Serializable> implements SlaveStorage<T> {
         }
     }
 
+    private static final String SELECT_TYPED_DATA_BY_KEY_QUERY =
+            "SELECT data.`value`, typeof(data.`value`) = 'blob' AS `boxed` FROM data WHERE data.`key_id` = ?";
+
+    @Override
+    public synchronized LongIterator readLongs(String key) {
+        endBulkLoad();
+        try {
+            return new LongResultIterator(mQueryHelper.get(SELECT_TYPED_DATA_BY_KEY_QUERY, getKeyId(key)));
+        } catch (SQLException | IOException e) {
+            try { terminate(); } catch (Exception exc) { /* No-op */ }
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    @Override
+    public synchronized DoubleIterator readDoubles(String key) {
+        endBulkLoad();
+        try {
+            return new DoubleResultIterator(mQueryHelper.get(SELECT_TYPED_DATA_BY_KEY_QUERY, getKeyId(key)));
+        } catch (SQLException | IOException e) {
+            try { terminate(); } catch (Exception exc) { /* No-op */ }
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
 }
\ No newline at end of file
@@ -63,6 +63,10 @@ import java.util.Stack;
                 statement.setString(i, (String) value);
             } else if (value instanceof Integer) {
                 statement.setInt(i, (int) value);
+            } else if (value instanceof Long) {
+                statement.setLong(i, (long) value);
+            } else if (value instanceof Double) {
+                statement.setDouble(i, (double) value);
             } else if (value instanceof byte[]) {
                 statement.setBytes(i, (byte[]) value);
             } else {
@@ -0,0 +1,59 @@
+package com.parentoop.storage.sqllite.result;
+
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.storage.utils.SerializableConverter;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads values without boxing them. Expects a {@code boxed} column telling whether the value was inserted as a
+ * serialized object instead of raw.
+ */
+public class DoubleResultIterator implements DoubleIterator {
+
+    private final ResultSet mResultSet;
+    private boolean mHasNext;
+    private double mNext;
+
+    public DoubleResultIterator(ResultSet resultSet) {
+        mResultSet = resultSet;
+        move();
+    }
+
+    private void move() {
+        try {
+            mHasNext = mResultSet.next();
+            if (mHasNext) {
+                if (mResultSet.getBoolean("boxed")) {
+                    Number value = SerializableConverter.toObject(mResultSet.getBytes("value"));
+                    mNext = value.doubleValue();
+                } else {
+                    mNext = mResultSet.getDouble("value");
+                }
+            } else {
+                mResultSet.close();
+            }
+        } catch (SQLException | IOException | ClassNotFoundException e) {
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        // SQLite doesn't support mResultSet.isLast
+        return mHasNext;
+    }
+
+    @Override
+    public double nextDouble() {
+        if (!mHasNext) throw new IllegalAccessError();
+        double next = mNext;
+        move();
+        return next;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.parentoop.storage.sqllite.result;
+
+import com.parentoop.core.utils.iterating.LongIterator;
+import com.parentoop.storage.utils.SerializableConverter;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads values without boxing them. Expects a {@code boxed} column telling whether the value was inserted as a
+ * serialized object instead of raw.
+ */
+public class LongResultIterator implements LongIterator {
+
+    private final ResultSet mResultSet;
+    private boolean mHasNext;
+    private long mNext;
+
+    public LongResultIterator(ResultSet resultSet) {
+        mResultSet = resultSet;
+        move();
+    }
+
+    private void move() {
+        try {
+            mHasNext = mResultSet.next();
+            if (mHasNext) {
+                if (mResultSet.getBoolean("boxed")) {
+                    Number value = SerializableConverter.toObject(mResultSet.getBytes("value"));
+                    mNext = value.longValue();
+                } else {
+                    mNext = mResultSet.getLong("value");
+                }
+            } else {
+                mResultSet.close();
+            }
+        } catch (SQLException | IOException | ClassNotFoundException e) {
+            AssertionError error = new AssertionError();
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        // SQLite doesn't support mResultSet.isLast
+        return mHasNext;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!mHasNext) throw new IllegalAccessError();
+        long next = mNext;
+        move();
+        return next;
+    }
+
+}
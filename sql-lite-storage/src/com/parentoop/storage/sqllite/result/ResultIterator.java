@@ -22,8 +22,15 @@ public class ResultIterator<T> implements Iterator<T> {
         try {
             mHasNext = mResultSet.next();
             if (mHasNext) {
-                byte[] value = mResultSet.getBytes("value");
-                mNext = SerializableConverter.toObject(value);
+                Object value = mResultSet.getObject("value");
+                if (value instanceof byte[]) {
+                    mNext = SerializableConverter.toObject((byte[]) value);
+                } else {
+                    // Inserted raw, SQLite hands small integers back as Integer
+                    if (value instanceof Integer) value = (long) (int) value;
+                    //noinspection unchecked
+                    mNext = (T) value;
+                }
             } else {
                 mResultSet.close();
             }
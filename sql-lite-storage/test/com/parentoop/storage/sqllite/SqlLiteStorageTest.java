@@ -1,5 +1,7 @@
 package com.parentoop.storage.sqllite;
 
+import com.parentoop.core.utils.iterating.DoubleIterator;
+import com.parentoop.core.utils.iterating.LongIterator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -8,6 +10,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.*;
@@ -75,4 +78,78 @@ public class SqlLiteStorageTest {
         assertEquals(values.size(), i);
     }
 
+    @Test
+    public void testInsertAndReadRawValues() throws Exception {
+        mStorage.insertLong("a", 1);
+        mStorage.insertLong("a", Long.MAX_VALUE);
+        mStorage.insert("a", 3);
+        LongIterator longs = mStorage.readLongs("a");
+        assertEquals(1, longs.nextLong());
+        assertEquals(Long.MAX_VALUE, longs.nextLong());
+        assertEquals(3, longs.nextLong());
+        assertFalse(longs.hasNext());
+
+        mStorage.insertDouble("b", 0.5);
+        mStorage.insert("b", 1.5);
+        DoubleIterator doubles = mStorage.readDoubles("b");
+        assertEquals(0.5, doubles.nextDouble(), 0);
+        assertEquals(1.5, doubles.nextDouble(), 0);
+        assertFalse(doubles.hasNext());
+    }
+
+    @Test
+    public void testReadRawValuesBoxed() throws Exception {
+        mStorage.insertLong(KEY, 7);
+        mStorage.insertDouble(KEY, 0.5);
+        Iterator<?> values = mStorage.read(KEY).iterator();
+        assertEquals(7L, values.next());
+        assertEquals(0.5, values.next());
+    }
+
+    @Test
+    public void testBulkLoad() throws Exception {
+        int count = 5000;
+        mStorage.beginBulkLoad();
+        for (int i = 0; i < count; i++) mStorage.insertLong("key" + (i % 10), i);
+        mStorage.insert("object", "value");
+        mStorage.endBulkLoad();
+        long sum = 0;
+        for (int k = 0; k < 10; k++) {
+            LongIterator values = mStorage.readLongs("key" + k);
+            while (values.hasNext()) sum += values.nextLong();
+        }
+        assertEquals((long) count * (count - 1) / 2, sum);
+        assertEquals("value", mStorage.read("object").iterator().next());
+    }
+
+    @Test
+    public void testReadEndsBulkLoad() throws Exception {
+        mStorage.beginBulkLoad();
+        mStorage.insertLong(KEY, 1);
+        LongIterator values = mStorage.readLongs(KEY);
+        assertEquals(1, values.nextLong());
+        assertFalse(values.hasNext());
+        mStorage.insertLong(KEY, 2);
+        values = mStorage.readLongs(KEY);
+        assertEquals(1, values.nextLong());
+        assertEquals(2, values.nextLong());
+    }
+
+    @Test
+    public void testValuesKeepInsertionOrderAcrossBulkLoads() throws Exception {
+        for (int load = 0; load < 2; load++) {
+            mStorage.beginBulkLoad();
+            for (int i = 0; i < 100; i++) mStorage.insertLong((i % 2 == 0) ? "even" : "odd", load * 100 + i);
+            mStorage.endBulkLoad();
+        }
+        mStorage.insertLong("odd", 201);
+        LongIterator values = mStorage.readLongs("odd");
+        for (int load = 0; load < 2; load++) {
+            for (int i = 1; i < 100; i += 2) assertEquals(load * 100 + i, values.nextLong());
+        }
+        assertEquals(201, values.nextLong());
+        assertFalse(values.hasNext());
+        assertFalse(mStorage.readLongs("missing").hasNext());
+    }
+
 }